@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting.benchmark;
+
+import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.remoting.RoleChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of {@link Channel#call(Callable)} over each {@link ChannelTransport}.
+ *
+ * <p>
+ * {@link #throughput()} reports operations per second, {@link #latency()} reports the latency distribution
+ * (including the p50 and p99 percentiles) and {@link #contendedThroughput()} has several threads share the
+ * same channel. Run with {@code -prof gc} (the default of the {@code jmh} Maven profile) to get the allocation
+ * per call as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChannelCallBenchmark {
+
+    @Param({"LOCAL", "CHUNKED", "NIO_HUB", "PROTOCOL_STACK"})
+    public ChannelTransport transport;
+
+    /**
+     * Size of the payload sent with each call and echoed back.
+     */
+    @Param({"0", "4096"})
+    public int payloadSize;
+
+    private ExecutorService executor;
+    private ChannelTransport.Connection connection;
+    private VirtualChannel channel;
+    private Echo echo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        connection = transport.connect(executor);
+        channel = connection.channel();
+        echo = new Echo(new byte[payloadSize]);
+        // the first call loads Echo over the channel, keep that out of the measurements
+        channel.call(echo);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            connection.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] throughput() throws Exception {
+        return channel.call(echo);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] latency() throws Exception {
+        return channel.call(echo);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public byte[] contendedThroughput() throws Exception {
+        return channel.call(echo);
+    }
+
+    /**
+     * Returns its payload back to the caller.
+     */
+    private static final class Echo implements Callable<byte[], IOException> {
+        private final byte[] payload;
+
+        Echo(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            return payload;
+        }
+
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
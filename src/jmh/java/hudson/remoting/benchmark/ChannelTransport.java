@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting.benchmark;
+
+import hudson.remoting.Channel;
+import hudson.remoting.ChannelBuilder;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.jenkinsci.remoting.nio.NioChannelHub;
+import org.jenkinsci.remoting.protocol.IOHub;
+import org.jenkinsci.remoting.protocol.ProtocolStack;
+import org.jenkinsci.remoting.protocol.impl.AckFilterLayer;
+import org.jenkinsci.remoting.protocol.impl.ChannelApplicationLayer;
+import org.jenkinsci.remoting.protocol.impl.ConnectionHeadersFilterLayer;
+import org.jenkinsci.remoting.protocol.impl.DeflateFilterLayer;
+import org.jenkinsci.remoting.protocol.impl.NIONetworkLayer;
+
+/**
+ * The transports that {@link ChannelCallBenchmark} measures.
+ * Each constant knows how to connect a pair of in-process peers and hand back the client side.
+ */
+public enum ChannelTransport {
+    /**
+     * {@link LocalChannel}, i.e. no transport at all. This is the baseline for the others.
+     */
+    LOCAL {
+        @Override
+        Connection connect(ExecutorService executor) {
+            final LocalChannel channel = new LocalChannel(executor);
+            return new Connection() {
+                @Override
+                public VirtualChannel channel() {
+                    return channel;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    },
+    /**
+     * {@link Channel} over piped streams, which negotiates the chunked transport.
+     */
+    CHUNKED {
+        @Override
+        Connection connect(final ExecutorService executor) throws Exception {
+            final FastPipedInputStream in1 = new FastPipedInputStream();
+            final FastPipedOutputStream out1 = new FastPipedOutputStream(in1);
+            final FastPipedInputStream in2 = new FastPipedInputStream();
+            final FastPipedOutputStream out2 = new FastPipedOutputStream(in2);
+
+            Future<Channel> south = executor.submit(() -> new ChannelBuilder("south", executor)
+                    .withMode(Channel.Mode.BINARY).build(in2, out1));
+            Channel north = new ChannelBuilder("north", executor)
+                    .withMode(Channel.Mode.BINARY).build(in1, out2);
+            return new ChannelConnection(north, south.get(10, TimeUnit.SECONDS), null);
+        }
+    },
+    /**
+     * {@link Channel} over a pair of NIO pipes, served by {@link NioChannelHub}.
+     */
+    NIO_HUB {
+        @Override
+        Connection connect(final ExecutorService executor) throws Exception {
+            final NioChannelHub hub = new NioChannelHub(executor);
+            executor.submit(hub);
+            final Pipe n2s = Pipe.open();
+            final Pipe s2n = Pipe.open();
+
+            Future<Channel> south = executor.submit(() -> hub.newChannelBuilder("south", executor)
+                    .withMode(Channel.Mode.BINARY).build(n2s.source(), s2n.sink()));
+            Channel north = hub.newChannelBuilder("north", executor)
+                    .withMode(Channel.Mode.BINARY).build(s2n.source(), n2s.sink());
+            return new ChannelConnection(north, south.get(10, TimeUnit.SECONDS), hub);
+        }
+    },
+    /**
+     * {@link Channel} over a loopback socket through {@link IOHub} and a {@link ProtocolStack}
+     * laid out as the JNLP4-plain protocol does it.
+     */
+    PROTOCOL_STACK {
+        @Override
+        Connection connect(ExecutorService executor) throws Exception {
+            return connectProtocolStack(executor, false);
+        }
+    },
+    /**
+     * As {@link #PROTOCOL_STACK} with a {@link DeflateFilterLayer} negotiated on top of the connection headers.
+     */
+    PROTOCOL_STACK_DEFLATE {
+        @Override
+        Connection connect(ExecutorService executor) throws Exception {
+            return connectProtocolStack(executor, true);
+        }
+    };
+
+    /**
+     * Connects a pair of peers over a loopback socket through a {@link ProtocolStack}.
+     *
+     * @param executor the executor to run both peers on.
+     * @param deflate  {@code true} to compress the connection.
+     * @return the connection.
+     * @throws Exception if the peers could not be connected.
+     */
+    private static Connection connectProtocolStack(ExecutorService executor, boolean deflate) throws Exception {
+        final IOHub hub = IOHub.create(executor);
+        SocketChannel client;
+        SocketChannel server;
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            client = SocketChannel.open(serverSocket.getLocalAddress());
+            server = serverSocket.accept();
+        }
+        ProtocolStack<Future<Channel>> south = stack(hub, executor, server, "south", deflate);
+        ProtocolStack<Future<Channel>> north = stack(hub, executor, client, "north", deflate);
+        return new ChannelConnection(north.get().get(10, TimeUnit.SECONDS),
+                south.get().get(10, TimeUnit.SECONDS), hub);
+    }
+
+    private static ProtocolStack<Future<Channel>> stack(IOHub hub, ExecutorService executor,
+                                                        SocketChannel socket, String name, boolean deflate)
+            throws IOException {
+        Map<String, String> headers = Collections.singletonMap("id", name);
+        ConnectionHeadersFilterLayer.Listener listener = new ConnectionHeadersFilterLayer.Listener() {
+            @Override
+            public void onReceiveHeaders(Map<String, String> headers) {
+            }
+        };
+        DeflateFilterLayer deflateLayer = null;
+        if (deflate) {
+            deflateLayer = new DeflateFilterLayer();
+            headers = deflateLayer.decorate(headers);
+            listener = deflateLayer.listener(listener);
+        }
+        return ProtocolStack.on(new NIONetworkLayer(hub, socket, socket))
+                .named(name)
+                .filter(new AckFilterLayer())
+                .filter(new ConnectionHeadersFilterLayer(headers, listener))
+                .filter(deflateLayer)
+                .build(new ChannelApplicationLayer(executor, null));
+    }
+
+    /**
+     * Connects a pair of peers.
+     *
+     * @param executor the executor to run both peers on.
+     * @return the connection, whose {@link Connection#channel()} is the calling side.
+     * @throws Exception if the peers could not be connected.
+     */
+    abstract Connection connect(ExecutorService executor) throws Exception;
+
+    /**
+     * A connected pair of peers.
+     */
+    interface Connection extends Closeable {
+        /**
+         * @return the calling side of the connection.
+         */
+        @Nonnull
+        VirtualChannel channel();
+    }
+
+    /**
+     * A {@link Connection} between two {@link Channel}s.
+     */
+    private static class ChannelConnection implements Connection {
+        private final Channel north;
+        private final Channel south;
+        private final Closeable hub;
+
+        ChannelConnection(Channel north, Channel south, Closeable hub) {
+            this.north = north;
+            this.south = south;
+            this.hub = hub;
+        }
+
+        @Override
+        public VirtualChannel channel() {
+            return north;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                north.close();
+                north.join(TimeUnit.SECONDS.toMillis(10));
+                south.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (hub != null) {
+                    hub.close();
+                }
+            }
+        }
+    }
+}
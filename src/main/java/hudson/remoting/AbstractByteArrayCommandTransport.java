@@ -1,12 +1,10 @@
 package hudson.remoting;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
-import org.jenkinsci.remoting.util.AnonymousClassWarnings;
 
 /**
  * {@link CommandTransport} that works with {@code byte[]} instead of command object.
@@ -29,6 +27,23 @@ public abstract class AbstractByteArrayCommandTransport extends CommandTransport
      */
     public abstract void writeBlock(Channel channel, byte[] payload) throws IOException;
 
+    /**
+     * Writes a part of a byte[] to the transport.
+     *
+     * Same as {@link #writeBlock(Channel, byte[])}, but spares the caller copying the payload into an array
+     * of its own. The transport must not hold on to the array after returning.
+     * The default implementation makes that copy, transports should override it if they can do better.
+     *
+     * @since 3.37
+     */
+    public void writeBlock(Channel channel, byte[] payload, int offset, int length) throws IOException {
+        if (offset == 0 && length == payload.length) {
+            writeBlock(channel, payload);
+        } else {
+            writeBlock(channel, Arrays.copyOfRange(payload, offset, offset + length));
+        }
+    }
+
     /**
      * Starts the transport.
      *
@@ -74,13 +89,25 @@ public abstract class AbstractByteArrayCommandTransport extends CommandTransport
 
     @Override
     public final void write(Command cmd, boolean last) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(baos);
-        cmd.writeTo(channel,oos);
-        oos.close();
-        byte[] block = baos.toByteArray();
-        channel.notifyWrite(cmd, block.length);
-        writeBlock(channel, block);
+        CommandBlock block = encode(cmd);
+        try {
+            write(cmd, block, last);
+        } finally {
+            block.release();
+        }
+    }
+
+    @Override
+    /*package*/ final CommandBlock encode(Command cmd) throws IOException {
+        CommandBlock block = CommandBlock.acquire();
+        cmd.writeBlockTo(channel, block);
+        return block;
+    }
+
+    @Override
+    /*package*/ final void write(Command cmd, CommandBlock block, boolean last) throws IOException {
+        channel.notifyWrite(cmd, block.size());
+        writeBlock(channel, block.buffer(), 0, block.size());
     }
 
     private static final Logger LOGGER = Logger.getLogger(AbstractByteArrayCommandTransport.class.getName());
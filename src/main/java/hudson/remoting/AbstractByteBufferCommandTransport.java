@@ -24,16 +24,13 @@
 package hudson.remoting;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import org.jenkinsci.remoting.util.AnonymousClassWarnings;
 import org.jenkinsci.remoting.util.ByteBufferQueue;
-import org.jenkinsci.remoting.util.ByteBufferQueueOutputStream;
 import org.jenkinsci.remoting.util.FastByteBufferQueueInputStream;
 import org.jenkinsci.remoting.util.IOUtils;
 
@@ -76,10 +73,6 @@ public abstract class AbstractByteBufferCommandTransport extends CommandTranspor
      * The transport frame size.
      */
     private int transportFrameSize = 8192;
-    /**
-     * The chunk body.
-     */
-    private ByteBuffer writeChunkBody = ByteBuffer.allocate(transportFrameSize);
     /**
      * The delegate, this is required as we cannot access some of the methods of {@link ChunkHeader} outside of the
      * remoting module.
@@ -113,10 +106,6 @@ public abstract class AbstractByteBufferCommandTransport extends CommandTranspor
      * the commands we get and parse them later.
      */
     private int[] readCommandSizes = new int[16];
-    /**
-     * The queue used to stage output.
-     */
-    private ByteBufferQueue sendStaging = new ByteBufferQueue(transportFrameSize);
 
     /**
      * Write the packet.
@@ -243,9 +232,8 @@ public abstract class AbstractByteBufferCommandTransport extends CommandTranspor
         if (transportFrameSize <= 0 || transportFrameSize > Short.MAX_VALUE) {
             throw new IllegalArgumentException();
         }
-        this.transportFrameSize = transportFrameSize;
         // this is the only one that matters when it comes to sizing as we have to accept any frame size on receive
-        writeChunkBody = ByteBuffer.allocate(transportFrameSize);
+        this.transportFrameSize = transportFrameSize;
     }
 
     /**
@@ -281,27 +269,44 @@ public abstract class AbstractByteBufferCommandTransport extends CommandTranspor
      */
     @Override
     public final void write(Command cmd, boolean last) throws IOException {
-        ByteBufferQueueOutputStream bqos = new ByteBufferQueueOutputStream(sendStaging);
-        ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(bqos);
+        CommandBlock block = encode(cmd);
         try {
-            cmd.writeTo(channel, oos);
+            write(cmd, block, last);
         } finally {
-            oos.close();
+            block.release();
         }
-        long remaining = sendStaging.remaining();
-        channel.notifyWrite(cmd, remaining);
-        while (remaining > 0L) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    /*package*/ final CommandBlock encode(Command cmd) throws IOException {
+        CommandBlock block = CommandBlock.acquire();
+        cmd.writeBlockTo(channel, block);
+        return block;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    /*package*/ final void write(Command cmd, CommandBlock block, boolean last) throws IOException {
+        channel.notifyWrite(cmd, block.size());
+        // the layers below copy what they need to keep, so the frames can be sent right out of the block
+        ByteBuffer body = ByteBuffer.wrap(block.buffer(), 0, block.size());
+        int remaining = block.size();
+        while (remaining > 0) {
             int frame = remaining > transportFrameSize
                     ? transportFrameSize
-                    : (int) remaining; // # of bytes we send in this chunk
+                    : remaining; // # of bytes we send in this chunk
             writeChunkHeader.clear();
             ChunkHeader.write(writeChunkHeader, frame, remaining > transportFrameSize);
             writeChunkHeader.flip();
-            writeChunkBody.clear();
-            writeChunkBody.limit(frame);
-            sendStaging.get(writeChunkBody);
-            writeChunkBody.flip();
-            write(writeChunkHeader, writeChunkBody);
+            ByteBuffer chunk = body.slice();
+            chunk.limit(frame);
+            write(writeChunkHeader, chunk);
+            body.position(body.position() + frame);
             remaining -= frame;
         }
     }
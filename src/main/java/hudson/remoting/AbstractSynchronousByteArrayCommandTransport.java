@@ -1,9 +1,7 @@
 package hudson.remoting;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import org.jenkinsci.remoting.util.AnonymousClassWarnings;
+import java.util.Arrays;
 
 /**
  * {@link SynchronousCommandTransport} that works with {@code byte[]} instead of command object.
@@ -15,6 +13,12 @@ import org.jenkinsci.remoting.util.AnonymousClassWarnings;
  * @since 2.13
  */
 public abstract class AbstractSynchronousByteArrayCommandTransport extends SynchronousCommandTransport {
+    /**
+     * {@code true} if a subclass overrides {@link #write(Command, boolean)}, in which case {@link Channel} has to go
+     * through it rather than write the blocks it serialized beforehand.
+     */
+    private final boolean writeOverridden = isWriteOverridden(getClass());
+
     /**
      * Read a byte[] from the underlying transport for the given channel.
      */
@@ -29,6 +33,23 @@ public abstract class AbstractSynchronousByteArrayCommandTransport extends Synch
      */
     public abstract void writeBlock(Channel channel, byte[] payload) throws IOException;
 
+    /**
+     * Writes a part of a byte[] to the transport.
+     *
+     * Same as {@link #writeBlock(Channel, byte[])}, but spares the caller copying the payload into an array
+     * of its own. The transport must not hold on to the array after returning.
+     * The default implementation makes that copy, transports should override it if they can do better.
+     *
+     * @since 3.37
+     */
+    public void writeBlock(Channel channel, byte[] payload, int offset, int length) throws IOException {
+        if (offset == 0 && length == payload.length) {
+            writeBlock(channel, payload);
+        } else {
+            writeBlock(channel, Arrays.copyOfRange(payload, offset, offset + length));
+        }
+    }
+
     @Override
     public Command read() throws IOException, ClassNotFoundException {
         byte[] block = readBlock(channel);
@@ -37,12 +58,52 @@ public abstract class AbstractSynchronousByteArrayCommandTransport extends Synch
 
     @Override
     public void write(Command cmd, boolean last) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(baos);
-        cmd.writeTo(channel,oos);
-        oos.close();
-        byte[] block = baos.toByteArray();
-        channel.notifyWrite(cmd, block.length);
-        writeBlock(channel, block);
+        CommandBlock block = encodeBlock(cmd);
+        try {
+            writeEncoded(cmd, block);
+        } finally {
+            block.release();
+        }
+    }
+
+    @Override
+    /*package*/ CommandBlock encode(Command cmd) throws IOException {
+        if (writeOverridden) {
+            // the subclass has its own write(Command, boolean), which has to see every command
+            return null;
+        }
+        return encodeBlock(cmd);
+    }
+
+    @Override
+    /*package*/ void write(Command cmd, CommandBlock block, boolean last) throws IOException {
+        if (block == null) {
+            write(cmd, last);
+        } else {
+            writeEncoded(cmd, block);
+        }
+    }
+
+    private CommandBlock encodeBlock(Command cmd) throws IOException {
+        CommandBlock block = CommandBlock.acquire();
+        cmd.writeBlockTo(channel, block);
+        return block;
+    }
+
+    private void writeEncoded(Command cmd, CommandBlock block) throws IOException {
+        channel.notifyWrite(cmd, block.size());
+        writeBlock(channel, block.buffer(), 0, block.size());
+    }
+
+    /**
+     * Checks whether a subclass overrides {@link #write(Command, boolean)}, which predates {@link #encode(Command)}.
+     */
+    private static boolean isWriteOverridden(Class<?> clazz) {
+        try {
+            return clazz.getMethod("write", Command.class, boolean.class).getDeclaringClass()
+                    != AbstractSynchronousByteArrayCommandTransport.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 }
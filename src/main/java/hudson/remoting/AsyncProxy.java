@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import javax.annotation.Nonnull;
+import org.jenkinsci.remoting.util.ListenableFuture;
+import org.jenkinsci.remoting.util.SettableFuture;
+
+/**
+ * Future-returning views of proxies to objects exported by the other side of a {@link Channel}.
+ *
+ * <p>
+ * Methods invoked on a proxy obtained from {@link Channel#export(Class, Object)} block the calling thread until
+ * the other side has responded, unless they are {@link Asynchronous} and return nothing. To keep many calls
+ * in flight without a thread each, declare a companion interface whose methods mirror those of the exported
+ * interface (same names and parameter types) but return a future of the original return type:
+ *
+ * <pre>
+ * public interface Greeter {
+ *     String greet(String name) throws IOException;
+ * }
+ *
+ * public interface AsyncGreeter {
+ *     ListenableFuture&lt;String&gt; greet(String name);
+ * }
+ *
+ * AsyncGreeter async = AsyncProxy.of(greeterProxy, AsyncGreeter.class);
+ * ListenableFuture&lt;String&gt; hello = async.greet("world");
+ * </pre>
+ *
+ * <p>
+ * The methods of the companion interface may return {@link ListenableFuture}, {@link Future},
+ * {@link java.util.concurrent.Future}, {@link CompletableFuture} or {@link CompletionStage}.
+ * They return immediately; failures, including the ones to send the call, are reported by the future.
+ * Results are deserialized on the {@link Channel}'s executor, which is also where listeners added with
+ * {@link ListenableFuture#addListener(Runnable, Executor)} and non-async {@link CompletionStage} stages run
+ * if they are attached before the result arrives. Cancelling the future cancels the remote call.
+ *
+ * @since 3.37
+ */
+public final class AsyncProxy {
+    private AsyncProxy() {}
+
+    /**
+     * Creates a future-returning view of a proxy to a remote object.
+     *
+     * @param proxy
+     *      A proxy to an object exported by the other side of a channel.
+     * @param asyncType
+     *      Interface whose methods mirror methods of the interface the proxy implements,
+     *      returning one of the supported future types.
+     * @throws IllegalArgumentException
+     *      If the object is not a proxy to a remote object, or a method of {@code asyncType} has
+     *      no counterpart or an unsupported return type.
+     */
+    @Nonnull
+    public static <A> A of(@Nonnull Object proxy, @Nonnull Class<A> asyncType) {
+        if (!asyncType.isInterface()) {
+            throw new IllegalArgumentException(asyncType + " is not an interface");
+        }
+        InvocationHandler h = Proxy.isProxyClass(proxy.getClass()) ? Proxy.getInvocationHandler(proxy) : null;
+        if (!(h instanceof RemoteInvocationHandler)) {
+            throw new IllegalArgumentException(proxy + " is not a proxy to a remote object");
+        }
+
+        final RemoteInvocationHandler target = (RemoteInvocationHandler) h;
+        final Map<Method, Method> counterparts = new HashMap<>();
+        for (Method m : asyncType.getMethods()) {
+            Class<?> rt = m.getReturnType();
+            if (!rt.isAssignableFrom(SettableFuture.class) && !rt.isAssignableFrom(CompletableFuture.class)) {
+                throw new IllegalArgumentException(m + " does not return a supported future type");
+            }
+            counterparts.put(m, findCounterpart(proxy.getClass(), m));
+        }
+
+        return asyncType.cast(Proxy.newProxyInstance(asyncType.getClassLoader(), new Class[] {asyncType},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+                        Method counterpart = counterparts.get(method);
+                        if (counterpart == null) {
+                            switch (method.getName()) {
+                            case "equals":
+                                return self == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(self);
+                            default:
+                                return toString();
+                            }
+                        }
+                        ListenableFuture<Object> f = target.invokeAsync(counterpart, args);
+                        return method.getReturnType().isAssignableFrom(SettableFuture.class) ? f : toCompletable(f);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "AsyncProxy[" + target + "]";
+                    }
+                }));
+    }
+
+    private static Method findCounterpart(Class<?> proxyClass, Method m) {
+        for (Class<?> type : proxyClass.getInterfaces()) {
+            if (type == IReadResolve.class) {
+                continue;
+            }
+            try {
+                return type.getMethod(m.getName(), m.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                // try the next one
+            }
+        }
+        throw new IllegalArgumentException("No counterpart of " + m + " in the interfaces of the proxy");
+    }
+
+    private static CompletableFuture<Object> toCompletable(final ListenableFuture<Object> f) {
+        final CompletableFuture<Object> c = new CompletableFuture<Object>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                f.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        f.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    c.complete(f.get());
+                } catch (java.util.concurrent.ExecutionException e) {
+                    c.completeExceptionally(e.getCause());
+                } catch (Throwable t) {
+                    c.completeExceptionally(t);
+                }
+            }
+        }, new Executor() {
+            @Override
+            public void execute(@Nonnull Runnable command) {
+                command.run();
+            }
+        });
+        return c;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link Callable} that carries a whole batch of {@link Callable}s to the other side in one {@link UserRequest},
+ * so that they cost a single round trip.
+ *
+ * <p>
+ * The outcome of every element is captured separately in the {@link Result}, so that a failure of one
+ * element does not affect the others.
+ *
+ * @see Channel#callAllAsync(java.util.Collection, boolean)
+ * @see Capability#supportsBatchCalls()
+ */
+final class BatchCallable implements DelegatingCallable<BatchCallable.Result, IOException> {
+    private final Callable<?,?>[] callables;
+
+    /**
+     * Run the elements concurrently on {@link Channel#executor} rather than one after another.
+     */
+    private final boolean parallel;
+
+    @CheckForNull
+    private final transient ClassLoader classLoader;
+
+    BatchCallable(@Nonnull Callable<?,?>[] callables, boolean parallel) {
+        this.callables = callables;
+        this.parallel = parallel;
+        // MultiClassLoaderSerializer takes care of elements coming from other classloaders
+        this.classLoader = UserRequest.getClassLoader(callables[0]);
+    }
+
+    /*package*/ int size() {
+        return callables.length;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Gets the classloader to deserialize the outcome of the i-th element with.
+     */
+    /*package*/ ClassLoader getClassLoader(int i) {
+        return UserRequest.getClassLoader(callables[i]);
+    }
+
+    @Override
+    public Result call() throws IOException {
+        final Channel channel = Channel.currentOrFail();
+        final Result result = new Result(callables.length);
+        if (!parallel || callables.length == 1) {
+            for (int i = 0; i < callables.length; i++) {
+                perform(channel, i, result);
+            }
+            return result;
+        }
+
+        // work sharing: the request thread pulls elements too, so that the batch completes
+        // even if the executor cannot spare a single thread for it
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(callables.length);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        // so that the waits of the workers are seen as those of the request by RequestThrottle
+        final Request<?, ?> request = Request.current();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                Channel oldc = Channel.setCurrent(channel);
+                Request<?, ?> oldr = Request.current();
+                Request.setCurrent(request);
+                ClassLoader old = Thread.currentThread().getContextClassLoader();
+                Thread.currentThread().setContextClassLoader(cl);
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < callables.length) {
+                        try {
+                            perform(channel, i, result);
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                } finally {
+                    Thread.currentThread().setContextClassLoader(old);
+                    Request.setCurrent(oldr);
+                    Channel.setCurrent(oldc);
+                }
+            }
+        };
+        try {
+            for (int i = 1; i < callables.length; i++) {
+                channel.executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // the remaining elements will be picked up below
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < callables.length; i++) {
+                result.fail(channel, i, e);
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result;
+    }
+
+    private void perform(Channel channel, int i, Result result) throws IOException {
+        Object value;
+        try {
+            value = channel.decorators.wrapUserRequest(callables[i]).call();
+        } catch (Throwable t) {
+            result.fail(channel, i, t);
+            return;
+        }
+        result.set(channel, i, value);
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        for (Callable<?,?> c : callables) {
+            c.checkRoles(checker);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BatchCallable[" + callables.length + (parallel ? ", parallel]" : "]");
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Per-element outcome of a {@link BatchCallable}.
+     *
+     * <p>
+     * Each outcome is serialized on its own as soon as the element completes, as {@link UserRequest} does for its
+     * response, so that a value or an exception which cannot be sent back fails only its own element.
+     */
+    static final class Result implements Serializable {
+        private final UserRequest.ResponseToUserRequest<?, ?>[] responses;
+
+        Result(int size) {
+            responses = new UserRequest.ResponseToUserRequest<?, ?>[size];
+        }
+
+        /*package*/ void set(Channel channel, int i, @CheckForNull Object value) throws IOException {
+            complete(i, UserRequest.createResponse(channel, value, null));
+        }
+
+        /*package*/ void fail(Channel channel, int i, Throwable t) throws IOException {
+            complete(i, UserRequest.createResponse(channel, null, t));
+        }
+
+        private synchronized void complete(int i, UserRequest.ResponseToUserRequest<?, ?> response) {
+            if (responses[i] == null) {
+                responses[i] = response;
+            }
+        }
+
+        /**
+         * Gets the value computed by the i-th element.
+         *
+         * @throws Throwable whatever the i-th element has thrown.
+         */
+        /*package*/ Object get(Channel channel, ClassLoader cl, int i) throws Throwable {
+            UserRequest.ResponseToUserRequest<?, ?> response;
+            synchronized (this) {
+                response = responses[i];
+            }
+            return response.retrieve(channel, cl);
+        }
+
+        private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
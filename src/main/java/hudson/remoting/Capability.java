@@ -34,7 +34,7 @@ public final class Capability implements Serializable {
     }
 
     public Capability() {
-        this(MASK_MULTI_CLASSLOADER | MASK_PIPE_THROTTLING | MASK_MIMIC_EXCEPTION | MASK_PREFETCH | GREEDY_REMOTE_INPUTSTREAM | MASK_PROXY_WRITER_2_35 | MASK_CHUNKED_ENCODING | PROXY_EXCEPTION_FALLBACK);
+        this(MASK_MULTI_CLASSLOADER | MASK_PIPE_THROTTLING | MASK_MIMIC_EXCEPTION | MASK_PREFETCH | GREEDY_REMOTE_INPUTSTREAM | MASK_PROXY_WRITER_2_35 | MASK_CHUNKED_ENCODING | PROXY_EXCEPTION_FALLBACK | MASK_BINARY_COMMANDS | MASK_BATCH_CALLS | MASK_BULK_PREFETCH | MASK_RESUMABLE_JAR_DOWNLOAD | MASK_BATCH_UNEXPORT);
     }
 
     /**
@@ -118,6 +118,52 @@ public final class Capability implements Serializable {
         return (mask & PROXY_EXCEPTION_FALLBACK) != 0;
     }
 
+    /**
+     * Does the implementation understand the compact binary encoding of the built-in {@link Command}s?
+     *
+     * <p>
+     * Only the transports which frame each command separately (i.e. {@link #supportsChunking()}) use it.
+     *
+     * @see CommandCodec
+     */
+    public boolean supportsBinaryCommands() {
+        return (mask & MASK_BINARY_COMMANDS) != 0;
+    }
+
+    /**
+     * Can the implementation execute a whole batch of {@link Callable}s sent as one request?
+     *
+     * @see Channel#callAllAsync(java.util.Collection, boolean)
+     */
+    public boolean supportsBatchCalls() {
+        return (mask & MASK_BATCH_CALLS) != 0;
+    }
+
+    /**
+     * Can the implementation prefetch many classes in one call?
+     *
+     * @see RemoteClassLoader.IClassLoader#fetchAll(String[])
+     */
+    public boolean supportsBulkPrefetch() {
+        return (mask & MASK_BULK_PREFETCH) != 0;
+    }
+
+    /**
+     * Can the implementation send the rest of a jar file starting at an offset?
+     *
+     * @see JarLoader#writeJarTo(long, long, long, java.io.OutputStream)
+     */
+    public boolean supportsResumableJarDownload() {
+        return (mask & MASK_RESUMABLE_JAR_DOWNLOAD) != 0;
+    }
+
+    /**
+     * Does the implementation understand {@link UnexportBatchCommand}?
+     */
+    public boolean supportsBatchUnexport() {
+        return (mask & MASK_BATCH_UNEXPORT) != 0;
+    }
+
     //TODO: ideally preamble handling needs to be reworked in order to avoid FB suppression
     /**
      * Writes out the capacity preamble.
@@ -242,6 +288,31 @@ public final class Capability implements Serializable {
 
     private static final long PROXY_EXCEPTION_FALLBACK = 1L << 8;
 
+    /**
+     * Supports the {@link CommandCodec} encoding of commands.
+     */
+    private static final long MASK_BINARY_COMMANDS = 1L << 9;
+
+    /**
+     * Understands {@link BatchCallable}.
+     */
+    private static final long MASK_BATCH_CALLS = 1L << 10;
+
+    /**
+     * Supports {@link RemoteClassLoader.IClassLoader#fetchAll(String[])}.
+     */
+    private static final long MASK_BULK_PREFETCH = 1L << 11;
+
+    /**
+     * Supports {@link JarLoader#writeJarTo(long, long, long, java.io.OutputStream)}.
+     */
+    private static final long MASK_RESUMABLE_JAR_DOWNLOAD = 1L << 12;
+
+    /**
+     * Understands {@link UnexportBatchCommand}.
+     */
+    private static final long MASK_BATCH_UNEXPORT = 1L << 13;
+
     static final byte[] PREAMBLE = "<===[JENKINS REMOTING CAPACITY]===>".getBytes(StandardCharsets.UTF_8);
 
     public static final Capability NONE = new Capability(0);
@@ -313,6 +384,46 @@ public final class Capability implements Serializable {
             }
             sb.append("ProxyException fallback");
         }
+        if ((mask & MASK_BINARY_COMMANDS) != 0) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append("Binary commands");
+        }
+        if ((mask & MASK_BATCH_CALLS) != 0) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append("Batch calls");
+        }
+        if ((mask & MASK_BULK_PREFETCH) != 0) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append("Bulk prefetch");
+        }
+        if ((mask & MASK_RESUMABLE_JAR_DOWNLOAD) != 0) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append("Resumable jar download");
+        }
+        if ((mask & MASK_BATCH_UNEXPORT) != 0) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append("Batch unexport");
+        }
         sb.append('}');
         return sb.toString();
     }
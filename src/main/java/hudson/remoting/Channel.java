@@ -46,9 +46,10 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -64,6 +65,8 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
+import org.jenkinsci.remoting.util.ConcurrentIntObjectMap;
+import org.jenkinsci.remoting.util.ExecutorServiceUtils;
 import org.jenkinsci.remoting.util.LoggingChannelListener;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -158,7 +161,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * Requests that are sent to the remote side for execution, yet we are waiting locally until
      * we hear back their responses.
      */
-    /*package*/ final Map<Integer,Request<?,?>> pendingCalls = new Hashtable<Integer,Request<?,?>>();
+    /*package*/ final ConcurrentIntObjectMap<Request<?,?>> pendingCalls = new ConcurrentIntObjectMap<Request<?,?>>();
 
     /**
      * Remembers last I/O ID issued from locally to the other side, per thread.
@@ -169,8 +172,13 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
     /**
      * Records the {@link Request}s being executed on this channel, sent by the remote peer.
      */
-    /*package*/ final Map<Integer,Request<?,?>> executingCalls =
-        Collections.synchronizedMap(new Hashtable<Integer,Request<?,?>>());
+    /*package*/ final ConcurrentIntObjectMap<Request<?,?>> executingCalls = new ConcurrentIntObjectMap<Request<?,?>>();
+
+    /**
+     * Holds back the requests of the remote peer, and the reading of commands, while too many of
+     * {@link #executingCalls} are in flight.
+     */
+    /*package*/ final RequestThrottle throttle;
 
     /**
      * {@link ClassLoader}s that are proxies of the remote classloaders.
@@ -200,6 +208,11 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * and therefore should be OK.
      */
     private final WeakHashMap<PipeWindow.Key, WeakReference<PipeWindow>> pipeWindows = new WeakHashMap<PipeWindow.Key, WeakReference<PipeWindow>>();
+
+    /**
+     * The memory budget shared by the {@link #pipeWindows}.
+     */
+    private final PipeWindow.Budget pipeWindowBudget = new PipeWindow.Budget(PipeWindow.BUDGET, pipeWindows);
     /**
      * There are cases where complex object cycles can cause a closed channel to fail to be garbage collected,
      * these typically arrise when an {@link #export(Class, Object)} is {@link #setProperty(Object, Object)}
@@ -291,6 +304,12 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      */
     public final AtomicInteger resourceLoadingCount = new AtomicInteger();
 
+    /**
+     * Metrics of commands, bytes, calls and pipes.
+     * @see #getMetrics()
+     */
+    /*package*/ final ChannelMetrics metrics = new ChannelMetrics(this);
+
     private final AtomicInteger ioId = new AtomicInteger();
 
     /**
@@ -330,6 +349,13 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
     @CheckForNull
     private JarCache jarCache;
 
+    /**
+     * Store of class file images that are not delivered in jars.
+     * Can be {@code null} if such caching is disabled for this channel.
+     */
+    @CheckForNull
+    private final ClassImageCache classImageCache;
+
     /*package*/ final JarLoaderImpl jarLoader;
 
     short maximumBytecodeLevel = Short.MAX_VALUE;
@@ -520,7 +546,8 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
     protected Channel(@Nonnull ChannelBuilder settings, @Nonnull CommandTransport transport) throws IOException {
         this.name = settings.getName();
         this.reference = new Ref(this);
-        this.executor = new InterceptingExecutorService(settings.getExecutors(),decorators);
+        this.executor = new InterceptingExecutorService(createExecutor(settings),decorators);
+        this.throttle = new RequestThrottle(this, transport, settings.getMaxInFlightRequests());
         this.arbitraryCallableAllowed = settings.isArbitraryCallableAllowed();
         this.remoteClassLoadingAllowed = settings.isRemoteClassLoadingAllowed();
         this.underlyingOutput = transport.getUnderlyingStream();
@@ -530,6 +557,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         if (this.jarCache == null) {
             logger.log(Level.CONFIG, "JAR Cache is not defined for channel {0}", name);
         }
+        this.classImageCache = settings.getClassImageCache();
 
         this.baseClassLoader = settings.getBaseLoader();
         this.classFilter = settings.getClassFilter();
@@ -552,6 +580,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         transport.setup(this, new CommandReceiver() {
             public void handle(Command cmd) {
                 commandsReceived++;
+                metrics.onReceive(cmd);
                 long receivedAt = System.currentTimeMillis();
                 lastCommandReceivedAt = receivedAt;
                 if (logger.isLoggable(Level.FINE)) {
@@ -690,6 +719,20 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         return outClosed != null ? outClosed : closeRequestCause;
     }
 
+    /**
+     * Picks the {@link ExecutorService} running the commands from the other side.
+     */
+    private static ExecutorService createExecutor(ChannelBuilder settings) {
+        if (settings.isVirtualThreads()) {
+            ExecutorService virtual = ExecutorServiceUtils.newVirtualThreadPerTaskExecutor("Channel " + settings.getName());
+            if (virtual != null) {
+                return virtual;
+            }
+            logger.log(Level.CONFIG, "Virtual threads are not available, channel {0} uses its executor", settings.getName());
+        }
+        return settings.getExecutors();
+    }
+
     /**
      * Creates the {@link ExecutorService} for writing to pipes.
      *
@@ -710,17 +753,34 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * <p>
      * This is the lowest layer of abstraction in {@link Channel}.
      * {@link Command}s are executed on a remote system in the order they are sent.
+     *
+     * <p>
+     * If the transport supports it, the command is serialized by the calling thread before taking
+     * the channel lock, which then only covers the actual write. This keeps many threads sending
+     * commands at the same time from queueing up behind each other's serialization.
      */
-    @SuppressFBWarnings(value = "VO_VOLATILE_INCREMENT", justification = "The method is synchronized, no other usages. See https://sourceforge.net/p/findbugs/bugs/1032/")
-    /*package*/ synchronized void send(Command cmd) throws IOException {
+    @SuppressFBWarnings(value = "VO_VOLATILE_INCREMENT", justification = "Only updated while holding the lock, no other usages. See https://sourceforge.net/p/findbugs/bugs/1032/")
+    /*package*/ void send(Command cmd) throws IOException {
         if(outClosed!=null)
             throw new ChannelClosedException(this, outClosed);
         if(logger.isLoggable(Level.FINE))
             logger.fine("Send "+cmd);
 
-        transport.write(cmd, cmd instanceof CloseCommand);
-        commandsSent++;
-        lastCommandSentAt = System.currentTimeMillis();
+        final CommandBlock block = transport.encode(cmd);
+        try {
+            synchronized (this) {
+                if(outClosed!=null)
+                    throw new ChannelClosedException(this, outClosed);
+                transport.write(cmd, block, cmd instanceof CloseCommand);
+                commandsSent++;
+                lastCommandSentAt = System.currentTimeMillis();
+                metrics.onSend(cmd);
+            }
+        } finally {
+            if (block != null) {
+                block.release();
+            }
+        }
     }
 
     /**
@@ -916,6 +976,16 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         this.jarCache = jarCache;
     }
 
+    /**
+     * If this channel is built with class image caching, return the object that manages this cache.
+     * @return Class Image Cache object. {@code null} if class image caching is disabled
+     * @since 3.37
+     */
+    @CheckForNull
+    public ClassImageCache getClassImageCache() {
+        return classImageCache;
+    }
+
     /*package*/ PipeWindow getPipeWindow(int oid) {
         synchronized (pipeWindows) {
             Key k = new Key(oid);
@@ -928,7 +998,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
 
             PipeWindow w;
             if (remoteCapability.supportsPipeThrottling())
-                w = new Real(k, PIPE_WINDOW_SIZE);
+                w = new Real(k, PIPE_WINDOW_SIZE, PipeWindow.FIXED ? null : pipeWindowBudget, metrics, throttle);
             else
                 w = new PipeWindow.Fake();
             pipeWindows.put(k,new WeakReference<PipeWindow>(w));
@@ -995,6 +1065,86 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         };
     }
 
+    /**
+     * Makes many remote procedure calls at once.
+     *
+     * <p>
+     * When the other side supports it (see {@link Capability#supportsBatchCalls()}), all the callables
+     * travel in a single request and all their results come back in a single response, so the whole batch
+     * costs one round trip instead of one per callable. Otherwise the callables are sent one by one,
+     * without waiting for each other, as if by {@link #callAsync(Callable)}.
+     *
+     * <p>
+     * Each callable succeeds or fails on its own; its outcome is reported by the {@link Future} at the
+     * same position in the returned list. Since the batch is one request, however, all the futures
+     * complete together, and cancelling any one of them cancels the whole batch.
+     *
+     * @param callables
+     *      Callables to execute on the other side.
+     * @param parallel
+     *      If true, the other side may execute the callables concurrently using its {@link #executor}.
+     *      Otherwise they are executed one after another, in iteration order.
+     * @return
+     *      {@link Future}s for the results of the callables, in iteration order.
+     * @throws IOException
+     *      If the batch could not be sent.
+     * @since 3.37
+     */
+    @Nonnull
+    public <V,T extends Throwable>
+    List<Future<V>> callAllAsync(@Nonnull Collection<? extends Callable<V,T>> callables, boolean parallel) throws IOException {
+        if (isClosingOrClosed()) {
+            // No reason to even try performing a user request
+            throw new ChannelClosedException(this, "Remote call on " + name + " failed. "
+                    + "The channel is closing down or has closed down", getCloseRequestCause());
+        }
+
+        final List<Future<V>> futures = new ArrayList<>(callables.size());
+        if (callables.size() <= 1 || !remoteCapability.supportsBatchCalls()) {
+            for (Callable<V,T> c : callables) {
+                futures.add(callAsync(c));
+            }
+            return futures;
+        }
+
+        final BatchCallable batch = new BatchCallable(callables.toArray(new Callable<?,?>[0]), parallel);
+        final Future<UserRequest.ResponseToUserRequest<BatchCallable.Result, IOException>> f =
+                new UserRequest<BatchCallable.Result, IOException>(this, batch).callAsync(this);
+        // the response is deserialized once and shared by all the futures
+        final Future<BatchCallable.Result> results =
+                new FutureAdapter<BatchCallable.Result, UserRequest.ResponseToUserRequest<BatchCallable.Result, IOException>>(f) {
+            private BatchCallable.Result result;
+
+            @Override
+            protected synchronized BatchCallable.Result adapt(UserRequest.ResponseToUserRequest<BatchCallable.Result, IOException> r)
+                    throws ExecutionException {
+                if (result == null) {
+                    try {
+                        result = r.retrieve(Channel.this, batch.getClassLoader());
+                    } catch (Throwable t) {
+                        throw new ExecutionException(t);
+                    }
+                }
+                return result;
+            }
+        };
+        for (int i = 0; i < batch.size(); i++) {
+            final int index = i;
+            futures.add(new FutureAdapter<V, BatchCallable.Result>(results) {
+                @Override
+                @SuppressWarnings("unchecked")
+                protected V adapt(BatchCallable.Result r) throws ExecutionException {
+                    try {
+                        return (V) r.get(Channel.this, batch.getClassLoader(index), index);
+                    } catch (Throwable t) {// really means catch(T t)
+                        throw new ExecutionException(t);
+                    }
+                }
+            });
+        }
+        return futures;
+    }
+
     /**
      * Aborts the connection in response to an error.
      *
@@ -1033,18 +1183,13 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
                     logger.log(Level.WARNING, "Failed to close down the reader side of the transport", x);
                 }
                 try {
-                    synchronized (pendingCalls) {
-                        for (Request<?, ?> req : pendingCalls.values())
-                            req.abort(e);
-                        pendingCalls.clear();
-                    }
-                    synchronized (executingCalls) {
-                        for (Request<?, ?> r : executingCalls.values()) {
-                            java.util.concurrent.Future<?> f = r.future;
-                            if (f != null) f.cancel(true);
-                        }
-                        executingCalls.clear();
+                    for (Request<?, ?> req : pendingCalls.removeAll())
+                        req.abort(e);
+                    for (Request<?, ?> r : executingCalls.removeAll()) {
+                        java.util.concurrent.Future<?> f = r.future;
+                        if (f != null) f.cancel(true);
                     }
+                    throttle.abort();
                     exportedObjects.abort(e);
                     // break any object cycles into simple chains to simplify work for the garbage collector
                     reference.clear(e);
@@ -1304,6 +1449,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         classLoadingPrefetchCacheCount.set(0);
         resourceLoadingCount.set(0);
         resourceLoadingTime.set(0);
+        metrics.reset();
     }
 
     /**
@@ -1316,10 +1462,21 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         int l = classLoadingCount.get();
         int p = classLoadingPrefetchCacheCount.get();
         w.printf(Locale.ENGLISH, "Class loading count=%d%n", l);
-        w.printf(Locale.ENGLISH, "Class loading prefetch hit=%s (%d%%)%n", p, p*100/l);
+        w.printf(Locale.ENGLISH, "Class loading prefetch hit=%s (%d%%)%n", p, l == 0 ? 0 : p*100/l);
         w.printf(Locale.ENGLISH, "Class loading time=%,dms%n", classLoadingTime.get() / (1000 * 1000));
         w.printf(Locale.ENGLISH, "Resource loading count=%d%n", resourceLoadingCount.get());
         w.printf(Locale.ENGLISH, "Resource loading time=%,dms%n", resourceLoadingTime.get() / (1000 * 1000));
+        metrics.dump(w);
+    }
+
+    /**
+     * Gets the metrics of this channel: commands and bytes sent and received, call latencies and so on.
+     * @return the metrics, which are updated live.
+     * @since 3.37
+     */
+    @Nonnull
+    public ChannelMetrics getMetrics() {
+        return metrics;
     }
 
     //TODO: Make public after merge into the master branch
@@ -1392,7 +1549,6 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
         w.printf("  Last command sent=%s%n", new Date(lastCommandSentAt));
         w.printf("  Last command received=%s%n", new Date(lastCommandReceivedAt));
 
-        // TODO: Synchronize when Hashtable gets replaced by a modern collection.
         w.printf("  Pending calls=%d%n", pendingCalls.size());
     }
 
@@ -1872,6 +2028,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * @see CommandListener
      */
     void notifyRead(Command cmd, long blockSize) {
+        metrics.onRead(blockSize);
         for (Listener listener : listeners) {
             try {
                 listener.onRead(this, cmd, blockSize);
@@ -1888,6 +2045,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * @see CommandListener
      */
     void notifyWrite(Command cmd, long blockSize) {
+        metrics.onWrite(blockSize);
         for (Listener listener : listeners) {
             try {
                 listener.onWrite(this, cmd, blockSize);
@@ -1905,6 +2063,7 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * @see CommandListener
      */
     void notifyResponse(Request<?, ?> req, Response<?, ?> rsp, long totalTime) {
+        metrics.onResponse(totalTime);
         for (Listener listener : listeners) {
             try {
                 listener.onResponse(this, req, rsp, totalTime);
@@ -1950,6 +2109,9 @@ public class Channel implements VirtualChannel, IChannel, Closeable {
      * (100M bits/sec * 0.02sec / 8 bits/byte = 0.25MB. So 1MB or so is big enough for most network, and hopefully
      * this is an acceptable enough memory consumption in case of clogging.
      *
+     * <p>
+     * This is the initial size. Unless disabled, the window then adapts to the measured round trip time.
+     *
      * @see PipeWindow
      */
     public static final int PIPE_WINDOW_SIZE = Integer.getInteger(Channel.class.getName()+".pipeWindowSize",1024*1024);
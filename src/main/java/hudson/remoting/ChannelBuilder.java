@@ -52,6 +52,10 @@ public class ChannelBuilder {
     private OutputStream header;
     @CheckForNull
     private JarCache jarCache;
+    @CheckForNull
+    private ClassImageCache classImageCache;
+    private boolean virtualThreads;
+    private int maxInFlightRequests = Integer.getInteger(Channel.class.getName() + ".maxInFlightRequests", 0);
     private List<CallableDecorator> decorators = new ArrayList<CallableDecorator>();
     private boolean arbitraryCallableAllowed = true;
     private boolean remoteClassLoadingAllowed = true;
@@ -247,6 +251,86 @@ public class ChannelBuilder {
         return jarCache;
     }
 
+    /**
+     * Sets the storage of class file images which are not delivered in jars.
+     * @param classImageCache Class Image Cache to be used. {@code null} to disable such caching.
+     * @return {@code this}
+     * @since 3.37
+     */
+    public ChannelBuilder withClassImageCache(@CheckForNull ClassImageCache classImageCache) {
+        this.classImageCache = classImageCache;
+        return this;
+    }
+
+    /**
+     * Gets the storage of class file images which are not delivered in jars.
+     * @return {@code null} if class image caching is disabled.
+     * @since 3.37
+     */
+    @CheckForNull
+    public ClassImageCache getClassImageCache() {
+        return classImageCache;
+    }
+
+    /**
+     * Runs the commands sent from the remote peer, and the writes to pipes, each on a virtual thread of its own
+     * instead of on {@link #getExecutors()}, so that thousands of blocked requests do not take as many
+     * platform threads. Has no effect on JVMs without virtual threads (before Java 21).
+     *
+     * <p>
+     * On Java 21 to 23 a virtual thread blocked in {@code synchronized} code or {@link Object#wait()} pins its
+     * carrier thread, and that is how requests wait for their response (including calls made back to the other side)
+     * and pipe writers wait for the window to open. The scheduler makes up for it with extra carriers, but only up to
+     * {@code jdk.virtualThreadScheduler.maxPoolSize} (256 by default), beyond which further blocked requests stall
+     * until others complete. Raise that property for that many concurrently blocked requests, or run on Java 24 or
+     * above, where waiting no longer pins the carrier.
+     *
+     * @param virtualThreads {@code true} to use virtual threads where available
+     * @return {@code this}
+     * @since 3.37
+     */
+    public ChannelBuilder withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * @see #withVirtualThreads(boolean)
+     * @since 3.37
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Limits the number of calls from the remote peer that the channel executes at once.
+     * Calls past the limit wait their turn in the channel rather than in the executor queue, and once as many are
+     * waiting as are allowed to run, the channel asks the transport to stop reading, which in turn holds up the
+     * remote peer. Responses and other commands that were already read are still processed in the meantime.
+     *
+     * <p>
+     * Calls that are waiting for the remote peer, e.g. for their own call back to it or for a pipe window,
+     * do not count towards the limit. Pings from the remote peer wait their turn like any other call, so calls
+     * that can take longer than the ping timeout call for a higher limit.
+     * Defaults to the {@code hudson.remoting.Channel.maxInFlightRequests} system property.
+     *
+     * @param maxInFlightRequests the limit, or 0 for no limit
+     * @return {@code this}
+     * @since 3.37
+     */
+    public ChannelBuilder withMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
+
+    /**
+     * @see #withMaxInFlightRequests(int)
+     * @since 3.37
+     */
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
     public ChannelBuilder with(CallableDecorator decorator) {
         this.decorators.add(decorator);
         return this;
@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import javax.annotation.Nonnull;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Performance metrics of a {@link Channel}: commands by type, bytes, call latencies, pending/executing calls,
+ * pipe window stalls, read pauses and the export table size.
+ *
+ * <p>
+ * All the counters are updated without allocation or locking on the hot paths, so this is always on and cheap
+ * enough to read from production systems in order to tell which channels are saturated and why.
+ *
+ * @see Channel#getMetrics()
+ * @since 3.37
+ */
+public final class ChannelMetrics {
+    private final Channel channel;
+
+    private final ConcurrentMap<Class<?>, AtomicLong> commandsSent = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, AtomicLong> commandsReceived = new ConcurrentHashMap<>();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong pipeWindowStallTime = new AtomicLong();
+    private final AtomicLong readPauseTime = new AtomicLong();
+    private final Histogram callLatency = new Histogram();
+    private final Histogram callExecutionTime = new Histogram();
+
+    /*package*/ ChannelMetrics(Channel channel) {
+        this.channel = channel;
+    }
+
+    /*package*/ void onSend(Command cmd) {
+        increment(commandsSent, cmd.getClass());
+    }
+
+    /*package*/ void onReceive(Command cmd) {
+        increment(commandsReceived, cmd.getClass());
+    }
+
+    /*package*/ void onWrite(long blockSize) {
+        bytesSent.addAndGet(blockSize);
+    }
+
+    /*package*/ void onRead(long blockSize) {
+        bytesReceived.addAndGet(blockSize);
+    }
+
+    /*package*/ void onResponse(long nanos) {
+        callLatency.record(nanos);
+    }
+
+    /*package*/ void onExecuted(long nanos) {
+        callExecutionTime.record(nanos);
+    }
+
+    /*package*/ void onPipeWindowStall(long nanos) {
+        pipeWindowStallTime.addAndGet(nanos);
+    }
+
+    /*package*/ void onReadPause(long nanos) {
+        readPauseTime.addAndGet(nanos);
+    }
+
+    private static void increment(ConcurrentMap<Class<?>, AtomicLong> counts, Class<?> type) {
+        AtomicLong count = counts.get(type);
+        if (count == null) {
+            AtomicLong fresh = new AtomicLong();
+            count = counts.putIfAbsent(type, fresh);
+            if (count == null) {
+                count = fresh;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<Class<?>, AtomicLong> counts) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, AtomicLong> e : counts.entrySet()) {
+            String name = e.getKey().getName();
+            name = name.substring(name.lastIndexOf('.') + 1);
+            Long previous = result.put(name, e.getValue().get());
+            if (previous != null) {
+                result.put(name, previous + e.getValue().get());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Number of {@link Command}s sent to the other side, keyed by the command type.
+     */
+    @Nonnull
+    public Map<String, Long> getCommandsSent() {
+        return snapshot(commandsSent);
+    }
+
+    /**
+     * Number of {@link Command}s received from the other side, keyed by the command type.
+     */
+    @Nonnull
+    public Map<String, Long> getCommandsReceived() {
+        return snapshot(commandsReceived);
+    }
+
+    /**
+     * Number of bytes of serialized commands written to the transport.
+     * Transports that stream commands rather than framing them (i.e. {@link ClassicCommandTransport}) do not
+     * report their sizes, in which case this stays at zero.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Number of bytes of serialized commands read from the transport.
+     * @see #getBytesSent()
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Round trip times of the calls made to the other side, in nanoseconds.
+     */
+    @Nonnull
+    public Histogram getCallLatency() {
+        return callLatency;
+    }
+
+    /**
+     * Execution times of the calls made by the other side, in nanoseconds.
+     */
+    @Nonnull
+    public Histogram getCallExecutionTime() {
+        return callExecutionTime;
+    }
+
+    /**
+     * Number of calls made to the other side that have not completed yet.
+     */
+    public int getPendingCalls() {
+        return channel.pendingCalls.size();
+    }
+
+    /**
+     * Number of calls made by the other side that are executing.
+     */
+    public int getExecutingCalls() {
+        return channel.executingCalls.size();
+    }
+
+    /**
+     * Number of objects exported to the other side.
+     */
+    public int getExportedObjects() {
+        return channel.exportedObjects.size();
+    }
+
+    /**
+     * Total time that writers to pipes spent waiting for the other side to ack what they have written,
+     * in nanoseconds.
+     */
+    public long getPipeWindowStallTime() {
+        return pipeWindowStallTime.get();
+    }
+
+    /**
+     * Total time that the reading of commands was paused because too many calls made by the other side
+     * were executing, in nanoseconds.
+     * @see ChannelBuilder#withMaxInFlightRequests(int)
+     */
+    public long getReadPauseTime() {
+        return readPauseTime.get();
+    }
+
+    /**
+     * Resets all the counters and histograms. Gauges are not affected.
+     */
+    public void reset() {
+        commandsSent.clear();
+        commandsReceived.clear();
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        pipeWindowStallTime.set(0);
+        readPauseTime.set(0);
+        callLatency.reset();
+        callExecutionTime.reset();
+    }
+
+    /**
+     * Prints the metrics.
+     * @param w Output writer
+     */
+    public void dump(@Nonnull PrintWriter w) {
+        // locale fixed to English to get ',' for every 3 digits
+        w.printf(Locale.ENGLISH, "Commands sent=%s%n", getCommandsSent());
+        w.printf(Locale.ENGLISH, "Commands received=%s%n", getCommandsReceived());
+        w.printf(Locale.ENGLISH, "Bytes sent=%,d%n", getBytesSent());
+        w.printf(Locale.ENGLISH, "Bytes received=%,d%n", getBytesReceived());
+        w.printf(Locale.ENGLISH, "Call latency %s%n", callLatency);
+        w.printf(Locale.ENGLISH, "Call execution time %s%n", callExecutionTime);
+        w.printf(Locale.ENGLISH, "Pending calls=%d%n", getPendingCalls());
+        w.printf(Locale.ENGLISH, "Executing calls=%d%n", getExecutingCalls());
+        w.printf(Locale.ENGLISH, "Exported objects=%d%n", getExportedObjects());
+        w.printf(Locale.ENGLISH, "Pipe window stall time=%,dms%n",
+                TimeUnit.NANOSECONDS.toMillis(getPipeWindowStallTime()));
+        w.printf(Locale.ENGLISH, "Read pause time=%,dms%n",
+                TimeUnit.NANOSECONDS.toMillis(getReadPauseTime()));
+    }
+
+    /**
+     * A histogram of non-negative values with a fixed relative precision of 1/8th, i.e. every power of two is
+     * split in 8 equally sized buckets. Recording is lock free and does not allocate.
+     */
+    public static final class Histogram {
+        /**
+         * Number of bits of precision below the most significant one.
+         */
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Returns the bucket of the value.
+         */
+        /*package*/ static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) Math.max(value, 0);
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        /**
+         * Returns the smallest value that falls in the bucket.
+         */
+        /*package*/ static long lowestValue(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return ((long) (index % SUB_BUCKETS + SUB_BUCKETS)) << shift;
+        }
+
+        /**
+         * Returns the largest value that falls in the bucket.
+         */
+        /*package*/ static long highestValue(int index) {
+            return index + 1 < BUCKETS ? lowestValue(index + 1) - 1 : Long.MAX_VALUE;
+        }
+
+        /**
+         * Records a value.
+         *
+         * @param value the value, negative values are recorded as zero.
+         */
+        public void record(long value) {
+            value = Math.max(value, 0);
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+                // retry
+            }
+        }
+
+        /**
+         * Number of recorded values.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Largest recorded value.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Mean of the recorded values.
+         */
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        /**
+         * Returns the value that the given percentage of recorded values are smaller than or equal to, within
+         * the precision of the histogram.
+         *
+         * @param percentile between 0 and 100.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        /**
+         * Clears all the recorded values.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        /**
+         * Summary in microseconds, assuming the values are nanoseconds.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "count=%d mean=%,.0fus p50=%,dus p90=%,dus p99=%,dus max=%,dus",
+                    getCount(),
+                    getMean() / 1000,
+                    TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)),
+                    TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(90)),
+                    TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(getMax()));
+        }
+    }
+}
@@ -3,13 +3,17 @@ package hudson.remoting;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Represents 128bit checksum of a jar file.
@@ -66,13 +70,70 @@ final class Checksum {
      * Returns the checksum for the given file.
      */
     static Checksum forFile(File file) throws IOException {
-        return forURL(file.toURI().toURL());
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance(JarLoaderImpl.DIGEST_ALGORITHM);
+            // feed the digest directly in large chunks rather than through a stream chain
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                md.update(buf, 0, len);
+            }
+            return new Checksum(md.digest(), md.getDigestLength() / 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the checksum for the given file, reusing the one computed earlier in this JVM
+     * as long as the file keeps its length and modification time.
+     *
+     * <p>
+     * Meant for jars exported to the other side, which would otherwise be hashed again for every channel.
+     * Files received from the other side must be verified with {@link #forFile(File)}.
+     */
+    static Checksum forFileCached(File file) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (CACHE) {
+            CachedChecksum cached = CACHE.get(file);
+            if (cached != null) {
+                if (cached.length == length && cached.lastModified == lastModified) {
+                    return cached.checksum;
+                }
+                // the file changed or disappeared since, so the entry is of no use anymore
+                CACHE.remove(file);
+            }
+        }
+
+        // hash outside the lock, a concurrent duplicate is harmless
+        Checksum checksum = forFile(file);
+        if (file.length() == length && file.lastModified() == lastModified) {
+            // otherwise the file changed while being hashed, and the result is not worth keeping
+            synchronized (CACHE) {
+                CACHE.put(file, new CachedChecksum(length, lastModified, checksum));
+            }
+        }
+        return checksum;
+    }
+
+    /*package for testing*/ static boolean isCached(File file) {
+        synchronized (CACHE) {
+            return CACHE.containsKey(file);
+        }
     }
 
     /**
      * Returns the checksum for the given URL.
      */
     static Checksum forURL(URL url) throws IOException {
+        if (url.getProtocol().equals("file")) {
+            try {
+                return forFile(new File(url.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // not a plain file after all, read it through the URL
+            }
+        }
         try {
             MessageDigest md = MessageDigest.getInstance(JarLoaderImpl.DIGEST_ALGORITHM);
             try(InputStream istsream = url.openStream(); OutputStream ostream = new DigestOutputStream(new NullOutputStream(), md)) {
@@ -84,6 +145,48 @@ final class Checksum {
         }
     }
 
+    /**
+     * Returns the checksum for the given bytes.
+     */
+    static Checksum forBytes(byte[] data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(JarLoaderImpl.DIGEST_ALGORITHM);
+            return new Checksum(md.digest(data), md.getDigestLength() / 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class CachedChecksum {
+        private final long length;
+        private final long lastModified;
+        private final Checksum checksum;
+
+        CachedChecksum(long length, long lastModified, Checksum checksum) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Number of checksums kept by {@link #forFileCached(File)}.
+     * The least recently used one is dropped past this limit.
+     */
+    static final int MAX_CACHED = Integer.getInteger(Checksum.class.getName() + ".maxCached", 1024);
+
+    /**
+     * Checksums computed by {@link #forFileCached(File)}, shared by all the channels of this JVM.
+     */
+    private static final Map<File, CachedChecksum> CACHE = new LinkedHashMap<File, CachedChecksum>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, CachedChecksum> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private static final int BUFFER_SIZE = 128 * 1024;
+
     private static class NullOutputStream extends OutputStream {
         @Override
         public void write(int b) {
@@ -56,6 +56,11 @@ public class ChunkHeader {
         buf.put((byte) length);
     }
 
+    public static void write(byte[] buf, int pos, int length, boolean hasMore) {
+        buf[pos] = (byte)((hasMore?0x80:0)|(length>>8));
+        buf[pos + 1] = (byte)(length);
+    }
+
     public static byte[] pack(int length, boolean hasMore) {
         byte[] header = new byte[2];
         header[0] = (byte)((hasMore?0x80:0)|(length>>8));
@@ -46,6 +46,12 @@ class ChunkedCommandTransport extends AbstractSynchronousByteArrayCommandTranspo
         out.sendBreak();
     }
 
+    @Override
+    public void writeBlock(Channel channel, byte[] payload, int offset, int length) throws IOException {
+        out.write(payload, offset, length);
+        out.sendBreak();
+    }
+
     @Override
     public void closeWrite() throws IOException {
         out.close();
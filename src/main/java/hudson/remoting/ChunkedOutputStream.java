@@ -17,7 +17,14 @@ import java.io.OutputStream;
  * @author Kohsuke Kawaguchi
  */
 class ChunkedOutputStream extends OutputStream {
+    /**
+     * The frame being assembled, with the room for its header in the first two bytes,
+     * so that each frame is written out with a single call.
+     */
     private final byte[] buf;
+    /**
+     * The size of the frame payload in {@link #buf}.
+     */
     private int size;
 
     private final OutputStream base;
@@ -25,7 +32,7 @@ class ChunkedOutputStream extends OutputStream {
     public ChunkedOutputStream(int frameSize, OutputStream base) {
         assert 0<frameSize && frameSize<=Short.MAX_VALUE;
 
-        this.buf = new byte[frameSize];
+        this.buf = new byte[frameSize + 2];
         size = 0;
         this.base = base;
     }
@@ -34,12 +41,12 @@ class ChunkedOutputStream extends OutputStream {
      * How many more bytes can our buffer take?
      */
     private int capacity() {
-        return buf.length-size;
+        return buf.length-2-size;
     }
 
     @Override
     public void write(int b) throws IOException {
-        buf[size++] = (byte)b;
+        buf[2+size++] = (byte)b;
         drain();
     }
 
@@ -47,7 +54,7 @@ class ChunkedOutputStream extends OutputStream {
     public void write(byte[] b, int off, int len) throws IOException {
         while (len>0) {
             int s = Math.min(capacity(),len);
-            System.arraycopy(b,off,buf,size,s);
+            System.arraycopy(b,off,buf,2+size,s);
             off+=s;
             len-=s;
             size+=s;
@@ -86,8 +93,8 @@ class ChunkedOutputStream extends OutputStream {
     }
 
     private void sendFrame(boolean hasMore) throws IOException {
-        base.write(ChunkHeader.pack(size,hasMore));
-        base.write(buf,0,size);
+        ChunkHeader.write(buf,0,size,hasMore);
+        base.write(buf,0,2+size);
         size = 0;
     }
 }
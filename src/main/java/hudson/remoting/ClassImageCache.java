@@ -0,0 +1,442 @@
+package hudson.remoting;
+
+import org.jenkinsci.remoting.util.PathUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Persistent store of class file images that {@link RemoteClassLoader} received one by one,
+ * as opposed to those that come in jars held by the {@link JarCache}.
+ *
+ * <p>
+ * Images are stored under their checksum. When the channel starts loading classes, the checksums of
+ * all the stored images are announced to the other side through {@link JarLoader#notifyJarPresence(long[])},
+ * so that the other side can send just the checksum ({@link ResourceImageInCache}) instead of the image.
+ * Each image is verified against the checksum when it is read back. Once the channel is gone, this saves
+ * the next connection from transferring the same class files again.
+ *
+ * <p>
+ * Once the images take more than {@link #maxSize} bytes, the least recently used ones are deleted.
+ * An image that was announced but has been deleted since is simply fetched again.
+ *
+ * <p>
+ * The cache also keeps a {@link Trace} of the classes each {@link RemoteClassLoader} has loaded,
+ * so that the next session can prefetch them all in a single call.
+ *
+ * @since 3.37
+ */
+public class ClassImageCache {
+    public final File rootDir;
+
+    /**
+     * Checksums of the images in {@link #rootDir}, or {@code null} until the directory has been scanned.
+     */
+    @GuardedBy("this")
+    @CheckForNull
+    private Set<Checksum> index;
+
+    /**
+     * Total size in bytes of the images in {@link #index}.
+     */
+    @GuardedBy("this")
+    private long size;
+
+    /**
+     * Upper bound of the total size of the stored images in bytes, or 0 for no bound.
+     */
+    private final long maxSize;
+
+    /**
+     * @param rootDir
+     *      Root directory.
+     * @throws IllegalArgumentException
+     *      Root directory is {@code null} or not writable.
+     */
+    public ClassImageCache(@Nonnull File rootDir) {
+        this(rootDir, MAX_SIZE);
+    }
+
+    /**
+     * @param rootDir
+     *      Root directory.
+     * @param maxSize
+     *      Total size in bytes the stored images may take before the least recently used ones get deleted,
+     *      or 0 to let the cache grow without bound.
+     * @throws IllegalArgumentException
+     *      Root directory is {@code null} or not writable.
+     */
+    public ClassImageCache(@Nonnull File rootDir, long maxSize) {
+        this.rootDir = rootDir;
+        this.maxSize = maxSize;
+        if (rootDir==null)
+            throw new IllegalArgumentException("Root directory is null");
+
+        try {
+            Files.createDirectories(PathUtils.fileToPath(rootDir));
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Root directory not writable: " + rootDir, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileSystem Class Image Cache: path=%s, maxSize=%d", rootDir, maxSize);
+    }
+
+    /**
+     * Gets the stored image of the given checksum.
+     *
+     * @return {@code null} if the image is not stored, or if the stored file does not match the checksum.
+     */
+    @CheckForNull
+    /*package*/ byte[] get(@Nonnull Checksum sum) {
+        File f = map(sum);
+        try {
+            byte[] image = Files.readAllBytes(PathUtils.fileToPath(f));
+            if (sum.equals(Checksum.forBytes(image))) {
+                LOGGER.log(Level.FINER, "Class image cache hit {0}", sum);
+                if (maxSize > 0) {
+                    // the least recently used images are the first ones to go
+                    Files.setLastModifiedTime(PathUtils.fileToPath(f), FileTime.fromMillis(System.currentTimeMillis()));
+                }
+                return image;
+            }
+            LOGGER.log(Level.WARNING, "Cached class image checksum mismatch: {0}", f.getAbsolutePath());
+            Files.deleteIfExists(PathUtils.fileToPath(f));
+            synchronized (this) {
+                if (index != null && index.remove(sum)) {
+                    size -= image.length;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                if (index != null) {
+                    index.remove(sum);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to read the class image " + f, e);
+        }
+        return null;
+    }
+
+    /**
+     * Stores a class file image that has just been received.
+     */
+    /*package*/ void put(@Nonnull byte[] image) {
+        Checksum sum = Checksum.forBytes(image);
+        synchronized (this) {
+            if (index != null && index.contains(sum)) {
+                return;
+            }
+        }
+        File target = map(sum);
+        try {
+            if (!target.exists()) {
+                Files.createDirectories(PathUtils.fileToPath(target.getParentFile()));
+                File tmp = File.createTempFile(target.getName(), "tmp", target.getParentFile());
+                try {
+                    try (OutputStream o = new FileOutputStream(tmp)) {
+                        o.write(image);
+                    }
+                    // a concurrent writer of the same image is harmless: the contents are identical
+                    if (!tmp.renameTo(target) && !target.exists()) {
+                        throw new IOException("Unable to create " + target + " from " + tmp);
+                    }
+                } finally {
+                    Files.deleteIfExists(PathUtils.fileToPath(tmp));
+                }
+            }
+            boolean full;
+            synchronized (this) {
+                if (index().add(sum)) {
+                    size += image.length;
+                }
+                full = maxSize > 0 && size > maxSize;
+            }
+            if (full) {
+                evict();
+            }
+        } catch (IOException e) {
+            // the cache is only an optimization
+            LOGGER.log(Level.WARNING, "Failed to store the class image " + target, e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used images until they take no more than three quarters of {@link #maxSize},
+     * so that the directory is not scanned again at the next {@link #put(byte[])}.
+     */
+    private synchronized void evict() throws IOException {
+        List<File> images = new ArrayList<>();
+        for (Checksum sum : index()) {
+            images.add(map(sum));
+        }
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (File image : images) {
+            lastModified.put(image, image.lastModified());
+        }
+        Collections.sort(images, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastModified.get(o1), lastModified.get(o2));
+            }
+        });
+        long target = maxSize - maxSize / 4;
+        int evicted = 0;
+        for (File image : images) {
+            if (size <= target) {
+                break;
+            }
+            long length = image.length();
+            Files.deleteIfExists(PathUtils.fileToPath(image));
+            index.remove(checksumOf(image.getParentFile().getName(), image.getName()));
+            size -= length;
+            evicted++;
+        }
+        LOGGER.log(Level.FINE, "Evicted {0} class images from {1}", new Object[] {evicted, rootDir});
+    }
+
+    /**
+     * Lets the other side know which images are stored here. Only the first call for each channel has any effect.
+     */
+    /*package*/ void announce(@Nonnull final Channel channel) {
+        if (channel.setProperty(ANNOUNCED, Boolean.TRUE) != null) {
+            return;
+        }
+        final List<Trace> traces = new CopyOnWriteArrayList<>();
+        channel.setProperty(TRACES, traces);
+        channel.addListener(new Channel.Listener() {
+            @Override
+            public void onClosed(Channel channel, IOException cause) {
+                for (Trace t : traces) {
+                    t.save();
+                }
+            }
+        });
+        try {
+            channel.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long[] sums;
+                    synchronized (ClassImageCache.this) {
+                        Set<Checksum> all = index();
+                        sums = new long[all.size() * 2];
+                        int i = 0;
+                        for (Checksum sum : all) {
+                            sums[i++] = sum.sum1;
+                            sums[i++] = sum.sum2;
+                        }
+                    }
+                    if (sums.length == 0) {
+                        return;
+                    }
+                    try {
+                        JarLoader jl = channel.getProperty(JarLoader.THEIRS);
+                        if (jl == null) {
+                            jl = (JarLoader) channel.waitForRemoteProperty(JarLoader.OURS);
+                            channel.setProperty(JarLoader.THEIRS, jl);
+                        }
+                        jl.notifyJarPresence(sums);
+                        LOGGER.log(Level.FINE, "Announced {0} cached class images to {1}",
+                                new Object[] {sums.length / 2, channel.getName()});
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.FINE, "Failed to announce cached class images to " + channel.getName(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the channel is going down
+        }
+    }
+
+    /**
+     * Starts a new {@link Trace}, which gets saved when the channel is closed.
+     *
+     * @param entry
+     *      The first class loaded through the classloader being traced.
+     */
+    @Nonnull
+    /*package*/ Trace openTrace(@Nonnull Channel channel, @Nonnull String entry) {
+        Trace t = new Trace(new File(new File(rootDir, "traces"), entry + ".trace"));
+        List<Trace> traces = channel.getProperty(TRACES);
+        if (traces != null) {
+            traces.add(t);
+        }
+        return t;
+    }
+
+    /**
+     * Classes loaded by one {@link RemoteClassLoader} during a session, in the order of loading.
+     */
+    /*package*/ static final class Trace {
+        private final File file;
+
+        /**
+         * Classes recorded in the previous session.
+         */
+        private final String[] expected;
+
+        @GuardedBy("this")
+        private final Set<String> loaded = new LinkedHashSet<>();
+
+        Trace(File file) {
+            this.file = file;
+            String[] expected = new String[0];
+            try {
+                List<String> lines = Files.readAllLines(PathUtils.fileToPath(file), StandardCharsets.UTF_8);
+                expected = lines.toArray(new String[0]);
+            } catch (NoSuchFileException e) {
+                // first session
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to read the class loading trace " + file, e);
+            }
+            this.expected = expected;
+        }
+
+        /**
+         * Gets the classes recorded in the previous session.
+         */
+        @Nonnull
+        String[] getExpected() {
+            return expected.clone();
+        }
+
+        synchronized void add(String className) {
+            if (loaded.size() < MAX_TRACE_LENGTH) {
+                loaded.add(className);
+            }
+        }
+
+        /**
+         * Saves the classes loaded in this session, followed by the ones from the previous session
+         * which have not been needed this time.
+         */
+        void save() {
+            List<String> lines;
+            synchronized (this) {
+                if (loaded.isEmpty()) {
+                    return;
+                }
+                Set<String> all = new LinkedHashSet<>(loaded);
+                Collections.addAll(all, expected);
+                lines = new ArrayList<>(all);
+            }
+            if (lines.size() > MAX_TRACE_LENGTH) {
+                lines = lines.subList(0, MAX_TRACE_LENGTH);
+            }
+            try {
+                Files.createDirectories(PathUtils.fileToPath(file.getParentFile()));
+                File tmp = File.createTempFile(file.getName(), "tmp", file.getParentFile());
+                try {
+                    Files.write(PathUtils.fileToPath(tmp), lines, StandardCharsets.UTF_8);
+                    Files.move(PathUtils.fileToPath(tmp), PathUtils.fileToPath(file),
+                            StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(PathUtils.fileToPath(tmp));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save the class loading trace " + file, e);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    @Nonnull
+    private Set<Checksum> index() {
+        if (index == null) {
+            index = new HashSet<>();
+            size = 0;
+            File[] dirs = rootDir.listFiles();
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    File[] files = dir.listFiles();
+                    if (files == null || dir.getName().length() != 2) {
+                        continue;
+                    }
+                    for (File file : files) {
+                        Checksum sum = checksumOf(dir.getName(), file.getName());
+                        if (sum != null && index.add(sum)) {
+                            size += file.length();
+                        }
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Recovers the checksum a stored image is named after; the reverse of {@link #map(Checksum)}.
+     *
+     * @return {@code null} if the file is not named like a stored image.
+     */
+    @CheckForNull
+    private static Checksum checksumOf(String dir, String name) {
+        if (name.length() != 30 + ".class".length() || !name.endsWith(".class")) {
+            return null;
+        }
+        try {
+            return new Checksum(
+                    Long.parseUnsignedLong(dir + name.substring(0, 14), 16),
+                    Long.parseUnsignedLong(name.substring(14, 30), 16));
+        } catch (NumberFormatException e) {
+            // not ours
+            return null;
+        }
+    }
+
+    /**
+     * Map to the cached class file name.
+     */
+    /*package*/ File map(Checksum sum) {
+        return new File(rootDir,String.format("%02X/%014X%016X.class",
+                (int)(sum.sum1>>>(64-8)),
+                sum.sum1&0x00FFFFFFFFFFFFFFL, sum.sum2));
+    }
+
+    private static final ChannelProperty<Boolean> ANNOUNCED =
+            new ChannelProperty<>(Boolean.class, "class images announced");
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ChannelProperty<List<Trace>> TRACES =
+            new ChannelProperty<List<Trace>>((Class) List.class, "class loading traces");
+
+    /**
+     * Default for the total size in bytes of the images kept in the cache, 0 meaning unbounded.
+     */
+    private static final long MAX_SIZE = Long.getLong(ClassImageCache.class.getName() + ".maxSize", 64L * 1024 * 1024);
+
+    /**
+     * Maximum number of classes recorded in a {@link Trace}.
+     */
+    private static final int MAX_TRACE_LENGTH = Integer.getInteger(ClassImageCache.class.getName() + ".maxTraceLength", 10000);
+
+    private static final Logger LOGGER = Logger.getLogger(ClassImageCache.class.getName());
+}
@@ -28,10 +28,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import org.jenkinsci.remoting.util.AnonymousClassWarnings;
 
 /**
  * One-way command to be sent over to the remote system and executed there.
@@ -112,6 +115,31 @@ public abstract class Command implements Serializable {
         }
     }
 
+    /**
+     * Writes this command as a self-contained block, for the transports which frame each command separately.
+     *
+     * <p>
+     * The compact {@link CommandCodec} encoding is used if the remote side supports it and the command has one,
+     * otherwise the command is serialized with its own {@link ObjectOutputStream}.
+     * Consider calling {@link Channel#notifyWrite} afterwards.
+     *
+     * @param channel Channel
+     * @param os the stream that receives the block. It is closed on completion.
+     * @throws IOException Write exception
+     */
+    /*package*/ void writeBlockTo(@Nonnull Channel channel, @Nonnull OutputStream os) throws IOException {
+        if (CommandCodec.write(channel, this, os)) {
+            os.close();
+            return;
+        }
+        ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(os);
+        try {
+            writeTo(channel, oos);
+        } finally {
+            oos.close();
+        }
+    }
+
     /**
      * Reads command from the specified payload.
      * @param channel Channel
@@ -130,16 +158,26 @@ public abstract class Command implements Serializable {
      * Reads command from the specified payload.
      * @param channel Channel
      * @param istream Input stream
-     * @param payloadSize Payload size to be read. Used only for logging
+     * @param payloadSize Payload size to be read. Used for logging and to check the lengths within binary commands
      * @return Read command
      * @throws IOException Read exception
      * @throws ClassNotFoundException Deserialization error: class not found
      */
     /*package*/ static Command readFrom(@Nonnull Channel channel, @Nonnull InputStream istream, int payloadSize)
             throws IOException, ClassNotFoundException {
-        Command cmd = Command.readFromObjectStream(channel, new ObjectInputStreamEx(
-                istream,
-                channel.baseClassLoader,channel.classFilter));
+        PushbackInputStream in = new PushbackInputStream(istream, 1);
+        int marker = in.read();
+        Command cmd;
+        if (marker == CommandCodec.MARKER) {
+            cmd = CommandCodec.read(channel, in, payloadSize - 1);
+        } else {
+            if (marker != -1) {
+                in.unread(marker);
+            }
+            cmd = Command.readFromObjectStream(channel, new ObjectInputStreamEx(
+                    in,
+                    channel.baseClassLoader,channel.classFilter));
+        }
         channel.notifyRead(cmd, payloadSize);
         return cmd;
     }
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+
+/**
+ * A command serialized by {@link CommandTransport#encode(Command)}, waiting to be written.
+ *
+ * <p>
+ * The transports write straight out of {@link #buffer()}, so the serialized form is never copied into
+ * an exactly sized array. A command is serialized and written by the same thread within
+ * {@link Channel#send(Command)}, so each thread recycles a single block for its next command.
+ * The blocks are not thread-safe.
+ */
+final class CommandBlock extends OutputStream {
+    /**
+     * Blocks that grow beyond this size are left to the garbage collector rather than recycled,
+     * so that a thread which once sent a huge command does not hold on to the memory.
+     */
+    private static final int MAX_RECYCLED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<CommandBlock> RECYCLED = new ThreadLocal<CommandBlock>();
+
+    private byte[] buf = new byte[1024];
+    private int count;
+
+    private CommandBlock() {
+    }
+
+    /**
+     * Gets an empty block, reusing the one recycled by the current thread if any.
+     * Sending a command can cause another one to be sent while the first is being serialized,
+     * in which case the nested one gets a new block.
+     */
+    @Nonnull
+    static CommandBlock acquire() {
+        CommandBlock block = RECYCLED.get();
+        if (block == null) {
+            return new CommandBlock();
+        }
+        RECYCLED.set(null);
+        return block;
+    }
+
+    /**
+     * Hands the block back for reuse by the current thread. The block must not be used afterwards.
+     */
+    void release() {
+        if (buf.length <= MAX_RECYCLED_SIZE) {
+            count = 0;
+            RECYCLED.set(this);
+        }
+    }
+
+    /**
+     * The buffer holding the serialized command in its first {@link #size()} bytes.
+     */
+    @Nonnull
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * The size of the serialized command.
+     */
+    int size() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new OutOfMemoryError("Command is too large");
+        }
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+        }
+    }
+}
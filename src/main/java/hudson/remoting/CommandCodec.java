@@ -0,0 +1,505 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import hudson.remoting.RemoteClassLoader.IClassLoader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.jenkinsci.remoting.util.AnonymousClassWarnings;
+
+/**
+ * Compact binary encoding of the built-in {@link Command}s that dominate the traffic of a busy channel
+ * (requests, responses, pipe I/O and export table maintenance).
+ *
+ * <p>
+ * Java serialization spends most of a small command's bytes (and most of its CPU) on class descriptors
+ * and the recorded creation stack trace. This codec writes the fields directly instead, and only falls back
+ * to Java serialization for the parts that are genuinely user-defined objects, such as RPC arguments.
+ * Commands it does not know about keep using plain Java serialization.
+ *
+ * <p>
+ * An encoded block starts with {@link #MARKER}, which can never start a Java serialization stream
+ * ({@code 0xACED}), so the receiver can tell both formats apart. The sender only uses this encoding
+ * when the remote side advertises {@link Capability#supportsBinaryCommands()}.
+ *
+ * <p>
+ * The creation stack traces of encoded commands are not transferred. Commands which carry a
+ * diagnostic cause, and all commands when {@link Request#chainCause} is enabled, are serialized as before.
+ */
+final class CommandCodec {
+    /**
+     * First byte of an encoded command block.
+     */
+    static final int MARKER = 0xBC;
+
+    private static final int GC = 1;
+    private static final int UNEXPORT = 2;
+    private static final int RESPONSE = 3;
+    private static final int RPC_REQUEST = 4;
+    private static final int USER_RPC_REQUEST = 5;
+    private static final int USER_REQUEST = 6;
+    private static final int CANCEL = 7;
+    private static final int PIPE_CHUNK = 8;
+    private static final int PIPE_FLUSH = 9;
+    private static final int PIPE_EOF = 10;
+    private static final int PIPE_ACK = 11;
+    private static final int PIPE_UNEXPORT = 12;
+    private static final int UNEXPORT_BATCH = 13;
+
+    // kinds of Response payload
+    private static final int PAYLOAD_NONE = 0;
+    private static final int PAYLOAD_NORMAL = 1;
+    private static final int PAYLOAD_EXCEPTION = 2;
+    private static final int PAYLOAD_SERIALIZED = 3;
+
+    private CommandCodec() {}
+
+    /**
+     * Writes the command in the binary encoding, if possible.
+     *
+     * @return {@code false} if nothing has been written and the command needs to be serialized instead.
+     */
+    static boolean write(@Nonnull Channel channel, @Nonnull Command cmd, @Nonnull OutputStream os) throws IOException {
+        if (DISABLED || Request.chainCause || !channel.remoteCapability.supportsBinaryCommands()) {
+            return false;
+        }
+        if (cmd.createdAt != null && cmd.createdAt.getCause() != null) {
+            return false; // keep the diagnostic information
+        }
+        int tag = tagOf(cmd);
+        if (tag == 0) {
+            return false;
+        }
+
+        Channel old = Channel.setCurrent(channel);
+        try {
+            DataOutputStream dos = new DataOutputStream(os);
+            dos.writeByte(MARKER);
+            dos.writeByte(tag);
+            switch (tag) {
+            case GC:
+                break;
+            case UNEXPORT:
+                dos.writeInt(((UnexportCommand) cmd).oid);
+                break;
+            case CANCEL:
+                dos.writeInt(((Request.Cancel) cmd).id);
+                break;
+            case RESPONSE:
+                writeResponse((Response<?, ?>) cmd, dos);
+                break;
+            case RPC_REQUEST:
+            case USER_RPC_REQUEST:
+                writeRPCRequest((RemoteInvocationHandler.RPCRequest) cmd, dos);
+                break;
+            case USER_REQUEST: {
+                UserRequest<?, ?> r = (UserRequest<?, ?>) cmd;
+                dos.writeInt(r.id);
+                dos.writeInt(r.lastIoId);
+                writeString(dos, r.toString);
+                writeBytes(dos, r.request);
+                writeObjects(dos, r.classLoaderProxy);
+                break;
+            }
+            case PIPE_CHUNK: {
+                ProxyOutputStream.Chunk c = (ProxyOutputStream.Chunk) cmd;
+                dos.writeInt(c.oid);
+                dos.writeInt(c.ioId);
+                dos.writeInt(c.requestId);
+                writeBytes(dos, c.buf);
+                break;
+            }
+            case PIPE_FLUSH: {
+                ProxyOutputStream.Flush c = (ProxyOutputStream.Flush) cmd;
+                dos.writeInt(c.oid);
+                dos.writeInt(c.ioId);
+                dos.writeInt(c.requestId);
+                break;
+            }
+            case PIPE_EOF: {
+                ProxyOutputStream.EOF c = (ProxyOutputStream.EOF) cmd;
+                dos.writeInt(c.oid);
+                dos.writeInt(c.ioId);
+                dos.writeInt(c.requestId);
+                break;
+            }
+            case PIPE_ACK: {
+                ProxyOutputStream.Ack c = (ProxyOutputStream.Ack) cmd;
+                dos.writeInt(c.oid);
+                dos.writeInt(c.size);
+                break;
+            }
+            case PIPE_UNEXPORT: {
+                ProxyOutputStream.Unexport c = (ProxyOutputStream.Unexport) cmd;
+                dos.writeInt(c.oid);
+                dos.writeInt(c.ioId);
+                break;
+            }
+            case UNEXPORT_BATCH: {
+                int[] oids = ((UnexportBatchCommand) cmd).oids;
+                dos.writeInt(oids.length);
+                for (int oid : oids) {
+                    dos.writeInt(oid);
+                }
+                break;
+            }
+            default:
+                throw new AssertionError(tag);
+            }
+            dos.flush();
+            return true;
+        } finally {
+            Channel.setCurrent(old);
+        }
+    }
+
+    /**
+     * Reads a command written by {@link #write}, after its {@link #MARKER} has been consumed.
+     *
+     * @param size the number of bytes left in the frame, lengths read from the wire are checked against it.
+     */
+    @Nonnull
+    static Command read(@Nonnull Channel channel, @Nonnull InputStream is, int size)
+            throws IOException, ClassNotFoundException {
+        Channel old = Channel.setCurrent(channel);
+        try {
+            FrameInputStream dis = new FrameInputStream(is, size);
+            int tag = dis.readUnsignedByte();
+            switch (tag) {
+            case GC:
+                return new GCCommand();
+            case UNEXPORT:
+                return new UnexportCommand(dis.readInt(), false);
+            case CANCEL:
+                return new Request.Cancel(dis.readInt());
+            case RESPONSE:
+                return readResponse(channel, dis);
+            case RPC_REQUEST:
+            case USER_RPC_REQUEST:
+                return readRPCRequest(channel, dis, tag == USER_RPC_REQUEST);
+            case USER_REQUEST: {
+                int id = dis.readInt();
+                int lastIoId = dis.readInt();
+                String toString = readString(dis);
+                byte[] request = readBytes(dis);
+                IClassLoader classLoaderProxy = (IClassLoader) readObjects(channel, dis, 1)[0];
+                return new UserRequest<Object, Throwable>(id, lastIoId, toString, request, classLoaderProxy);
+            }
+            case PIPE_CHUNK:
+                return new ProxyOutputStream.Chunk(dis.readInt(), dis.readInt(), dis.readInt(), readBytes(dis));
+            case PIPE_FLUSH:
+                return new ProxyOutputStream.Flush(dis.readInt(), dis.readInt(), dis.readInt());
+            case PIPE_EOF:
+                return new ProxyOutputStream.EOF(dis.readInt(), dis.readInt(), dis.readInt());
+            case PIPE_ACK:
+                return new ProxyOutputStream.Ack(dis.readInt(), dis.readInt());
+            case PIPE_UNEXPORT: {
+                int oid = dis.readInt();
+                return new ProxyOutputStream.Unexport(dis.readInt(), oid, false);
+            }
+            case UNEXPORT_BATCH: {
+                int[] oids = new int[dis.readLength(4)];
+                for (int i = 0; i < oids.length; i++) {
+                    oids[i] = dis.readInt();
+                }
+                return new UnexportBatchCommand(oids, null);
+            }
+            default:
+                throw new StreamCorruptedException("Unknown command tag " + tag);
+            }
+        } finally {
+            Channel.setCurrent(old);
+        }
+    }
+
+    private static int tagOf(Command cmd) {
+        // exact class matches only, subclasses may carry state of their own
+        Class<?> c = cmd.getClass();
+        if (c == GCCommand.class) {
+            return GC;
+        }
+        if (c == UnexportCommand.class) {
+            return UNEXPORT;
+        }
+        if (c == Request.Cancel.class) {
+            return CANCEL;
+        }
+        if (c == Response.class) {
+            return RESPONSE;
+        }
+        if (c == RemoteInvocationHandler.RPCRequest.class) {
+            return RPC_REQUEST;
+        }
+        if (c == RemoteInvocationHandler.UserRPCRequest.class) {
+            return USER_RPC_REQUEST;
+        }
+        if (c == UserRequest.class) {
+            return USER_REQUEST;
+        }
+        if (c == ProxyOutputStream.Chunk.class) {
+            return PIPE_CHUNK;
+        }
+        if (c == ProxyOutputStream.Flush.class) {
+            return PIPE_FLUSH;
+        }
+        if (c == ProxyOutputStream.EOF.class) {
+            // the error is an arbitrary Throwable, leave it to the serialization
+            return ((ProxyOutputStream.EOF) cmd).error == null ? PIPE_EOF : 0;
+        }
+        if (c == ProxyOutputStream.Ack.class) {
+            return PIPE_ACK;
+        }
+        if (c == ProxyOutputStream.Unexport.class) {
+            return PIPE_UNEXPORT;
+        }
+        if (c == UnexportBatchCommand.class) {
+            // the origins are arbitrary Throwables, leave them to the serialization
+            return ((UnexportBatchCommand) cmd).origins == null ? UNEXPORT_BATCH : 0;
+        }
+        return 0;
+    }
+
+    private static void writeResponse(Response<?, ?> rsp, DataOutputStream dos) throws IOException {
+        dos.writeInt(rsp.id);
+        dos.writeInt(rsp.lastIoId);
+        Object value = rsp.returnValue;
+        if (value == null && rsp.exception == null) {
+            dos.writeByte(PAYLOAD_NONE);
+        } else if (rsp.exception == null && value instanceof UserRequest.NormalResponse) {
+            dos.writeByte(PAYLOAD_NORMAL);
+            writeBytes(dos, ((UserRequest.NormalResponse<?, ?>) value).response);
+        } else if (rsp.exception == null && value instanceof UserRequest.ExceptionResponse) {
+            UserRequest.ExceptionResponse<?, ?> e = (UserRequest.ExceptionResponse<?, ?>) value;
+            dos.writeByte(PAYLOAD_EXCEPTION);
+            writeBytes(dos, e.rawResponse);
+            writeBytes(dos, e.proxyResponse);
+        } else {
+            dos.writeByte(PAYLOAD_SERIALIZED);
+            writeObjects(dos, value, rsp.exception);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Response<?, ?> readResponse(Channel channel, FrameInputStream dis) throws IOException, ClassNotFoundException {
+        int id = dis.readInt();
+        int lastIoId = dis.readInt();
+        int kind = dis.readUnsignedByte();
+        switch (kind) {
+        case PAYLOAD_NONE:
+            return new Response(id, lastIoId, null, null);
+        case PAYLOAD_NORMAL:
+            return new Response(id, lastIoId, new UserRequest.NormalResponse(readBytes(dis)), null);
+        case PAYLOAD_EXCEPTION: {
+            byte[] rawResponse = readBytes(dis);
+            byte[] proxyResponse = readBytes(dis);
+            return new Response(id, lastIoId, new UserRequest.ExceptionResponse(rawResponse, proxyResponse), null);
+        }
+        case PAYLOAD_SERIALIZED: {
+            Object[] o = readObjects(channel, dis, 2);
+            return new Response(id, lastIoId, o[0], (Throwable) o[1]);
+        }
+        default:
+            throw new StreamCorruptedException("Unknown response payload " + kind);
+        }
+    }
+
+    private static void writeRPCRequest(RemoteInvocationHandler.RPCRequest r, DataOutputStream dos) throws IOException {
+        dos.writeInt(r.id);
+        dos.writeInt(r.lastIoId);
+        dos.writeInt(r.oid);
+        writeString(dos, r.declaringClassName);
+        writeString(dos, r.methodName);
+        dos.writeInt(r.types.length);
+        for (String type : r.types) {
+            writeString(dos, type);
+        }
+        if (r.types.length > 0) {
+            writeObjects(dos, (Object) r.arguments);
+        }
+    }
+
+    private static RemoteInvocationHandler.RPCRequest readRPCRequest(Channel channel, FrameInputStream dis, boolean user)
+            throws IOException, ClassNotFoundException {
+        int id = dis.readInt();
+        int lastIoId = dis.readInt();
+        int oid = dis.readInt();
+        String declaringClassName = readString(dis);
+        String methodName = readString(dis);
+        // each type takes at least the 4 bytes of its length
+        String[] types = new String[dis.readLength(4)];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = readString(dis);
+        }
+        Object[] arguments = types.length > 0 ? (Object[]) readObjects(channel, dis, 1)[0] : new Object[0];
+        return user
+                ? new RemoteInvocationHandler.UserRPCRequest(id, lastIoId, oid, declaringClassName, methodName, types, arguments)
+                : new RemoteInvocationHandler.RPCRequest(id, lastIoId, oid, declaringClassName, methodName, types, arguments);
+    }
+
+    private static void writeString(DataOutputStream dos, @CheckForNull String s) throws IOException {
+        writeBytes(dos, s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @CheckForNull
+    private static String readString(FrameInputStream dis) throws IOException {
+        byte[] b = readBytes(dis);
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream dos, @CheckForNull byte[] b) throws IOException {
+        if (b == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(b.length);
+            dos.write(b);
+        }
+    }
+
+    @CheckForNull
+    private static byte[] readBytes(FrameInputStream dis) throws IOException {
+        int len = dis.readInt();
+        if (len == -1) {
+            return null;
+        }
+        byte[] b = new byte[dis.checkLength(len, 1)];
+        dis.readFully(b);
+        return b;
+    }
+
+    /**
+     * Serializes objects that have no binary encoding. This has to be the last thing written to the block.
+     */
+    private static void writeObjects(DataOutputStream dos, Object... objects) throws IOException {
+        dos.flush();
+        ObjectOutputStream oos = AnonymousClassWarnings.checkingObjectOutputStream(dos);
+        for (Object o : objects) {
+            oos.writeObject(o);
+        }
+        oos.flush();
+    }
+
+    private static Object[] readObjects(Channel channel, InputStream is, int count) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStreamEx(is, channel.baseClassLoader, channel.classFilter);
+        Object[] objects = new Object[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = ois.readObject();
+        }
+        return objects;
+    }
+
+    /**
+     * Reads the binary encoding of a command while keeping track of how much of the frame is left, so that a corrupt
+     * length fails with a {@link StreamCorruptedException} rather than an attempt to allocate a huge array.
+     */
+    private static final class FrameInputStream extends DataInputStream {
+        FrameInputStream(InputStream in, int size) {
+            super(new RemainingInputStream(in, size));
+        }
+
+        /**
+         * Reads a length and checks it against the rest of the frame.
+         *
+         * @param elementSize the minimum number of bytes each element takes on the wire.
+         * @return the length.
+         * @throws IOException if the length cannot be read or does not fit the rest of the frame.
+         */
+        int readLength(int elementSize) throws IOException {
+            return checkLength(readInt(), elementSize);
+        }
+
+        /**
+         * Checks a length read from the wire against the rest of the frame.
+         *
+         * @param length      the length.
+         * @param elementSize the minimum number of bytes each element takes on the wire.
+         * @return the length.
+         * @throws StreamCorruptedException if the length does not fit the rest of the frame.
+         */
+        int checkLength(int length, int elementSize) throws StreamCorruptedException {
+            long remaining = ((RemainingInputStream) in).remaining;
+            if (length < 0 || (long) length * elementSize > remaining) {
+                throw new StreamCorruptedException("Invalid length " + length + " with " + remaining
+                        + " bytes left in the command");
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Counts down the bytes left in the frame.
+     */
+    private static final class RemainingInputStream extends FilterInputStream {
+        private long remaining;
+
+        RemainingInputStream(InputStream in, int size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Escape hatch to go back to Java serialization for all commands.
+     */
+    static boolean DISABLED = Boolean.getBoolean(CommandCodec.class.getName() + ".disabled");
+}
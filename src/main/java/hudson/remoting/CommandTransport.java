@@ -5,6 +5,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 
 /**
  * Lower level abstraction under {@link Channel} for sending and receiving commands
@@ -143,6 +144,41 @@ public abstract class CommandTransport {
      */
     public abstract void write(Command cmd, boolean last) throws IOException;
 
+    /**
+     * Serializes the command ahead of writing it.
+     *
+     * <p>
+     * {@link Channel} calls this before it takes the lock that orders the writes, so that commands
+     * sent from different threads get serialized in parallel. The result is then passed to
+     * {@link #write(Command, CommandBlock, boolean)} under that lock, and released afterwards.
+     *
+     * @param cmd
+     *      The command object that needs to be sent.
+     * @return
+     *      The serialized command, or {@code null} if this transport can only serialize
+     *      the command in {@link #write(Command, boolean)}.
+     */
+    @CheckForNull
+    /*package*/ CommandBlock encode(@Nonnull Command cmd) throws IOException {
+        return null;
+    }
+
+    /**
+     * Writes a command that has been serialized by {@link #encode(Command)}.
+     * The same ordering guarantees as {@link #write(Command, boolean)} apply.
+     * The default implementation hands the command to {@link #write(Command, boolean)}.
+     *
+     * @param cmd
+     *      The command object, for the bookkeeping.
+     * @param block
+     *      The result of {@link #encode(Command)}, {@code null} when the transport did not serialize the command.
+     * @param last
+     *      As in {@link #write(Command, boolean)}.
+     */
+    /*package*/ void write(@Nonnull Command cmd, @CheckForNull CommandBlock block, boolean last) throws IOException {
+        write(cmd, last);
+    }
+
     /**
      * Called to close the write side of the transport, allowing the underlying transport
      * to be shut down.
@@ -163,6 +199,30 @@ public abstract class CommandTransport {
      */
     public abstract void closeRead() throws IOException;
 
+    /**
+     * Called by {@link Channel} to stop reading commands for a while, because the other side sends
+     * requests faster than they complete. The commands that were already read are still to be passed on to
+     * {@link CommandReceiver#handle(Command)}, and reading carries on after {@link #resumeRead()}.
+     *
+     * <p>
+     * This method must not block, as it is called while the channel processes commands.
+     * The default implementation does nothing, so the requests queue up in memory instead.
+     *
+     * @see ChannelBuilder#withMaxInFlightRequests(int)
+     * @since 3.37
+     */
+    public void pauseRead() {
+    }
+
+    /**
+     * Called by {@link Channel} to carry on reading commands after {@link #pauseRead()}.
+     * This method must not block either.
+     *
+     * @since 3.37
+     */
+    public void resumeRead() {
+    }
+
     /**
      * Historical artifact left for backward compatibility, necessary only for retaining
      * {@link Channel#getUnderlyingOutput()}.
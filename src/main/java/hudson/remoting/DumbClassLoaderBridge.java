@@ -58,6 +58,11 @@ class DumbClassLoaderBridge implements IClassLoader {
                 new ClassFile2(cf.classLoader,new ResourceImageDirect(cf.classImage),null,null,null));
     }
 
+    public Map<String,ClassFile2> fetchAll(String[] classNames) {
+        // the classes will be fetched one by one as they are needed
+        return Collections.emptyMap();
+    }
+
     @Override
     public ResourceFile getResource2(String name) throws IOException {
         byte[] img = base.getResource(name);
@@ -77,6 +77,7 @@ import org.jenkinsci.remoting.protocol.cert.BlindTrustX509ExtendedTrustManager;
 import org.jenkinsci.remoting.protocol.cert.DelegatingX509ExtendedTrustManager;
 import org.jenkinsci.remoting.protocol.cert.PublicKeyMatchingX509ExtendedTrustManager;
 import org.jenkinsci.remoting.protocol.impl.ConnectionRefusalException;
+import org.jenkinsci.remoting.util.ExecutorServiceUtils;
 import org.jenkinsci.remoting.util.KeyUtils;
 
 /**
@@ -88,19 +89,53 @@ import org.jenkinsci.remoting.util.KeyUtils;
 public class Engine extends Thread {
     /**
      * Thread pool that sets {@link #CURRENT}.
+     * Runs every task on a virtual thread of its own instead, if {@link #VIRTUAL_THREADS} is set and the JVM supports them.
      */
-    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
-        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-        public Thread newThread(final Runnable r) {
-            Thread thread = defaultFactory.newThread(() -> {
-                CURRENT.set(Engine.this);
-                r.run();
-            });
-            thread.setDaemon(true);
-            thread.setUncaughtExceptionHandler((t, e) -> LOGGER.log(Level.SEVERE, "Uncaught exception in thread " + t, e));
-            return thread;
+    private final ExecutorService executor;
+
+    /**
+     * Whether {@link #executor} runs on virtual threads.
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * Creates the executor running each task on a virtual thread of its own.
+     *
+     * @return {@code null} if the JVM does not support virtual threads.
+     */
+    @CheckForNull
+    private ExecutorService createVirtualThreadExecutor() {
+        ThreadFactory virtualFactory = ExecutorServiceUtils.newVirtualThreadFactory("Engine");
+        ExecutorService virtual = virtualFactory == null
+                ? null
+                : ExecutorServiceUtils.newThreadPerTaskExecutor(createThreadFactory(virtualFactory, false));
+        if (virtual == null) {
+            LOGGER.log(Level.CONFIG, "Virtual threads are not available in this JVM, using platform threads");
         }
-    });
+        return virtual;
+    }
+
+    /**
+     * Creates a factory of threads which set {@link #CURRENT}.
+     *
+     * @param delegate the factory creating the threads.
+     * @param daemon   whether to mark the threads as daemons, which virtual threads always are.
+     */
+    private ThreadFactory createThreadFactory(final ThreadFactory delegate, final boolean daemon) {
+        return new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                Thread thread = delegate.newThread(() -> {
+                    CURRENT.set(Engine.this);
+                    r.run();
+                });
+                if (daemon) {
+                    thread.setDaemon(true);
+                }
+                thread.setUncaughtExceptionHandler((t, e) -> LOGGER.log(Level.SEVERE, "Uncaught exception in thread " + t, e));
+                return thread;
+            }
+        };
+    }
 
     /**
      * @deprecated
@@ -157,6 +192,16 @@ public class Engine extends Thread {
     @CheckForNull
     private JarCache jarCache = null;
 
+    /**
+     * Total size in bytes the jars of the default JAR Cache may take, or {@code null} for the default of
+     * {@link FileSystemJarCache}.
+     */
+    @CheckForNull
+    private Long jarCacheMaxSize = null;
+
+    @CheckForNull
+    private ClassImageCache classImageCache = null;
+
     /**
      * Specifies a destination for the agent log.
      * If specified, this option overrides the default destination within {@link #workDir}.
@@ -224,6 +269,11 @@ public class Engine extends Thread {
         this.slaveName = slaveName;
         this.instanceIdentity = instanceIdentity;
         this.protocols = protocols;
+        ExecutorService virtual = VIRTUAL_THREADS ? createVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null
+                ? virtual
+                : Executors.newCachedThreadPool(createThreadFactory(Executors.defaultThreadFactory(), true));
         if(candidateUrls.isEmpty() && instanceIdentity == null) {
             throw new IllegalArgumentException("No URLs given");
         }
@@ -266,6 +316,15 @@ public class Engine extends Thread {
             
             final Path path = workDirManager.initializeWorkDir(workDir.toFile(), internalDir, failIfWorkDirIsMissing);
             jarCacheDirectory = workDirManager.getLocation(WorkDirManager.DirType.JAR_CACHE_DIR);
+            File classCacheDirectory = workDirManager.getLocation(WorkDirManager.DirType.CLASS_CACHE_DIR);
+            if (classCacheDirectory != null) {
+                try {
+                    classImageCache = new ClassImageCache(classCacheDirectory);
+                } catch (IllegalArgumentException ex) {
+                    // not fatal, classes will just be transferred every time
+                    LOGGER.log(Level.WARNING, "Failed to initialize Class Image Cache in " + classCacheDirectory, ex);
+                }
+            }
             workDirManager.setupLogging(path, agentLog);
         } else if (jarCache == null) {
             LOGGER.log(Level.WARNING, "No Working Directory. Using the legacy JAR Cache location: {0}", JarCache.DEFAULT_NOWS_JAR_CACHE_LOCATION);
@@ -279,7 +338,9 @@ public class Engine extends Thread {
             }
             LOGGER.log(Level.FINE, "Using standard File System JAR Cache. Root Directory is {0}", jarCacheDirectory);
             try {
-                jarCache = new FileSystemJarCache(jarCacheDirectory, true);
+                jarCache = jarCacheMaxSize != null
+                        ? new FileSystemJarCache(jarCacheDirectory, true, jarCacheMaxSize)
+                        : new FileSystemJarCache(jarCacheDirectory, true);
             } catch (IllegalArgumentException ex) {
                 throw new IOException("Failed to initialize FileSystem JAR Cache in " + jarCacheDirectory, ex);
             }
@@ -302,6 +363,17 @@ public class Engine extends Thread {
     public void setJarCache(@Nonnull JarCache jarCache) {
         this.jarCache = jarCache;
     }
+
+    /**
+     * Bounds the total size of the jars kept by the default JAR Cache.
+     * It does not apply to a JAR Cache passed to {@link #setJarCache(JarCache)}.
+     * @param maxSize Size in bytes the cached jars may take before the least recently used ones get deleted,
+     *                or 0 to let the cache grow without bound.
+     * @since 3.37
+     */
+    public void setJarCacheMaxSize(long maxSize) {
+        this.jarCacheMaxSize = maxSize;
+    }
     
     /**
      * Sets path to the property file with JUL settings.
@@ -441,7 +513,9 @@ public class Engine extends Thread {
     public void run() {
         // Create the engine
         try {
-            IOHub hub = IOHub.create(executor);
+            IOHub hub = virtualThreads
+                    ? IOHub.create(executor, new NamingThreadFactory(new DaemonThreadFactory(), "Engine IOHub"))
+                    : IOHub.create(executor);
             try {
                 SSLContext context;
                 // prepare our SSLContext
@@ -830,6 +904,14 @@ public class Engine extends Thread {
      */
     static final int SOCKET_TIMEOUT = Integer.getInteger(Engine.class.getName()+".socketTimeout",30*60*1000);
 
+    /**
+     * Whether the agent handles requests, pipe writes and network I/O callbacks on virtual threads, when running on
+     * Java 21 or above. Agents with thousands of blocked requests otherwise need as many platform threads.
+     * See {@link ChannelBuilder#withVirtualThreads(boolean)} for the limits on Java 21 to 23.
+     * @since 3.37
+     */
+    static final boolean VIRTUAL_THREADS = Boolean.getBoolean(Engine.class.getName() + ".virtualThreads");
+
     private class EngineJnlpConnectionStateListener extends JnlpConnectionStateListener {
 
         private final RSAPublicKey publicKey;
@@ -867,6 +949,7 @@ public class Engine extends Thread {
             if (jarCache != null) {
                 bldr.withJarCache(jarCache);
             }
+            bldr.withClassImageCache(classImageCache);
         }
 
         @Override
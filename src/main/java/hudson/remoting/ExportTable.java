@@ -42,16 +42,21 @@ import static java.util.logging.Level.*;
 import javax.annotation.CheckForNull;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.meta.When;
+import org.jenkinsci.remoting.util.ConcurrentIntObjectMap;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Manages unique ID for exported objects, and allows look-up from IDs.
  *
+ * <p>
+ * Exporting and unexporting objects is guarded by the monitor of this table, while the look-ups by ID,
+ * which every remote invocation goes through, do not take it.
+ *
  * @author Kohsuke Kawaguchi
  */
 final class ExportTable {
-    private final Map<Integer,Entry<?>> table = new HashMap<Integer,Entry<?>>();
+    private final ConcurrentIntObjectMap<Entry<?>> table = new ConcurrentIntObjectMap<Entry<?>>();
     private final Map<Object,Entry<?>> reverse = new HashMap<Object,Entry<?>>();
     /**
      * {@link ExportList}s which are actively recording the current
@@ -72,8 +77,11 @@ final class ExportTable {
      */
     private final class Entry<T> {
         final int id;
-        private Class<? super T>[] interfaces;
-        private T object;
+        private volatile Class<? super T>[] interfaces;
+        /**
+         * The exported object, cleared when the entry is released.
+         */
+        private volatile T object;
         /**
          * {@code object.getClass().getName()} kept around so that we can see the type even after it
          * gets deallocated.
@@ -205,7 +213,7 @@ final class ExportTable {
             }
         }
 
-        synchronized Class<? super T>[] getInterfaces() {
+        Class<? super T>[] getInterfaces() {
             return interfaces;
         }
 
@@ -390,9 +398,12 @@ final class ExportTable {
      *      The root cause will be diagnosed by {@link #diagnoseInvalidObjectId(int)}.
      */
     @Nonnull
-    synchronized Object get(int id) throws ExecutionException {
+    Object get(int id) throws ExecutionException {
         Entry<?> e = table.get(id);
-        if(e!=null) return e.object;
+        if(e!=null) {
+            Object o = e.object;
+            if(o!=null) return o; // otherwise released concurrently
+        }
 
         throw diagnoseInvalidObjectId(id);
     }
@@ -403,7 +414,7 @@ final class ExportTable {
      * @return Object or {@code null} if the ID is missing in the {@link ExportTable}.
      */
     @CheckForNull
-    synchronized Object getOrNull(int oid) {
+    Object getOrNull(int oid) {
         Entry<?> e = table.get(oid);
         if(e!=null) return e.object;
 
@@ -411,7 +422,7 @@ final class ExportTable {
     }
 
     @Nonnull
-    synchronized Class<?>[] type(int id) throws ExecutionException {
+    Class<?>[] type(int id) throws ExecutionException {
         Entry<?> e = table.get(id);
         if(e!=null) return e.getInterfaces();
 
@@ -430,14 +441,11 @@ final class ExportTable {
      *
      */
     void abort(@CheckForNull Throwable e) {
-        List<Entry<?>> values;
-        synchronized (this) {
-            values = new ArrayList<Entry<?>>(table.values());
-        }
-        for (Entry<?> v : values) {
-            if (v.object instanceof ErrorPropagatingOutputStream) {
+        for (Entry<?> v : table.values()) {
+            Object o = v.object;
+            if (o instanceof ErrorPropagatingOutputStream) {
                 try {
-                    ((ErrorPropagatingOutputStream)v.object).error(e);
+                    ((ErrorPropagatingOutputStream)o).error(e);
                 } catch (Throwable x) {
                     LOGGER.log(INFO, "Failed to propagate a channel termination error",x);
                 }
@@ -448,7 +456,7 @@ final class ExportTable {
         // don't bother putting them into #unexportLog because this channel
         // is forever closed.
         synchronized (this) {
-            table.clear();
+            table.removeAll();
             reverse.clear();
         }
     }
@@ -510,7 +518,7 @@ final class ExportTable {
      */
     synchronized void unexportByOid(@CheckForNull Integer oid, @CheckForNull Throwable callSite, boolean severeErrorIfMissing) {
         if(oid==null)     return;
-        Entry<?> e = table.get(oid);
+        Entry<?> e = table.get(oid.intValue());
         if(e==null) {
             Level loggingLevel = severeErrorIfMissing ? SEVERE : FINE;
             LOGGER.log(loggingLevel, "Trying to unexport an object that's already unexported", diagnoseInvalidObjectId(oid));
@@ -521,6 +529,13 @@ final class ExportTable {
         e.release(callSite);
     }
 
+    /**
+     * Returns the number of objects currently exported.
+     */
+    int size() {
+        return table.size();
+    }
+
     /**
      * Dumps the contents of the table to a file.
      * @throws IOException Output error
@@ -2,19 +2,35 @@ package hudson.remoting;
 
 import org.jenkinsci.remoting.util.PathUtils;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.GuardedBy;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +56,30 @@ public class FileSystemJarCache extends JarCacheSupport {
     @GuardedBy("itself")
     private final Map<String, Checksum> checksumsByPath = new HashMap<>();
 
+    /**
+     * Upper bound of the total size of the cached jars in bytes, or 0 for no bound.
+     */
+    private final long maxSize;
+
+    /**
+     * Jars this instance has handed out, by the channel they were handed out to. The class loaders of the channel
+     * may read from them until it is closed, so they are not evicted until then. The channels are only weakly
+     * referenced, so that a channel which is never closed cleanly does not pin its jars forever.
+     */
+    @GuardedBy("itself")
+    private final Map<Channel, Set<File>> inUse = new WeakHashMap<>();
+
+    /**
+     * Sidecar index of the jars whose content has been checked against the checksum in their name,
+     * keyed by the path relative to {@link #rootDir}, with the file length at that time as the value.
+     * Jars listed here with an unchanged length are not hashed again, across restarts too.
+     */
+    private final Properties verified = new Properties();
+
+    private final AtomicBoolean verifiedDirty = new AtomicBoolean();
+
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
     //TODO: Create new IOException constructor
     /**
      * @param rootDir  
@@ -51,8 +91,26 @@ public class FileSystemJarCache extends JarCacheSupport {
      *      Root directory is {@code null} or not writable.
      */
     public FileSystemJarCache(@Nonnull File rootDir, boolean touch) {
+        this(rootDir, touch, MAX_SIZE);
+    }
+
+    /**
+     * @param rootDir
+     *      Root directory.
+     * @param touch
+     *      True to touch the cached jar file that's used. The least recently used jars are the
+     *      first ones evicted, so without it jars are evicted in the order they were downloaded.
+     * @param maxSize
+     *      Total size in bytes the cached jars may take before the least recently used ones get deleted,
+     *      or 0 to let the cache grow without bound.
+     * @throws IllegalArgumentException
+     *      Root directory is {@code null} or not writable.
+     * @since 3.37
+     */
+    public FileSystemJarCache(@Nonnull File rootDir, boolean touch, long maxSize) {
         this.rootDir = rootDir;
         this.touch = touch;
+        this.maxSize = maxSize;
         if (rootDir==null)
             throw new IllegalArgumentException("Root directory is null");
 
@@ -61,16 +119,21 @@ public class FileSystemJarCache extends JarCacheSupport {
         } catch (IOException ex) {
             throw new IllegalArgumentException("Root directory not writable: " + rootDir, ex);
         }
+
+        loadIndex();
+        scheduleMaintenance();
     }
 
     @Override
     public String toString() {
-        return String.format("FileSystem JAR Cache: path=%s, touch=%s", rootDir, Boolean.toString(touch));
+        return String.format("FileSystem JAR Cache: path=%s, touch=%s, maxSize=%d", rootDir, Boolean.toString(touch), maxSize);
     }
     
     @Override
     protected URL lookInCache(Channel channel, long sum1, long sum2) throws IOException, InterruptedException {
         File jar = map(sum1, sum2);
+        // claim the jar before looking, so that a maintain() pass cannot evict it in between
+        pin(channel, jar);
         if (jar.exists()) {
             LOGGER.log(Level.FINER, String.format("Jar file cache hit %16X%16X",sum1,sum2));
             if (touch)  {
@@ -88,6 +151,7 @@ public class FileSystemJarCache extends JarCacheSupport {
     protected URL retrieve(Channel channel, long sum1, long sum2) throws IOException, InterruptedException {
         Checksum expected = new Checksum(sum1, sum2);
         File target = map(sum1, sum2);
+        pin(channel, target);
 
         if (target.exists()) {
             Checksum actual = fileChecksum(target);
@@ -101,18 +165,39 @@ public class FileSystemJarCache extends JarCacheSupport {
                     target.getAbsolutePath(), expected, actual
             ));
             Files.delete(PathUtils.fileToPath(target));
-            synchronized (checksumsByPath) {
-                checksumsByPath.remove(target.getCanonicalPath());
-            }
+            forget(target);
         }
 
         try {
             File tmp = createTempJar(target);
+            boolean keep = false;
             try {
-                RemoteOutputStream o = new RemoteOutputStream(new FileOutputStream(tmp));
+                FileOutputStream out = new FileOutputStream(tmp, true);
+                if (!claim(out)) {
+                    // another FileSystemJarCache instance sharing the cache dir is downloading the same jar
+                    out.close();
+                    tmp = File.createTempFile(target.getName(), "tmp", target.getParentFile());
+                    out = new FileOutputStream(tmp);
+                }
+                RemoteOutputStream o = new RemoteOutputStream(out);
                 try {
-                    LOGGER.log(Level.FINE, String.format("Retrieving jar file %16X%16X",sum1,sum2));
-                    getJarLoader(channel).writeJarTo(sum1, sum2, o);
+                    long offset = out.getChannel().size();
+                    if (offset > 0 && !channel.remoteCapability.supportsResumableJarDownload()) {
+                        out.getChannel().truncate(0);
+                        offset = 0;
+                    }
+                    JarLoader jl = getJarLoader(channel);
+                    if (offset > 0) {
+                        LOGGER.log(Level.FINE, String.format("Resuming jar file %16X%16X at %d",sum1,sum2,offset));
+                        jl.writeJarTo(sum1, sum2, offset, o);
+                    } else {
+                        LOGGER.log(Level.FINE, String.format("Retrieving jar file %16X%16X",sum1,sum2));
+                        jl.writeJarTo(sum1, sum2, o);
+                    }
+                } catch (ChannelClosedException | RequestAbortedException | InterruptedException e) {
+                    // the connection went away; whatever has arrived so far gets reused next time
+                    keep = true;
+                    throw e;
                 } finally {
                     o.close();
                 }
@@ -125,7 +210,10 @@ public class FileSystemJarCache extends JarCacheSupport {
                             tmp.getAbsolutePath(), expected, actual));
                 }
 
-                if (!tmp.renameTo(target)) {
+                if (tmp.renameTo(target)) {
+                    markVerified(target);
+                    scheduleMaintenance();
+                } else {
                     if (!target.exists()) {
                         throw new IOException("Unable to create " + target + " from " + tmp);
                     }
@@ -144,13 +232,74 @@ public class FileSystemJarCache extends JarCacheSupport {
 
                 return target.toURI().toURL();
             } finally {
-                Files.deleteIfExists(PathUtils.fileToPath(tmp));
+                if (!keep) {
+                    Files.deleteIfExists(PathUtils.fileToPath(tmp));
+                }
             }
         } catch (IOException e) {
             throw (IOException)new IOException("Failed to write to "+target).initCause(e);
         }
     }
 
+    /**
+     * Keeps a jar from being evicted for as long as the channel it was handed out to is open.
+     */
+    private void pin(@Nonnull Channel channel, @Nonnull File jar) {
+        boolean first;
+        synchronized (inUse) {
+            Set<File> jars = inUse.get(channel);
+            first = jars == null;
+            if (first) {
+                jars = new HashSet<>();
+                inUse.put(channel, jars);
+            }
+            jars.add(jar);
+        }
+        if (first) {
+            channel.addListener(new Channel.Listener() {
+                @Override
+                public void onClosed(Channel channel, IOException cause) {
+                    unpin(channel);
+                }
+            });
+            if (channel.isClosingOrClosed()) {
+                // closed before the listener was added
+                unpin(channel);
+            }
+        }
+    }
+
+    /**
+     * Lets the jars handed out to a channel be evicted again, once the channel is closed.
+     */
+    /*package for testing*/ void unpin(@Nonnull Channel channel) {
+        synchronized (inUse) {
+            inUse.remove(channel);
+        }
+        scheduleMaintenance();
+    }
+
+    @GuardedBy("inUse")
+    private boolean isPinned(@Nonnull File jar) {
+        for (Set<File> jars : inUse.values()) {
+            if (jars.contains(jar)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes exclusive ownership of a partially downloaded jar for the lifetime of the stream.
+     */
+    private static boolean claim(FileOutputStream out) throws IOException {
+        try {
+            return out.getChannel().tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
     /**
      * Get file checksum calculating it or retrieving from cache.
      */
@@ -164,16 +313,236 @@ public class FileSystemJarCache extends JarCacheSupport {
             Checksum checksum = checksumsByPath.get(location);
             if (checksum != null) return checksum;
 
-            checksum = Checksum.forFile(file);
+            checksum = isVerified(file) ? checksumOf(file) : null;
+            if (checksum == null) {
+                checksum = Checksum.forFile(file);
+            }
             checksumsByPath.put(location, checksum);
             return checksum;
         }
     }
 
+    private void forget(File jar) throws IOException {
+        synchronized (checksumsByPath) {
+            checksumsByPath.remove(jar.getCanonicalPath());
+        }
+        if (verified.remove(relativePath(jar)) != null) {
+            verifiedDirty.set(true);
+        }
+    }
+
+    private boolean isVerified(File jar) {
+        String length = verified.getProperty(relativePath(jar));
+        return length != null && length.equals(String.valueOf(jar.length()));
+    }
+
+    private void markVerified(File jar) {
+        verified.setProperty(relativePath(jar), String.valueOf(jar.length()));
+        verifiedDirty.set(true);
+    }
+
+    private String relativePath(File jar) {
+        return jar.getParentFile().getName() + '/' + jar.getName();
+    }
+
+    /**
+     * Recovers the checksum a cached jar is named after; the reverse of {@link #map(long, long)}.
+     *
+     * @return {@code null} if the file is not named like a cached jar.
+     */
+    @CheckForNull
+    /*package*/ static Checksum checksumOf(File jar) {
+        String dir = jar.getParentFile().getName();
+        String name = jar.getName();
+        if (dir.length() != 2 || name.length() != 14 + 16 + 4 || !name.endsWith(".jar")) {
+            return null;
+        }
+        try {
+            long sum1 = Long.parseUnsignedLong(dir + name.substring(0, 14), 16);
+            long sum2 = Long.parseUnsignedLong(name.substring(14, 30), 16);
+            return new Checksum(sum1, sum2);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private File indexFile() {
+        return new File(rootDir, INDEX_FILE);
+    }
+
+    private void loadIndex() {
+        File index = indexFile();
+        if (!index.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(index)) {
+            verified.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the jar cache index " + index + ", jars will be verified again", e);
+            verified.clear();
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        if (!verifiedDirty.getAndSet(false)) {
+            return;
+        }
+        File tmp = File.createTempFile(INDEX_FILE, ".tmp", rootDir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                verified.store(out, "Cached jars verified against their checksum");
+            }
+            Files.move(PathUtils.fileToPath(tmp), PathUtils.fileToPath(indexFile()), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(PathUtils.fileToPath(tmp));
+        }
+    }
+
+    /**
+     * Queues up a {@link #maintain()} pass, unless one is already waiting to run.
+     */
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            MAINTENANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    maintenanceScheduled.set(false);
+                    try {
+                        maintain();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to maintain the jar cache in " + rootDir, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Verifies the cached jars not in the index yet, deletes the corrupt ones,
+     * and evicts the least recently used ones if the cache has outgrown {@link #maxSize}.
+     * Partial downloads count towards {@link #maxSize} too, and are deleted once they have not been resumed
+     * for {@link #PART_MAX_AGE}.
+     */
+    /*package for testing*/ synchronized void maintain() throws IOException {
+        // skip anything that is being written or just got written; a later pass will get to it
+        long now = System.currentTimeMillis();
+        long settled = now - TimeUnit.SECONDS.toMillis(10);
+        long stale = now - PART_MAX_AGE;
+        List<File> jars = new ArrayList<>();
+        long total = 0;
+        File[] dirs = rootDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File jar : files) {
+                if (jar.getName().endsWith(PART_SUFFIX)) {
+                    if (jar.lastModified() < stale) {
+                        LOGGER.log(Level.FINE, "Deleting stale partial download {0}", jar);
+                        Files.deleteIfExists(PathUtils.fileToPath(jar));
+                    } else {
+                        jars.add(jar);
+                        total += jar.length();
+                    }
+                    continue;
+                }
+                Checksum expected = checksumOf(jar);
+                if (expected == null) {
+                    continue;
+                }
+                if (!isVerified(jar) && jar.lastModified() < settled && !verify(jar, expected)) {
+                    continue;
+                }
+                jars.add(jar);
+                total += jar.length();
+            }
+        }
+
+        for (String path : verified.stringPropertyNames()) {
+            if (!new File(rootDir, path).exists() && verified.remove(path) != null) {
+                verifiedDirty.set(true);
+            }
+        }
+
+        if (maxSize > 0 && total > maxSize) {
+            Collections.sort(jars, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return Long.compare(o1.lastModified(), o2.lastModified());
+                }
+            });
+            for (File jar : jars) {
+                if (total <= maxSize) {
+                    break;
+                }
+                long length = jar.length();
+                synchronized (inUse) {
+                    // a partial download is in use while the jar it is for is being retrieved
+                    if (isPinned(jarOf(jar)) || !jar.delete()) {
+                        continue;
+                    }
+                }
+                LOGGER.log(Level.FINE, "Evicted {0} from the jar cache", jar);
+                total -= length;
+                forget(jar);
+            }
+        }
+
+        saveIndex();
+    }
+
+    /**
+     * Checks the content of a cached jar against the checksum it is named after,
+     * deleting it if it does not match.
+     *
+     * @return true if the jar is fine.
+     */
+    private boolean verify(File jar, Checksum expected) throws IOException {
+        long length = jar.length();
+        Checksum actual = Checksum.forFile(jar);
+        if (expected.equals(actual) && length == jar.length()) {
+            synchronized (checksumsByPath) {
+                checksumsByPath.put(jar.getCanonicalPath(), actual);
+            }
+            markVerified(jar);
+            return true;
+        }
+        synchronized (inUse) {
+            if (isPinned(jar)) {
+                // retrieve() deals with it the next time the jar is requested
+                return true;
+            }
+            LOGGER.warning(String.format("Deleting corrupt cached jar %s%nExpected: %s%n Actual: %s",
+                    jar.getAbsolutePath(), expected, actual));
+            Files.deleteIfExists(PathUtils.fileToPath(jar));
+        }
+        forget(jar);
+        return false;
+    }
+
+    /**
+     * Gets the file the jar is downloaded into before it is moved to its place.
+     * The file may hold the beginning of the jar from an earlier, interrupted download.
+     */
     /*package for testing*/ File createTempJar(@Nonnull File target) throws IOException {
         File parent = target.getParentFile();
         Util.mkdirs(parent);
-        return File.createTempFile(target.getName(), "tmp", parent);
+        return new File(parent, target.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * Gets the jar a file of the cache belongs to, which is the file itself unless it is a partial download.
+     */
+    private static File jarOf(File file) {
+        String name = file.getName();
+        if (name.endsWith(PART_SUFFIX)) {
+            return new File(file.getParentFile(), name.substring(0, name.length() - PART_SUFFIX.length()));
+        }
+        return file;
     }
 
     /**
@@ -185,5 +554,36 @@ public class FileSystemJarCache extends JarCacheSupport {
                 sum1&0x00FFFFFFFFFFFFFFL, sum2));
     }
 
+    /**
+     * Name of the sidecar index of verified jars, in {@link #rootDir}.
+     */
+    private static final String INDEX_FILE = "verified.properties";
+
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * How long a partial download is kept for resuming it, in milliseconds.
+     */
+    private static final long PART_MAX_AGE = Long.getLong(FileSystemJarCache.class.getName() + ".partMaxAge",
+            TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * Default for the total size in bytes of the jars kept in the cache, 0 meaning unbounded.
+     */
+    private static final long MAX_SIZE = Long.getLong(FileSystemJarCache.class.getName() + ".maxSize", 0);
+
+    /**
+     * Runs verification and eviction passes of all the instances, one at a time, off the class loading path.
+     */
+    private static final ExecutorService MAINTENANCE = createMaintenanceExecutor();
+
+    private static ExecutorService createMaintenanceExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), FileSystemJarCache.class.getSimpleName() + " maintenance"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private static final Logger LOGGER = Logger.getLogger(FileSystemJarCache.class.getName());
 }
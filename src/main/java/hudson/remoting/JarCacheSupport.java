@@ -5,6 +5,9 @@ import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jenkinsci.remoting.util.ExecutorServiceUtils;
@@ -35,11 +38,18 @@ public abstract class JarCacheSupport extends JarCache {
     protected abstract URL retrieve(Channel channel, long sum1, long sum2) throws IOException, InterruptedException;
 
     /**
-     * Throttle the jar downloading activity so that it won't eat up all the channel bandwidth.
+     * Throttle the jar downloading activity so that it won't eat up all the channel bandwidth,
+     * while still letting a few jars come in side by side, so that one large jar does not hold up the rest.
      */
-    private final ExecutorService downloader = new AtmostOneThreadExecutor(
-            new NamingThreadFactory(new DaemonThreadFactory(), JarCacheSupport.class.getSimpleName())
-    );
+    private final ExecutorService downloader = createDownloader();
+
+    private static ExecutorService createDownloader() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DOWNLOAD_THREADS, DOWNLOAD_THREADS,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), JarCacheSupport.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     @Override
     public Future<URL> resolve(final Channel channel, final long sum1, final long sum2) throws IOException, InterruptedException {
@@ -72,7 +82,7 @@ public abstract class JarCacheSupport extends JarCache {
                         // downloader won't accept anything else, do not even try
                         throw new IOException(message, ex);
                     } else {
-                        //TODO: should we just fail? unrealistic case for the current AtmostOneThreadExecutor implementation anyway
+                        //TODO: should we just fail? unrealistic case for the current unbounded download queue anyway
                         Thread.sleep(100);
                     }
                 }
@@ -148,5 +158,11 @@ public abstract class JarCacheSupport extends JarCache {
         return jl;
     }
     
+    /**
+     * Maximum number of jar files retrieved at the same time.
+     */
+    private static final int DOWNLOAD_THREADS = Math.max(1,
+            Integer.getInteger(JarCacheSupport.class.getName() + ".downloadThreads", 4));
+
     private static final Logger LOGGER = Logger.getLogger(JarCacheSupport.class.getName());
 }
@@ -1,5 +1,6 @@
 package hudson.remoting;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -30,6 +31,42 @@ public interface JarLoader {
      */
     void writeJarTo(long sum1, long sum2, OutputStream sink) throws IOException, InterruptedException;
 
+    /**
+     * Retrieve the rest of the jar file image, starting at the given offset.
+     *
+     * This allows the other side to resume a retrieval that was cut short, for example by a lost connection.
+     * The default implementation retrieves the whole image with {@link #writeJarTo(long, long, OutputStream)}
+     * and drops the first {@code offset} bytes, so it saves nothing but still works.
+     *
+     * @param offset
+     *      Number of bytes at the beginning of the jar file the other side already has.
+     * @since 3.37
+     * @see Capability#supportsResumableJarDownload()
+     */
+    default void writeJarTo(long sum1, long sum2, final long offset, final OutputStream sink) throws IOException, InterruptedException {
+        writeJarTo(sum1, sum2, new FilterOutputStream(sink) {
+            private long skip = offset;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    out.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int skipped = (int) Math.min(skip, len);
+                skip -= skipped;
+                if (len > skipped) {
+                    out.write(b, off + skipped, len - skipped);
+                }
+            }
+        });
+    }
+
     /**
      * Called by the other side to notify that they already own the jar file of the given checksum.
      *
@@ -4,6 +4,7 @@ import org.jenkinsci.remoting.SerializableOnlyOverRemoting;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.NotSerializableException;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
@@ -34,6 +35,10 @@ class JarLoaderImpl implements JarLoader, SerializableOnlyOverRemoting {
     private final Set<Checksum> presentOnRemote = Collections.synchronizedSet(new HashSet<Checksum>());
 
     public void writeJarTo(long sum1, long sum2, OutputStream sink) throws IOException, InterruptedException {
+        writeJarTo(sum1, sum2, 0, sink);
+    }
+
+    public void writeJarTo(long sum1, long sum2, long offset, OutputStream sink) throws IOException, InterruptedException {
         Checksum k = new Checksum(sum1, sum2);
         URL url = knownJars.get(k);
         if (url==null)
@@ -53,25 +58,51 @@ class JarLoaderImpl implements JarLoader, SerializableOnlyOverRemoting {
         } else {
             LOGGER.log(Level.WARNING, "no active channel");
         }
-        Util.copy(url.openStream(), sink);
+        try (InputStream in = url.openStream()) {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    throw new IOException("Jar file " + k + " is shorter than " + offset + " bytes");
+                }
+                skipped += n;
+            }
+            Util.copy(in, sink);
+        }
         presentOnRemote.add(k);
     }
 
     public Checksum calcChecksum(File jar) throws IOException {
-        return calcChecksum(jar.toURI().toURL());
+        URL url = jar.toURI().toURL();
+        Checksum v = checksums.get(url);    // cache hit
+        if (v!=null)    return v;
+
+        // other channels of this JVM have most likely hashed the same jar already
+        v = Checksum.forFileCached(jar);
+
+        knownJars.put(v,url);
+        checksums.put(url,v);
+        return v;
     }
 
     public boolean isPresentOnRemote(Checksum sum) {
         return presentOnRemote.contains(sum);
     }
 
+    /**
+     * Whether the other side has announced any jar or class image at all, which it never does without a cache.
+     */
+    /*package*/ boolean hasPresentOnRemote() {
+        return !presentOnRemote.isEmpty();
+    }
+
     public void notifyJarPresence(long sum1, long sum2) {
         presentOnRemote.add(new Checksum(sum1,sum2));
     }
 
     public void notifyJarPresence(long[] sums) {
         synchronized (presentOnRemote) {
-            for (int i=0; i<sums.length; i+=2)
+            for (int i=0; i<sums.length/2; i++)
                 presentOnRemote.add(new Checksum(sums[i*2],sums[i*2+1]));
         }
     }
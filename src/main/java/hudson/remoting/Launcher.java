@@ -175,6 +175,14 @@ public class Launcher {
     @Option(name="-jar-cache",metaVar="DIR",usage="Cache directory that stores jar files sent from the master")
     public File jarCache = null;
 
+    /**
+     * @since 3.37
+     */
+    @CheckForNull
+    @Option(name="-jarCacheMaxSize",metaVar="BYTES",
+            usage="Total size of the jar files the cache may keep before the least recently used ones get deleted ('0' for no bound)")
+    public Long jarCacheMaxSize = null;
+
     /**
      * Specified location of the property file with JUL settings.
      * @since 3.8
@@ -349,6 +357,10 @@ public class Launcher {
               jnlpArgs.add("-jar-cache");
               jnlpArgs.add(jarCache.getPath());
             }
+            if (jarCacheMaxSize != null) {
+                jnlpArgs.add("-jarCacheMaxSize");
+                jnlpArgs.add(jarCacheMaxSize.toString());
+            }
             if (this.noReconnect) {
                 jnlpArgs.add("-noreconnect");
             }
@@ -659,7 +671,7 @@ public class Launcher {
         s.setTcpNoDelay(true);
         main(new BufferedInputStream(SocketChannelStream.in(s)),
              new BufferedOutputStream(SocketChannelStream.out(s)), mode,ping,
-             jarCache != null ? new FileSystemJarCache(jarCache,true) : null);
+             createJarCache());
     }
 
     /**
@@ -713,7 +725,21 @@ public class Launcher {
 
         // System.in/out appear to be already buffered (at least that was the case in Linux and Windows as of Java6)
         // so we are not going to double-buffer these.
-        main(System.in, os, mode, ping, jarCache != null ? new FileSystemJarCache(jarCache,true) : null);
+        main(System.in, os, mode, ping, createJarCache());
+    }
+
+    /**
+     * Creates the JAR Cache given by the {@code -jar-cache} and {@code -jarCacheMaxSize} options.
+     *
+     * @return {@code null} to use the default JAR Cache.
+     */
+    @CheckForNull
+    private JarCache createJarCache() {
+        if (jarCacheMaxSize != null) {
+            File dir = jarCache != null ? jarCache : JarCache.DEFAULT_NOWS_JAR_CACHE_LOCATION;
+            return new FileSystemJarCache(dir, true, jarCacheMaxSize);
+        }
+        return jarCache != null ? new FileSystemJarCache(jarCache, true) : null;
     }
 
     /**
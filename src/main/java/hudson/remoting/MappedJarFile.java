@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Read-only view of a jar file that serves entries straight from a memory-mapped image of the file.
+ *
+ * <p>
+ * The central directory is parsed once when the file is opened, into an index from the entry name to
+ * the position of its central directory record. Reading an entry afterwards is a lookup plus a copy
+ * (or inflation) out of the mapped buffer, so concurrent readers neither share a lock nor go through
+ * the {@code jar:} URL machinery that {@link ResourceImageInJar} used to rely on.
+ *
+ * <p>
+ * Only the plain zip format is handled. Jars that use ZIP64 extensions, encryption or compression methods
+ * other than {@code STORED} and {@code DEFLATED} are rejected by {@link #open(File)} or
+ * {@link #read(String)}, and callers are expected to fall back to {@link java.util.jar.JarFile}.
+ *
+ * @since 3.37
+ */
+/*package*/ final class MappedJarFile {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOCAL_HEADER_LEN = 30;
+    private static final int CENTRAL_HEADER_LEN = 46;
+    private static final int END_LEN = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File file;
+    /**
+     * Little-endian view of the whole file. Only absolute accessors are used on it, so that it can be
+     * shared between threads; bulk copies go through a {@link ByteBuffer#duplicate()}.
+     */
+    private final ByteBuffer image;
+    /**
+     * Entry name to the offset of its central directory record in {@link #image}.
+     */
+    private final Map<String, Integer> index;
+
+    private MappedJarFile(File file, ByteBuffer image, Map<String, Integer> index) {
+        this.file = file;
+        this.image = image;
+        this.index = index;
+    }
+
+    /**
+     * Maps the given jar file and indexes its central directory.
+     *
+     * @throws ZipException if the file is not a zip file this class can handle.
+     */
+    @Nonnull
+    static MappedJarFile open(@Nonnull File file) throws IOException {
+        ByteBuffer image;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Too large to map: " + file);
+            }
+            image = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int end = findEndOfCentralDirectory(image);
+        if (end < 0) {
+            throw new ZipException("No end of central directory record in " + file);
+        }
+        int count = u16(image, end + 10);
+        long cdSize = u32(image, end + 12);
+        long cdStart = u32(image, end + 16);
+        if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdStart == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 is not supported: " + file);
+        }
+        if (cdStart + cdSize > end) {
+            throw new ZipException("Corrupt central directory in " + file);
+        }
+
+        Map<String, Integer> index = new HashMap<>(count * 4 / 3 + 1);
+        int p = (int) cdStart;
+        for (int i = 0; i < count; i++) {
+            if (p + CENTRAL_HEADER_LEN > end || image.getInt(p) != CENTRAL_HEADER_SIG) {
+                throw new ZipException("Corrupt central directory in " + file);
+            }
+            int nameLen = u16(image, p + 28);
+            byte[] name = new byte[nameLen];
+            ByteBuffer b = image.duplicate();
+            b.position(p + CENTRAL_HEADER_LEN);
+            b.get(name);
+            // first record wins, as in ZipFile
+            index.putIfAbsent(new String(name, StandardCharsets.UTF_8), p);
+            p += CENTRAL_HEADER_LEN + nameLen + u16(image, p + 30) + u16(image, p + 32);
+        }
+        return new MappedJarFile(file, image, index);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer image) {
+        // the record is followed by a comment of at most 64K
+        int limit = Math.max(0, image.limit() - END_LEN - 0xFFFF);
+        for (int p = image.limit() - END_LEN; p >= limit; p--) {
+            if (image.getInt(p) == END_SIG && p + END_LEN + u16(image, p + 20) == image.limit()) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    @Nonnull
+    File getFile() {
+        return file;
+    }
+
+    boolean contains(@Nonnull String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * Reads the whole content of the given entry.
+     *
+     * @return {@code null} if the jar has no such entry.
+     * @throws ZipException if the entry is corrupt or uses a format this class does not handle.
+     */
+    @CheckForNull
+    byte[] read(@Nonnull String name) throws ZipException {
+        Integer cd = index.get(name);
+        if (cd == null) {
+            return null;
+        }
+        int p = cd;
+        if ((u16(image, p + 8) & 1) != 0) {
+            throw new ZipException("Encrypted entry " + name + " in " + file);
+        }
+        int method = u16(image, p + 10);
+        long crc = u32(image, p + 16);
+        long compressedSize = u32(image, p + 20);
+        long size = u32(image, p + 24);
+        long local = u32(image, p + 42);
+        if (local + LOCAL_HEADER_LEN > image.limit() || image.getInt((int) local) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Corrupt local header for " + name + " in " + file);
+        }
+        // the local header can carry a different extra field than the central directory record
+        long start = local + LOCAL_HEADER_LEN + u16(image, (int) local + 26) + u16(image, (int) local + 28);
+        if (start + compressedSize > image.limit() || size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Corrupt entry " + name + " in " + file);
+        }
+
+        ByteBuffer data = image.duplicate();
+        data.limit((int) (start + compressedSize)).position((int) start);
+        byte[] content = new byte[(int) size];
+        switch (method) {
+        case STORED:
+            if (compressedSize != size) {
+                throw new ZipException("Corrupt entry " + name + " in " + file);
+            }
+            data.get(content);
+            break;
+        case DEFLATED:
+            inflate(data, content, name);
+            break;
+        default:
+            throw new ZipException("Unsupported compression method " + method + " for " + name + " in " + file);
+        }
+
+        CRC32 check = new CRC32();
+        check.update(content, 0, content.length);
+        if (check.getValue() != crc) {
+            throw new ZipException("CRC mismatch for " + name + " in " + file);
+        }
+        return content;
+    }
+
+    private void inflate(ByteBuffer data, byte[] content, String name) throws ZipException {
+        // Inflater on Java 8 only takes arrays; the extra zero byte is what nowrap mode asks for
+        byte[] compressed = new byte[data.remaining() + 1];
+        data.get(compressed, 0, compressed.length - 1);
+        Inflater inf = new Inflater(true);
+        try {
+            inf.setInput(compressed);
+            int n = 0;
+            while (n < content.length && !inf.finished()) {
+                int r = inf.inflate(content, n, content.length - n);
+                if (r == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+            if (n != content.length) {
+                throw new ZipException("Truncated entry " + name + " in " + file);
+            }
+        } catch (DataFormatException e) {
+            throw (ZipException) new ZipException("Corrupt entry " + name + " in " + file).initCause(e);
+        } finally {
+            inf.end();
+        }
+    }
+
+    private static int u16(ByteBuffer b, int p) {
+        return b.getShort(p) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer b, int p) {
+        return b.getInt(p) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the shared mapping of the jar behind the given URL.
+     *
+     * @return {@code null} if the URL is not a local file, or the file cannot be mapped.
+     *         The caller should then read the jar the usual way.
+     */
+    @CheckForNull
+    static MappedJarFile of(@Nonnull URL jar) {
+        if (!"file".equals(jar.getProtocol())) {
+            return null;
+        }
+        File file;
+        try {
+            file = new File(jar.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        synchronized (OPEN) {
+            MappedJarFile m = OPEN.get(file);
+            if (m != null && m.image.limit() == file.length()) {
+                return m;
+            }
+        }
+        // map outside the lock; a concurrent duplicate is harmless and simply dropped
+        MappedJarFile m;
+        try {
+            m = open(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to map " + file + ", falling back to JarFile", e);
+            return null;
+        }
+        synchronized (OPEN) {
+            MappedJarFile existing = OPEN.get(file);
+            if (existing != null && existing.image.limit() == m.image.limit()) {
+                return existing;
+            }
+            OPEN.put(file, m);
+            return m;
+        }
+    }
+
+    /**
+     * Jars served from the cache are identified by their checksum and never change once written,
+     * so mappings can be kept around. The least recently used one is dropped past this limit,
+     * and unmapped when it is garbage collected.
+     */
+    static final int MAX_OPEN = Integer.getInteger(MappedJarFile.class.getName() + ".maxOpen", 256);
+
+    private static final Map<File, MappedJarFile> OPEN = new LinkedHashMap<File, MappedJarFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, MappedJarFile> eldest) {
+            return size() > MAX_OPEN;
+        }
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(MappedJarFile.class.getName());
+}
@@ -28,6 +28,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import javax.annotation.CheckForNull;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.*;
@@ -48,10 +51,42 @@ import static java.util.logging.Level.*;
  * writes data to {@link OutputStream}, it'll send back the "ack" command, which adds to this value, allowing
  * the sender to send more data.
  *
+ * <p>
+ * The window size is not fixed. {@link Real} measures the delivery rate over the time it takes for the sent
+ * bytes to be acked and grows the window while that increases the delivery rate (a high latency link), falling
+ * back when it does not (the receiver would just be queueing up data). All the windows of a channel share a
+ * {@link Budget} so that many concurrent pipes do not hold more than {@link #BUDGET} bytes of queued data on
+ * the receiver.
+ *
  * @author Kohsuke Kawaguchi
  */
 abstract class PipeWindow {
 
+    /**
+     * Set to {@code true} to keep every window at {@link Channel#PIPE_WINDOW_SIZE}.
+     */
+    static final boolean FIXED = Boolean.getBoolean(PipeWindow.class.getName()+".fixed");
+
+    /**
+     * The largest size that an adaptive window can grow to.
+     */
+    static final int MAX_SIZE = Integer.getInteger(PipeWindow.class.getName()+".maxSize",16*1024*1024);
+
+    /**
+     * The smallest size that an adaptive window starts with when the {@link Budget} is exhausted.
+     */
+    static final int MIN_SIZE = 64*1024;
+
+    /**
+     * The total size of all the adaptive windows of one channel.
+     */
+    static final long BUDGET = Long.getLong(PipeWindow.class.getName()+".budget",64*1024*1024);
+
+    /**
+     * The number of round trips to wait after a growth of the window did not pay off before trying again.
+     */
+    static final int GROWTH_BACKOFF = 16;
+
     /**
      * Cause of death.
      * If not {@code null}, new commands will not be executed.
@@ -168,10 +203,47 @@ abstract class PipeWindow {
         }
     }
 
+    /**
+     * The memory budget shared by the {@link Real} windows of one channel.
+     */
+    static final class Budget {
+        private final long limit;
+        /**
+         * The windows of the channel, also used as the lock as {@link Channel#getPipeWindow(int)} does.
+         */
+        private final Map<Key, WeakReference<PipeWindow>> windows;
+
+        Budget(long limit, Map<Key, WeakReference<PipeWindow>> windows) {
+            this.limit = limit;
+            this.windows = windows;
+        }
+
+        /**
+         * Returns how much the given window could grow to without exceeding the budget.
+         *
+         * @param self the window that wants to grow, or {@code null} for a window that is being created.
+         */
+        long headroom(@CheckForNull PipeWindow self) {
+            long committed = 0;
+            synchronized (windows) {
+                for (WeakReference<PipeWindow> ref : windows.values()) {
+                    PipeWindow w = ref.get();
+                    if (w instanceof Real && w != self)
+                        committed += w.max();
+                }
+            }
+            return limit - committed;
+        }
+    }
+
     //TODO: Consider rework and cleanup of the fields
     @SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Legacy implementation")
     static class Real extends PipeWindow {
         private final int initial;
+        /**
+         * The current window size. Only changes if we have a {@link #budget}.
+         */
+        private volatile int size;
         private int available;
         /**
          * Total bytes that left our side of the channel.
@@ -187,17 +259,78 @@ abstract class PipeWindow {
          * keeps this object accessible in {@link Channel#pipeWindows}.
          */
         private final Key key;
+        /**
+         * The budget the window size is adapted within, or {@code null} for a fixed size window.
+         */
+        @CheckForNull
+        private final Budget budget;
+        /**
+         * The largest size this window can grow to.
+         */
+        private final int maxSize;
+        /**
+         * Where to report the time spent waiting for the window, if anywhere.
+         */
+        @CheckForNull
+        private final ChannelMetrics metrics;
+        /**
+         * The throttle to tell when a request of the remote peer waits for the window, if any.
+         */
+        @CheckForNull
+        private final RequestThrottle throttle;
+        /**
+         * The value of {@link #written} that the current round trip measurement waits to be acked,
+         * or -1 if there is no measurement in progress.
+         */
+        private long probe = -1;
+        /**
+         * The {@link System#nanoTime()} when the current measurement started.
+         */
+        private long probeStart;
+        /**
+         * The value of {@link #acked} when the current measurement started.
+         */
+        private long probeAcked;
+        /**
+         * Whether the sender had to wait for the window during the current measurement.
+         */
+        private boolean limited;
+        /**
+         * Whether the window was grown and the growth has yet to prove that it increased the delivery rate.
+         */
+        private boolean grown;
+        /**
+         * The delivery rate in bytes per second measured before the window was last grown.
+         */
+        private long rateBeforeGrowth;
+        /**
+         * The number of measurements to wait before trying to grow again.
+         */
+        private int growthBackoff;
 
         Real(Key key, int initialSize) {
+            this(key, initialSize, null, null, null);
+        }
+
+        Real(Key key, int initialSize, @CheckForNull Budget budget, @CheckForNull ChannelMetrics metrics,
+             @CheckForNull RequestThrottle throttle) {
             this.key = key;
+            this.metrics = metrics;
+            this.throttle = throttle;
             this.oid = key.oid;
+            this.budget = budget;
+            if (budget != null) {
+                initialSize = (int) Math.min(initialSize, Math.max(MIN_SIZE, budget.headroom(null)));
+            }
             this.available = initialSize;
             this.initial = initialSize;
+            this.size = initialSize;
+            this.maxSize = Math.max(MAX_SIZE, initialSize);
         }
 
         @Override
         int max() {
-            return initial;
+            return size;
         }
 
         public synchronized void increase(int delta) {
@@ -205,9 +338,61 @@ abstract class PipeWindow {
                 LOGGER.finer(String.format("increase(%d,%d)->%d",oid,delta,delta+available));
             available += delta;
             acked += delta;
+            if (probe >= 0 && acked >= probe) {
+                adapt(System.nanoTime() - probeStart, acked - probeAcked, limited);
+                probe = -1;
+            }
             notifyAll();
         }
 
+        /**
+         * Resizes the window based on a round trip time measurement.
+         *
+         * <p>
+         * While the sender is starved by the window we double it and keep doubling for as long as it results in
+         * a higher delivery rate, i.e. until the window covers the bandwidth-delay product of the link. When a
+         * growth does not pay off, the additional bytes in flight would just queue up on the receiver, so the
+         * growth is reverted and not retried for a while. The window never shrinks below its initial size.
+         *
+         * @param rtt       the time it took for the probed bytes to be acked, in nanoseconds.
+         * @param delivered the number of bytes acked during that time.
+         * @param limited   whether the sender had to wait for the window during that time.
+         */
+        /*package*/ synchronized void adapt(long rtt, long delivered, boolean limited) {
+            if (!limited) {
+                // the sender is not sending fast enough to tell anything about the link
+                return;
+            }
+            long rate = delivered * TimeUnit.SECONDS.toNanos(1) / Math.max(rtt, 1);
+            int target = size;
+            boolean grow = false;
+            if (grown) {
+                if (rate >= rateBeforeGrowth + rateBeforeGrowth / 4) {
+                    rateBeforeGrowth = rate;
+                    grow = true;
+                } else {
+                    target = Math.max(initial, size / 2);
+                    growthBackoff = GROWTH_BACKOFF;
+                }
+            } else if (growthBackoff > 0) {
+                growthBackoff--;
+            } else {
+                rateBeforeGrowth = rate;
+                grow = true;
+            }
+            if (grow) {
+                target = (int) Math.min(Math.min((long) size * 2, maxSize), Math.max(size, budget.headroom(this)));
+            }
+            grown = target > size;
+            if (target != size) {
+                if (LOGGER.isLoggable(FINE))
+                    LOGGER.fine(String.format("resize(%d,%d)->%d rtt=%dus rate=%dKB/s",
+                            oid, size, target, TimeUnit.NANOSECONDS.toMicros(rtt), rate / 1024));
+                available += target - size;
+                size = target;
+            }
+        }
+
         public synchronized int peek() {
             return available;
         }
@@ -221,9 +406,20 @@ abstract class PipeWindow {
                 if (available>=min)
                     return available;
 
-                while (available<min) {
-                    wait(100);
-                    checkDeath();
+                limited = true;
+                long start = System.nanoTime();
+                // the ack may depend on a request that the throttle holds back
+                Request<?,?> blocked = throttle != null ? throttle.onBlocked() : null;
+                try {
+                    while (available<min) {
+                        wait(100);
+                        checkDeath();
+                    }
+                } finally {
+                    if (throttle != null)
+                        throttle.onUnblocked(blocked);
+                    if (metrics != null)
+                        metrics.onPipeWindowStall(System.nanoTime() - start);
                 }
 
                 return available;
@@ -235,6 +431,13 @@ abstract class PipeWindow {
                 LOGGER.finer(String.format("decrease(%d,%d)->%d",oid,delta,available-delta));
             available -= delta;
             written+= delta;
+            if (budget != null && probe < 0) {
+                // measure how long it takes for everything written so far to be acked
+                probe = written;
+                probeStart = System.nanoTime();
+                probeAcked = acked;
+                limited = false;
+            }
             /*
             HUDSON-7745 says the following assertion fails, which AFAICT is only possible if multiple
             threads write to OutputStream concurrently, but that doesn't happen in most of the situations, so
@@ -219,11 +219,11 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
     /**
      * {@link Command} for sending bytes.
      */
-    private static final class Chunk extends Command {
-        private final int oid;
-        private final int ioId;
-        private final int requestId = Request.getCurrentRequestId();
-        private final byte[] buf;
+    /*package*/ static final class Chunk extends Command {
+        /*package*/ final int oid;
+        /*package*/ final int ioId;
+        /*package*/ final int requestId;
+        /*package*/ final byte[] buf;
 
         public Chunk(int ioId, int oid, byte[] buf, int start, int len) {
             // to improve the performance when a channel is used purely as a pipe,
@@ -232,6 +232,7 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
             super(false);
             this.ioId = ioId;
             this.oid = oid;
+            this.requestId = Request.getCurrentRequestId();
             if (start==0 && len==buf.length)
                 this.buf = buf;
             else {
@@ -240,6 +241,17 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
             }
         }
 
+        /**
+         * Recreates a command decoded by {@link CommandCodec}.
+         */
+        Chunk(int oid, int ioId, int requestId, byte[] buf) {
+            super(false);
+            this.oid = oid;
+            this.ioId = ioId;
+            this.requestId = requestId;
+            this.buf = buf;
+        }
+
         @Override
         protected void execute(final Channel channel) throws ExecutionException {
             final OutputStream os;
@@ -291,15 +303,23 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
     /**
      * {@link Command} for flushing.
      */
-    private static final class Flush extends Command {
-        private final int oid;
-        private final int requestId = Request.getCurrentRequestId();
-        private final int ioId;
+    /*package*/ static final class Flush extends Command {
+        /*package*/ final int oid;
+        /*package*/ final int requestId;
+        /*package*/ final int ioId;
 
         public Flush(int ioId, int oid) {
+            this(oid, ioId, Request.getCurrentRequestId());
+        }
+
+        /**
+         * Recreates a command decoded by {@link CommandCodec}.
+         */
+        Flush(int oid, int ioId, int requestId) {
             super(false);
-            this.ioId = ioId;
             this.oid = oid;
+            this.ioId = ioId;
+            this.requestId = requestId;
         }
 
         @Override
@@ -329,15 +349,24 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
      * <p>
      * Unlike {@link EOF}, this just unexports but not closes the stream.
      */
-    private static class Unexport extends Command {
-        private final int oid;
-        private final int ioId;
+    /*package*/ static class Unexport extends Command {
+        /*package*/ final int oid;
+        /*package*/ final int ioId;
 
         public Unexport(int ioId, int oid) {
             this.ioId = ioId;
             this.oid = oid;
         }
 
+        /**
+         * Recreates a command decoded by {@link CommandCodec}.
+         */
+        Unexport(int ioId, int oid, boolean recordCreatedAt) {
+            super(recordCreatedAt);
+            this.ioId = ioId;
+            this.oid = oid;
+        }
+
         protected void execute(final Channel channel) {
             channel.pipeWriter.submit(ioId,new Runnable() {
                 public void run() {
@@ -356,18 +385,30 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
     /**
      * {@link Command} for sending EOF.
      */
-    private static final class EOF extends Command {
-        private final int oid;
-        private final int requestId = Request.getCurrentRequestId();
-        private final int ioId;
-        private final Throwable error;
+    /*package*/ static final class EOF extends Command {
+        /*package*/ final int oid;
+        /*package*/ final int requestId;
+        /*package*/ final int ioId;
+        /*package*/ final Throwable error;
 
         public EOF(int ioId, int oid, Throwable error) {
             this.ioId = ioId;
             this.oid = oid;
+            this.requestId = Request.getCurrentRequestId();
             this.error = error;
         }
 
+        /**
+         * Recreates a command decoded by {@link CommandCodec}.
+         */
+        EOF(int oid, int ioId, int requestId) {
+            super(false);
+            this.oid = oid;
+            this.ioId = ioId;
+            this.requestId = requestId;
+            this.error = null;
+        }
+
 
         protected void execute(final Channel channel) {
             final OutputStream os = (OutputStream) channel.getExportedObjectOrNull(oid);
@@ -400,17 +441,17 @@ final class ProxyOutputStream extends OutputStream implements ErrorPropagatingOu
     /**
      * {@link Command} to notify the sender that it can send some more data.
      */
-    private static class Ack extends Command {
+    /*package*/ static class Ack extends Command {
         /**
          * The oid of the {@link OutputStream} on the receiver side of the data.
          */
-        private final int oid;
+        /*package*/ final int oid;
         /**
          * The number of bytes that were freed up.
          */
-        private final int size;
+        /*package*/ final int size;
 
-        private Ack(int oid, int size) {
+        /*package*/ Ack(int oid, int size) {
             super(false); // performance optimization
             this.oid = oid;
             this.size = size;
@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -106,6 +107,13 @@ final class RemoteClassLoader extends URLClassLoader {
      */
     private final Map<String,ClassReference> prefetchedClasses = Collections.synchronizedMap(new HashMap<String,ClassReference>());
 
+    /**
+     * Classes loaded from the remote side through this classloader, recorded for the next session.
+     * {@code null} until the first class is loaded, or if the channel has no {@link ClassImageCache}.
+     */
+    @CheckForNull
+    private volatile ClassImageCache.Trace trace;
+
     /**
      * Creates a remotable classloader
      * @param parent Parent classloader. Can be {@code null} if there is no delegating classloader
@@ -187,8 +195,15 @@ final class RemoteClassLoader extends URLClassLoader {
                     then the class file image is wasted.)
                  */
                 long startTime = System.nanoTime();
+                final ClassImageCache classImageCache = channel.getClassImageCache();
+                if (classImageCache != null) {
+                    classImageCache.announce(channel);
+                }
                 ClassReference cr;
                 if (channel.remoteCapability.supportsPrefetch()) {
+                    if (trace == null && classImageCache != null) {
+                        startTrace(channel, classImageCache, name);
+                    }
                     cr = prefetchedClasses.remove(name);
                     if (cr == null) {
                         LOGGER.log(Level.FINER, "fetch3({0})", name);
@@ -207,48 +222,7 @@ final class RemoteClassLoader extends URLClassLoader {
                                     }
 
                                     Map<String,ClassFile2> all = proxy.fetch3(name);
-                                    synchronized (prefetchedClasses) {
-                                        /**
-                                         * Converts {@link ClassFile2} to {@link ClassReference} with minimal
-                                         * proxy creation. This creates a reference to {@link ClassLoader}, so
-                                         * it shoudn't be kept beyond the scope of single {@link #findClass(String)}  call.
-                                         */
-                                        class ClassReferenceBuilder {
-                                            private final Map<Integer,ClassLoader> classLoaders = new HashMap<Integer, ClassLoader>();
-
-                                            ClassReference toRef(ClassFile2 cf) {
-                                                int n = cf.classLoader;
-
-                                                ClassLoader cl = classLoaders.get(n);
-                                                if (cl==null)
-                                                     classLoaders.put(n,cl = channel.importedClassLoaders.get(n));
-
-                                                return new ClassReference(cl,cf.image);
-                                            }
-                                        }
-                                        ClassReferenceBuilder crf = new ClassReferenceBuilder();
-
-                                        for (Map.Entry<String,ClassFile2> entry : all.entrySet()) {
-                                            String cn = entry.getKey();
-                                            ClassFile2 cf = entry.getValue();
-                                            ClassReference ref = crf.toRef(cf);
-
-                                            if (cn.equals(name)) {
-                                                cr = ref;
-                                            } else {
-                                                // where we remember the prefetch is sensitive to who references it,
-                                                // because classes need not be transitively visible in Java
-                                                if (cf.referer!=null)
-                                                    ref.rememberIn(cn, crf.toRef(cf.referer).classLoader);
-                                                else
-                                                    ref.rememberIn(cn, this);
-
-                                                LOGGER.log(Level.FINER, "prefetch {0} -> {1}", new Object[]{name, cn});
-                                            }
-
-                                            ref.rememberIn(cn, ref.classLoader);
-                                        }
-                                    }
+                                    cr = rememberClassFiles(channel, name, all);
                                     break;
                                 } catch (RemotingSystemException x) {
                                     if (x.getCause() instanceof InterruptedException) {
@@ -280,6 +254,10 @@ final class RemoteClassLoader extends URLClassLoader {
                 }
                 channel.classLoadingTime.addAndGet(System.nanoTime()-startTime);
                 channel.classLoadingCount.incrementAndGet();
+                final ClassImageCache.Trace trace = this.trace;
+                if (trace != null) {
+                    trace.add(name);
+                }
 
                 ClassLoader cl = cr.classLoader;
                 if (cl instanceof RemoteClassLoader) {
@@ -304,7 +282,11 @@ final class RemoteClassLoader extends URLClassLoader {
                                     Future<byte[]> img = cr.classImage.resolve(channel, name.replace('.', '/') + ".class");
                                     if (img.isDone()) {
                                         try {
-                                            return rcl.loadClassFile(name, img.get());
+                                            byte[] bytes = img.get();
+                                            if (classImageCache != null && isCacheable(cr.classImage)) {
+                                                classImageCache.put(bytes);
+                                            }
+                                            return rcl.loadClassFile(name, bytes);
                                         } catch (ExecutionException x) {
                                             // failure to retrieve a jar shouldn't fail the classloading
                                         }
@@ -312,7 +294,11 @@ final class RemoteClassLoader extends URLClassLoader {
 
                                     // if the load activity is still pending, or if the load had failed,
                                     // fetch just this class file
-                                    return rcl.loadClassFile(name, proxy.fetch(name));
+                                    byte[] bytes = proxy.fetch(name);
+                                    if (classImageCache != null && isCacheable(cr.classImage)) {
+                                        classImageCache.put(bytes);
+                                    }
+                                    return rcl.loadClassFile(name, bytes);
                                 } catch (IOException x) {
                                     throw new ClassNotFoundException(name,x);
                                 } catch (InterruptedException x) {
@@ -345,6 +331,104 @@ final class RemoteClassLoader extends URLClassLoader {
         }
     }
 
+    /**
+     * Remembers the class files sent by the other side, so that the classes can be loaded without another round trip.
+     *
+     * @param name
+     *      Name of the class being loaded, or {@code null} if all the class files are prefetched.
+     * @return
+     *      Reference to the class being loaded, or {@code null} if it is not among the class files.
+     */
+    @CheckForNull
+    private ClassReference rememberClassFiles(final Channel channel, @CheckForNull String name, Map<String,ClassFile2> all) {
+        ClassReference cr = null;
+        synchronized (prefetchedClasses) {
+            /**
+             * Converts {@link ClassFile2} to {@link ClassReference} with minimal
+             * proxy creation. This creates a reference to {@link ClassLoader}, so
+             * it shoudn't be kept beyond the scope of single {@link #findClass(String)}  call.
+             */
+            class ClassReferenceBuilder {
+                private final Map<Integer,ClassLoader> classLoaders = new HashMap<Integer, ClassLoader>();
+
+                ClassReference toRef(ClassFile2 cf) {
+                    int n = cf.classLoader;
+
+                    ClassLoader cl = classLoaders.get(n);
+                    if (cl==null)
+                         classLoaders.put(n,cl = channel.importedClassLoaders.get(n));
+
+                    return new ClassReference(cl,cf.image);
+                }
+            }
+            ClassReferenceBuilder crf = new ClassReferenceBuilder();
+
+            for (Map.Entry<String,ClassFile2> entry : all.entrySet()) {
+                String cn = entry.getKey();
+                ClassFile2 cf = entry.getValue();
+                ClassReference ref = crf.toRef(cf);
+
+                if (cn.equals(name)) {
+                    cr = ref;
+                } else {
+                    // where we remember the prefetch is sensitive to who references it,
+                    // because classes need not be transitively visible in Java
+                    if (cf.referer!=null)
+                        ref.rememberIn(cn, crf.toRef(cf.referer).classLoader);
+                    else
+                        ref.rememberIn(cn, this);
+
+                    LOGGER.log(Level.FINER, "prefetch {0} -> {1}", new Object[]{name, cn});
+                }
+
+                ref.rememberIn(cn, ref.classLoader);
+            }
+        }
+        return cr;
+    }
+
+    /**
+     * Starts recording the classes loaded through this classloader, and prefetches in bulk
+     * the classes it loaded in the previous session.
+     *
+     * @param name
+     *      The first class loaded from the other side, which identifies this classloader across sessions.
+     */
+    private void startTrace(Channel channel, @Nonnull ClassImageCache classImageCache, String name) {
+        ClassImageCache.Trace t;
+        synchronized (this) {
+            if (trace != null) {
+                return;
+            }
+            trace = t = classImageCache.openTrace(channel, name);
+        }
+        String[] expected = t.getExpected();
+        if (expected.length == 0 || !channel.remoteCapability.supportsBulkPrefetch()) {
+            return;
+        }
+        try {
+            long startTime = System.nanoTime();
+            Map<String,ClassFile2> all = proxy.fetchAll(expected);
+            rememberClassFiles(channel, null, all);
+            LOGGER.log(Level.FINE, "Prefetched {0} of {1} classes recorded after {2} in {3}ms",
+                    new Object[] {all.size(), expected.length, name, (System.nanoTime() - startTime) / 1000000});
+        } catch (RemotingSystemException x) {
+            if (x.getCause() instanceof InterruptedException) {
+                // let the regular class loading deal with it
+                Thread.currentThread().interrupt();
+            } else {
+                LOGGER.log(Level.FINE, "Failed to prefetch the classes recorded after " + name, x);
+            }
+        }
+    }
+
+    /**
+     * Does the class file image belong to the {@link ClassImageCache}, as opposed to the {@link JarCache}?
+     */
+    private static boolean isCacheable(ResourceImageRef image) {
+        return image.getClass() == ResourceImageDirect.class || image instanceof ResourceImageInCache;
+    }
+
     /**
      * Intercept {@link RemoteClassLoader#findClass(String)} to allow unittests to be written.
      *
@@ -735,6 +819,18 @@ final class RemoteClassLoader extends URLClassLoader {
          */
         @Nonnull
         ResourceFile[] getResources2(String name) throws IOException;
+
+    // the rest is added as a part of Capability.supportsBulkPrefetch()
+        /**
+         * {@link #fetch3(String)} for many classes at once, typically the ones the caller expects
+         * to load from a previous session.
+         *
+         * @return
+         *      Class files of the given classes. Classes that cannot be loaded are left out.
+         * @see Capability#supportsBulkPrefetch()
+         * @since 3.37
+         */
+        Map<String,ClassFile2> fetchAll(String[] classNames);
     }
 
     /**
@@ -786,6 +882,12 @@ final class RemoteClassLoader extends URLClassLoader {
          * Class names that we've already sent to the other side as pre-fetch.
          */
         private final Set<String> prefetched = new HashSet<String>();
+        /**
+         * Checksums of the images of the classes served outside of jars, so that they are hashed only once.
+         * The classes are weakly referenced, so this does not keep their class loaders alive.
+         */
+        private static final Map<Class<?>, Checksum> CLASS_IMAGE_CHECKSUMS =
+                Collections.synchronizedMap(new WeakHashMap<Class<?>, Checksum>());
 
         public ClassLoaderProxy(@Nonnull ClassLoader cl, Channel channel) {
             assert cl != null;
@@ -879,12 +981,32 @@ final class RemoteClassLoader extends URLClassLoader {
                     // we determined that 'c' isn't in a jar file
                     LOGGER.log(FINE,c+" isn't in a jar file: "+urlOfClassFile,e);
                 }
-                return fetch2(className).upconvert(referer,c,urlOfClassFile);
+                ClassFile cf = fetch2(className);
+                if (channel.jarLoader.hasPresentOnRemote()) {
+                    Checksum sum = checksumOf(c, cf.classImage);
+                    if (channel.jarLoader.isPresentOnRemote(sum)) {
+                        // the other side has this very image in its ClassImageCache
+                        return new ClassFile2(cf.classLoader, new ResourceImageInCache(sum), referer, c, urlOfClassFile);
+                    }
+                }
+                return cf.upconvert(referer,c,urlOfClassFile);
             } catch (IOException e) {
                 throw new ClassNotFoundException("Failed to load " + className + " via " + referrerClass, e);
             }
         }
 
+        /**
+         * Gets the checksum of the image of a class that is not in a jar, computing it only the first time.
+         */
+        private static Checksum checksumOf(Class<?> c, byte[] classImage) {
+            Checksum sum = CLASS_IMAGE_CHECKSUMS.get(c);
+            if (sum == null) {
+                sum = Checksum.forBytes(classImage);
+                CLASS_IMAGE_CHECKSUMS.put(c, sum);
+            }
+            return sum;
+        }
+
         public Map<String,ClassFile2> fetch3(String className) throws ClassNotFoundException {
             ClassFile2 cf = fetch4(className,null);
             Map<String,ClassFile2> all = new HashMap<String,ClassFile2>();
@@ -916,6 +1038,25 @@ final class RemoteClassLoader extends URLClassLoader {
             return all;
         }
 
+        public Map<String,ClassFile2> fetchAll(String[] classNames) {
+            Map<String,ClassFile2> all = new HashMap<String,ClassFile2>();
+            for (String className : classNames) {
+                synchronized (prefetched) {
+                    if (!prefetched.add(className)) {
+                        continue;
+                    }
+                }
+                try {
+                    all.put(className, fetch4(className,null));
+                } catch (ClassNotFoundException x) {
+                    // the class might have gone away since it was last loaded
+                } catch (LinkageError x) {
+                    // maybe this class won't be actually used.
+                }
+            }
+            return all;
+        }
+
         @CheckForNull
         private URL getResourceURL(String name) throws IOException {
             URL resource = cl.getResource(name);
@@ -1078,6 +1219,10 @@ final class RemoteClassLoader extends URLClassLoader {
             return proxy.fetch3(className);
         }
 
+        public Map<String,ClassFile2> fetchAll(String[] classNames) {
+            return proxy.fetchAll(classNames);
+        }
+
         @Override
         public byte[] getResource(String name) throws IOException {
             return proxy.getResource(name);
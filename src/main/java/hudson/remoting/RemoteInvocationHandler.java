@@ -39,11 +39,14 @@ import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -54,6 +57,8 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.jenkinsci.remoting.RoleChecker;
+import org.jenkinsci.remoting.util.ListenableFuture;
+import org.jenkinsci.remoting.util.SettableFuture;
 
 /**
  * Sits behind a proxy object and implements the proxy logic.
@@ -300,6 +305,81 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
         }
     }
 
+    /**
+     * Invokes the method on the remote object without waiting for the result.
+     *
+     * <p>
+     * No thread is tied up while the call is in flight: the result is deserialized and handed to the returned
+     * future on the {@link Channel#executor} once the response arrives. Cancelling the future cancels the call.
+     *
+     * @see AsyncProxy
+     */
+    @Nonnull
+    /*package*/ ListenableFuture<Object> invokeAsync(@Nonnull Method method, @Nullable Object[] args) {
+        final SettableFuture<Object> result = SettableFuture.create();
+        try {
+            final Channel channel = channelOrFail();
+            if (args == null) args = EMPTY_ARRAY;
+            Class<?> dc = method.getDeclaringClass();
+            final ClassLoader cl = userProxy ? dc.getClassLoader() : null;
+            final RPCRequest req = userSpace
+                    ? new UserRPCRequest(oid, method, args, cl, recordCreatedAt)
+                    : new RPCRequest(oid, method, args, cl, recordCreatedAt);
+            final Request<?, ?> sent;
+            final java.util.concurrent.Future<?> response;
+            if (userProxy) {
+                if (channel.isClosingOrClosed()) {
+                    throw new ChannelClosedException(channel, "Remote call on " + channel.getName() + " failed. "
+                            + "The channel is closing down or has closed down", channel.getCloseRequestCause());
+                }
+                UserRequest<Serializable, Throwable> ur = new UserRequest<Serializable, Throwable>(channel, req);
+                sent = ur;
+                response = ur.callAsync(channel);
+            } else {
+                sent = req;
+                response = req.callAsync(channel);
+            }
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isCancelled()) {
+                        response.cancel(true);
+                    }
+                }
+            }, DIRECT_EXECUTOR);
+            sent.onCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    Runnable deliver = new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Object r = response.get();
+                                if (r instanceof UserRequest.ResponseToUserRequest) {
+                                    r = ((UserRequest.ResponseToUserRequest<?, ?>) r).retrieve(channel, UserRequest.getClassLoader(req));
+                                }
+                                result.set(r);
+                            } catch (ExecutionException e) {
+                                result.setException(e.getCause());
+                            } catch (Throwable t) {
+                                result.setException(t);
+                            }
+                        }
+                    };
+                    try {
+                        // deserializing the result may need to load classes from the other side, so not on this thread
+                        channel.executor.execute(deliver);
+                    } catch (RejectedExecutionException e) {
+                        result.setException(e);
+                    }
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            result.setException(e);
+        }
+        return result;
+    }
+
     private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
         ois.defaultReadObject();
         if (goingHome) {
@@ -398,6 +478,34 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
                 }
             }
         }
+
+        /**
+         * Sends a single {@link UnexportBatchCommand} for the given references, which all belong to the same
+         * {@link Channel}, and turns their {@link #cleanup()} into a no-op.
+         * @throws IOException if the {@link UnexportBatchCommand} could not be sent.
+         */
+        private static void cleanup(Channel channel, List<PhantomReferenceImpl> refs) throws IOException {
+            int[] oids = new int[refs.size()];
+            Throwable[] origins = null;
+            for (int i = 0; i < oids.length; i++) {
+                PhantomReferenceImpl ref = refs.get(i);
+                oids[i] = ref.oid;
+                if (ref.origin != null) {
+                    if (origins == null) {
+                        origins = new Throwable[oids.length];
+                    }
+                    origins[i] = ref.origin;
+                }
+            }
+            try {
+                channel.send(new UnexportBatchCommand(oids, origins));
+            } finally {
+                for (PhantomReferenceImpl ref : refs) {
+                    ref.origin = null;
+                    ref.channel = null;
+                }
+            }
+        }
     }
 
     /**
@@ -465,6 +573,13 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
          * should have a lifetime of approx 15 minutes.
          */
         private static final double m15Alpha = 1.0 - Math.exp( -measureInterval * 1.0 / TimeUnit.MINUTES.toNanos(15));
+        /**
+         * Whether the references collected within one sweep are unexported with one {@link UnexportBatchCommand}
+         * per {@link Channel}, on channels whose remote side understands it.
+         *
+         * @since 3.37
+         */
+        private static final boolean batchCommands = !Boolean.getBoolean(Unexporter.class.getName() + ".disableBatchCommands");
         /**
          * Our executor service, we use at most one thread for all {@link Channel} instances in the current classloader.
          */
@@ -526,6 +641,23 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
          * the iterative updating cost while maximizing the precision.
          */
         private double tVarTimesCount = 0.0;
+        /**
+         * The number of batches processed in the current measurement.
+         */
+        private long batches = 0;
+        /**
+         * The largest batch processed in the current measurement. A full batch means the garbage collector is
+         * queueing references faster than we process them.
+         */
+        private int maxBatch = 0;
+        /**
+         * The average number of references per batch in the last measurement.
+         */
+        private double batchAvg = 0.0;
+        /**
+         * The largest batch of the last measurement.
+         */
+        private int batchMax = 0;
         /**
          * When we started the current measurement.
          */
@@ -582,6 +714,7 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
             try {
                 long nextSweep = System.nanoTime() + sweepInterval;
                 PhantomReferenceImpl[] batch = new PhantomReferenceImpl[batchSize];
+                Channel.Ref[] channelRefs = new Channel.Ref[batchSize];
                 while (!referenceLists.isEmpty()) {
                     if (System.nanoTime() - nextMeasure > 0) {
                         updateStats();
@@ -603,9 +736,20 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
                                     batch[batchIndex++] = (PhantomReferenceImpl) ref;
                                 }
                             }
+                            if (batchIndex > 0) {
+                                batches++;
+                                maxBatch = Math.max(maxBatch, batchIndex);
+                            }
+                            for (int index = 0; index < batchIndex; index++) {
+                                channelRefs[index] = batch[index].channel;
+                            }
+                            if (batchCommands && batchIndex > 1) {
+                                sendBatches(batch, batchIndex);
+                            }
                             for (int index = 0; index < batchIndex; index++) {
                                 count++;
-                                final Channel.Ref channelRef = batch[index].channel;
+                                final Channel.Ref channelRef = channelRefs[index];
+                                channelRefs[index] = null;
                                 try {
                                     batch[index].cleanup();
                                 } catch (ChannelClosedException e) {
@@ -660,11 +804,55 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
             }
         }
 
+        /**
+         * Groups the references by {@link Channel} and sends one {@link UnexportBatchCommand} per group to
+         * the channels that support it. The references taken care of are left with a no-op
+         * {@link PhantomReferenceImpl#cleanup()}; the others get unexported one by one as before.
+         *
+         * @param batch the references.
+         * @param size the number of references in the batch.
+         */
+        private static void sendBatches(PhantomReferenceImpl[] batch, int size) {
+            Map<Channel, List<PhantomReferenceImpl>> byChannel = new IdentityHashMap<>();
+            for (int index = 0; index < size; index++) {
+                Channel.Ref channelRef = batch[index].channel;
+                Channel channel = channelRef == null ? null : channelRef.channel();
+                if (channel == null || channel.isClosingOrClosed()
+                        || !channel.remoteCapability.supportsBatchUnexport()) {
+                    continue;
+                }
+                List<PhantomReferenceImpl> refs = byChannel.get(channel);
+                if (refs == null) {
+                    refs = new ArrayList<>();
+                    byChannel.put(channel, refs);
+                }
+                refs.add(batch[index]);
+            }
+            for (Map.Entry<Channel, List<PhantomReferenceImpl>> entry : byChannel.entrySet()) {
+                List<PhantomReferenceImpl> refs = entry.getValue();
+                if (refs.size() < 2) {
+                    continue;
+                }
+                try {
+                    PhantomReferenceImpl.cleanup(entry.getKey(), refs);
+                } catch (ChannelClosedException e) {
+                    // ignore, the cleanup is a no-op
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, String.format("Couldn't clean up %d oids from %s",
+                            refs.size(), entry.getKey()), e);
+                }
+            }
+        }
+
         private void updateStats() {
             long measureDuration = System.nanoTime() - countStart;
             double instantRate = count * NANOSECONDS_PER_SECOND / measureDuration;
             countStart = System.nanoTime();
             nextMeasure = countStart + measureInterval;
+            batchAvg = batches == 0 ? 0.0 : count * 1.0 / batches;
+            batchMax = maxBatch;
+            batches = 0;
+            maxBatch = 0;
             count = 0;
             if (tCount == 0) {
                 m1Avg = m5Avg = m15Avg = tAvg = instantRate;
@@ -701,9 +889,11 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
                 logger.log(targetLevel, "rate(1min) = {0,number,0.0}±{1,number,0.0}/sec; "
                                 + "rate(5min) = {2,number,0.0}±{3,number,0.0}/sec; "
                                 + "rate(15min) = {4,number,0.0}±{5,number,0.0}/sec; "
-                                + "rate(total) = {6,number,0.0}±{7,number,0.0}/sec; N = {8,number}",
+                                + "rate(total) = {6,number,0.0}±{7,number,0.0}/sec; N = {8,number}; "
+                                + "batch(avg) = {9,number,0.0}; batch(max) = {10,number}/{11,number}",
                         new Object[]{
-                                m1Avg, m1Std, m5Avg, m5Std, m15Avg, m15Std, tAvg, tStd, tCount
+                                m1Avg, m1Std, m5Avg, m5Std, m15Avg, m15Std, tAvg, tStd, tCount,
+                                batchAvg, batchMax, batchSize
                         });
             }
             if (tCount < 10L) {
@@ -863,18 +1053,18 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
          * Null if deserialized historically.
          */
         @CheckForNull
-        private final String declaringClassName;
+        /*package*/ final String declaringClassName;
 
         protected final String methodName;
         /**
          * Type name of the arguments to invoke. They are names because
          * neither {@link Method} nor {@link Class} is serializable.
          */
-        private final String[] types;
+        /*package*/ final String[] types;
         /**
          * Arguments to invoke the method with.
          */
-        private final Object[] arguments;
+        /*package*/ final Object[] arguments;
 
         /**
          * If this is used as {@link Callable}, we need to remember what classloader
@@ -899,6 +1089,18 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
             assert types.length == arguments.length;
         }
 
+        /**
+         * Recreates a request decoded by {@link CommandCodec}.
+         */
+        RPCRequest(int id, int lastIoId, int oid, @CheckForNull String declaringClassName, String methodName, String[] types, Object[] arguments) {
+            super(id, lastIoId);
+            this.oid = oid;
+            this.declaringClassName = declaringClassName;
+            this.methodName = methodName;
+            this.types = types;
+            this.arguments = arguments;
+        }
+
         public Serializable call() throws Throwable {
             return perform(getChannelOrFail());
         }
@@ -991,7 +1193,7 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
      * this can be used to send a method call to user-level objects, and
      * classes for the parameters and the return value are sent remotely if needed.
      */
-    private static class UserRPCRequest extends RPCRequest {
+    /*package*/ static class UserRPCRequest extends RPCRequest {
 
         private static final long serialVersionUID = -9185841650347902580L;
 
@@ -999,6 +1201,13 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
             super(oid, m, arguments, cl, recordCreatedAt);
         }
 
+        /**
+         * Recreates a request decoded by {@link CommandCodec}.
+         */
+        UserRPCRequest(int id, int lastIoId, int oid, @CheckForNull String declaringClassName, String methodName, String[] types, Object[] arguments) {
+            super(id, lastIoId, oid, declaringClassName, methodName, types, arguments);
+        }
+
         // Same implementation as UserRequest
         @Override
         public void checkIfCanBeExecutedOnChannel(Channel channel) throws IOException {
@@ -1014,4 +1223,14 @@ final class RemoteInvocationHandler implements InvocationHandler, Serializable {
     }
 
     private static final Object[] EMPTY_ARRAY = new Object[0];
+
+    /**
+     * Runs cheap callbacks on the thread that triggers them.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@Nonnull Runnable command) {
+            command.run();
+        }
+    };
 }
@@ -26,15 +26,19 @@ package hudson.remoting;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Request/response pattern over {@link Channel}, the layer-1 service.
@@ -68,7 +72,7 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
      * Uniquely identifies this request.
      * Used for correlation between request and response.
      */
-    private final int id;
+    /*package*/ final int id;
 
     /**
      * Set by the sender to the ID of the last I/O issued from the sender thread.
@@ -77,7 +81,7 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
      * <p>
      * If the sender doesn't support this, the receiver will see 0.
      */
-    private int lastIoId;
+    /*package*/ int lastIoId;
 
     private volatile Response<RSP,EXC> response;
 
@@ -88,6 +92,18 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
      */
     volatile transient Future<?> future;
 
+    /**
+     * Whether this request counts towards the {@link RequestThrottle} of the channel executing it.
+     * Guarded by that throttle.
+     */
+    transient boolean throttled;
+
+    /**
+     * Number of threads of this request that wait for the remote peer, see {@link RequestThrottle#onBlocked()}.
+     * Guarded by the throttle of the channel executing it.
+     */
+    transient int blockedThreads;
+
     /**
      * Set by {@link Response} to point to the I/O ID issued from the other side that this request needs to
      * synchronize with, before declaring the call to be complete.
@@ -103,6 +119,13 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
     @Deprecated
     /*package*/ volatile transient Future<?> lastIo;
 
+    /**
+     * Registered by {@link #onCompletion(Runnable)}; only ever set before the response arrives.
+     */
+    @GuardedBy("this")
+    @Nullable
+    private transient Runnable[] completionCallbacks;
+
     Request() {
         this(true);
     }
@@ -115,6 +138,15 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
         }
     }
 
+    /**
+     * Recreates a request decoded by {@link CommandCodec}.
+     */
+    Request(int id, int lastIoId) {
+        super(false);
+        this.id = id;
+        this.lastIoId = lastIoId;
+    }
+
     /**
      * Checks if the request can be executed on the channel.
      *
@@ -148,19 +180,21 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
         checkIfCanBeExecutedOnChannel(channel);
         lastIoId = channel.lastIoId();
 
-        // Channel.send() locks channel, and there are other call sequences
-        // (  like Channel.terminate()->Request.abort()->Request.onCompleted()  )
-        // that locks channel -> request, so lock objects in the same order
-        synchronized(channel) {
-            synchronized(this) {
-                response=null;
+        synchronized(this) {
+            response=null;
 
-                channel.pendingCalls.put(id,this);
-                startTime = System.nanoTime();
-                channel.send(this);
-            }
+            channel.pendingCalls.put(id,this);
+            startTime = System.nanoTime();
         }
+        // Channel.send() locks channel, and there are other call sequences
+        // (  like Channel.terminate()->Request.abort()->Request.onCompleted()  )
+        // that locks channel -> request, so do not hold the request lock while sending.
+        // A response that arrives before we start waiting is picked up by the loop below.
+        channel.send(this);
 
+        // if the thread is executing a request from the other side, the response may depend on
+        // a request that the throttle holds back, so let that one run
+        Request<?,?> blocked = channel.throttle.onBlocked();
         try {
             synchronized(this) {
                 // set the thread name to represent the channel we are blocked on,
@@ -213,6 +247,8 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
                     channel.send(new Cancel(id));   // only send a cancel if we can, or else ChannelClosedException will mask the original cause
             }
             throw e;
+        } finally {
+            channel.throttle.onUnblocked(blocked);
         }
     }
 
@@ -265,6 +301,7 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
             }
 
             public RSP get() throws InterruptedException, ExecutionException {
+                Request<?,?> blocked = response == null ? channel.throttle.onBlocked() : null;
                 synchronized(Request.this) {
                     String oldThreadName = Thread.currentThread().getName();
                     Thread.currentThread().setName(oldThreadName+" for "+channel.getName()+" id="+id);
@@ -287,6 +324,7 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
                         throw e;
                     } finally {
                         Thread.currentThread().setName(oldThreadName);
+                        channel.throttle.onUnblocked(blocked);
                     }
 
                     if(response.exception!=null)
@@ -297,20 +335,25 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
             }
 
             public RSP get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                Request<?,?> blocked = response == null ? channel.throttle.onBlocked() : null;
                 synchronized (Request.this) {
                     // wait until the response arrives
                     // Note that the wait method can wake up for no reasons at all (AKA spurious wakeup),
                     long now = System.nanoTime();
                     long end = now + unit.toNanos(timeout);
-                    while (response == null && (end - now > 0L)) {
-                        if (isCancelled()) {
-                            throw new CancellationException();
-                        }
-                        if (channel.isInClosed()) {
-                            throw new ExecutionException(new RequestAbortedException(null));
+                    try {
+                        while (response == null && (end - now > 0L)) {
+                            if (isCancelled()) {
+                                throw new CancellationException();
+                            }
+                            if (channel.isInClosed()) {
+                                throw new ExecutionException(new RequestAbortedException(null));
+                            }
+                            Request.this.wait(Math.min(30*1000,Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - now))));
+                            now = System.nanoTime();
                         }
-                        Request.this.wait(Math.min(30*1000,Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - now))));
-                        now = System.nanoTime();
+                    } finally {
+                        channel.throttle.onUnblocked(blocked);
                     }
                     if (response == null)
                         throw new TimeoutException();
@@ -328,9 +371,48 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
     /**
      * Called by the {@link Response} when we received it.
      */
-    /*package*/ synchronized void onCompleted(Response<RSP,EXC> response) {
-        this.response = response;
-        notifyAll();
+    /*package*/ void onCompleted(Response<RSP,EXC> response) {
+        Runnable[] callbacks;
+        synchronized (this) {
+            this.response = response;
+            notifyAll();
+            callbacks = completionCallbacks;
+            completionCallbacks = null;
+        }
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Completion callback of " + this + " failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Arranges for the callback to be run once the response has arrived or the request has been aborted,
+     * or right away if that has already happened.
+     *
+     * <p>
+     * The callback runs on the thread that completes the request, typically the one reading from the channel,
+     * so it must not block; anything more than handing the result over belongs on an executor.
+     */
+    /*package*/ void onCompletion(@Nonnull Runnable callback) {
+        synchronized (this) {
+            if (response == null) {
+                Runnable[] callbacks = completionCallbacks;
+                if (callbacks == null) {
+                    completionCallbacks = new Runnable[] {callback};
+                } else {
+                    callbacks = Arrays.copyOf(callbacks, callbacks.length + 1);
+                    callbacks[callbacks.length - 1] = callback;
+                    completionCallbacks = callbacks;
+                }
+                return;
+            }
+        }
+        callback.run();
     }
 
     /**
@@ -345,6 +427,18 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
      */
     final void execute(final Channel channel) {
         channel.executingCalls.put(id,this);
+        try {
+            channel.throttle.schedule(this);
+        } catch (RejectedExecutionException e) {
+            channel.executingCalls.remove(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Hands this request over to the executor, once {@link RequestThrottle} lets it run.
+     */
+    /*package*/ final void submit(final Channel channel) {
         future = channel.executor.submit(new Runnable() {
 
             private int startIoId;
@@ -366,7 +460,13 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
                         // make sure any I/O preceding this has completed
                         channel.pipeWriter.get(lastIoId).get();
 
-                        RSP r = Request.this.perform(channel);
+                        long start = System.nanoTime();
+                        RSP r;
+                        try {
+                            r = Request.this.perform(channel);
+                        } finally {
+                            channel.metrics.onExecuted(System.nanoTime() - start);
+                        }
                         // normal completion
                         rsp = new Response<RSP, EXC>(Request.this, id, calcLastIoId(), r);
                     } catch (Throwable t) {
@@ -390,6 +490,7 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
                     }
                 } finally {
                     channel.executingCalls.remove(id);
+                    channel.throttle.release(Request.this);
                     Thread.currentThread().setName(oldThreadName);
                 }
             }
@@ -426,11 +527,25 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
         return r!=null ? r.id : 0;
     }
 
+    /**
+     * Returns the {@link Request} being executed by the current thread, if any.
+     */
+    /*package*/ static @CheckForNull Request<?,?> current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Associates the current thread with the given {@link Request}, or clears the association if {@code null}.
+     */
+    /*package*/ static void setCurrent(@CheckForNull Request<?,?> r) {
+        CURRENT.set(r);
+    }
+
     /**
      * Interrupts the execution of the remote computation.
      */
-    private static final class Cancel extends Command {
-        private final int id;
+    /*package*/ static final class Cancel extends Command {
+        /*package*/ final int id;
 
         Cancel(int id) {
             this.id = id;
@@ -439,8 +554,14 @@ public abstract class Request<RSP extends Serializable,EXC extends Throwable> ex
         protected void execute(Channel channel) {
             Request<?,?> r = channel.executingCalls.get(id);
             if(r==null)     return; // already completed
+            if (channel.throttle.cancel(r)) {
+                // it was still parked, so it will never run
+                channel.executingCalls.remove(id);
+                return;
+            }
             Future<?> f = r.future;
-            if(f!=null)     f.cancel(true);
+            if(f!=null && f.cancel(true))
+                channel.throttle.release(r); // it may never get to run
         }
 
         @Override
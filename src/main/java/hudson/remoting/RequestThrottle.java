@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Bounds the number of {@link Request}s from the remote peer that a {@link Channel} executes at once.
+ *
+ * <p>
+ * Requests past the limit are parked in the order they arrived and scheduled as running ones complete. The thread
+ * reading commands never waits here, so {@link Response}s, pipe acks and any other commands keep being processed
+ * while requests are parked. Once as many requests are parked as are allowed to run, the channel asks its
+ * {@link CommandTransport#pauseRead() transport to stop reading}, which holds up the remote peer through the
+ * flow control of the underlying connection, and it resumes reading when half of them have been scheduled.
+ *
+ * <p>
+ * A request stops counting towards the limit while one of its threads waits for the remote peer over the same
+ * channel, be it in {@link Request#call(Channel)}, on the {@link java.util.concurrent.Future} of
+ * {@link Request#callAsync(Channel)}, or for a {@link PipeWindow}, as whatever it waits for may in turn need
+ * a parked request to run. It counts again when the wait is over, even if that briefly exceeds the limit.
+ *
+ * @see ChannelBuilder#withMaxInFlightRequests(int)
+ * @since 3.37
+ */
+/*package*/ final class RequestThrottle {
+    private final Channel channel;
+    private final CommandTransport transport;
+    private final int limit;
+
+    /**
+     * Requests that arrived while the limit was reached, in that order.
+     */
+    @GuardedBy("this")
+    private final ArrayDeque<Request<?, ?>> parked = new ArrayDeque<>();
+
+    /**
+     * Requests that were scheduled, are not done yet and are not waiting for the remote peer.
+     */
+    @GuardedBy("this")
+    private int running;
+
+    /**
+     * The {@link System#nanoTime()} when the reads were paused, or 0 if they are not.
+     */
+    @GuardedBy("this")
+    private long pausedAt;
+
+    /**
+     * @param transport the transport of the channel, to pause reading from
+     * @param limit maximum number of requests in flight, 0 or less for no limit
+     */
+    /*package*/ RequestThrottle(@Nonnull Channel channel, @Nonnull CommandTransport transport, int limit) {
+        this.channel = channel;
+        this.transport = transport;
+        this.limit = limit;
+    }
+
+    /*package*/ boolean isEnabled() {
+        return limit > 0;
+    }
+
+    /**
+     * Schedules the request on the executor of the channel, now or once the number of requests in flight
+     * drops below the limit.
+     *
+     * @throws RejectedExecutionException if the executor does not accept the request
+     */
+    /*package*/ void schedule(@Nonnull Request<?, ?> r) {
+        if (!isEnabled()) {
+            r.submit(channel);
+            return;
+        }
+        synchronized (this) {
+            if (running >= limit || !parked.isEmpty()) {
+                parked.add(r);
+                if (pausedAt == 0 && parked.size() >= limit) {
+                    pausedAt = System.nanoTime();
+                    LOGGER.log(Level.FINE, "Pausing reads on {0} with {1} requests parked",
+                            new Object[] {channel.getName(), parked.size()});
+                    transport.pauseRead();
+                }
+                return;
+            }
+            r.throttled = true;
+            running++;
+        }
+        try {
+            r.submit(channel);
+        } catch (RejectedExecutionException e) {
+            release(r);
+            throw e;
+        }
+    }
+
+    /**
+     * Called once the request is done, or cancelled. Extra calls are ignored.
+     */
+    /*package*/ void release(@Nonnull Request<?, ?> r) {
+        if (!isEnabled()) {
+            return;
+        }
+        List<Request<?, ?>> ready;
+        synchronized (this) {
+            if (!r.throttled) {
+                return;
+            }
+            r.throttled = false;
+            if (r.blockedThreads == 0) {
+                running--;
+            }
+            ready = unpark();
+        }
+        submit(ready);
+    }
+
+    /**
+     * Drops the request if it is still parked.
+     *
+     * @return {@code true} if the request was parked, and thus will never run
+     */
+    /*package*/ synchronized boolean cancel(@Nonnull Request<?, ?> r) {
+        return parked.remove(r);
+    }
+
+    /**
+     * Called before the current thread waits for the remote peer.
+     *
+     * @return the request that no longer counts towards the limit, to be passed to {@link #onUnblocked(Request)}
+     */
+    @CheckForNull
+    /*package*/ Request<?, ?> onBlocked() {
+        if (!isEnabled()) {
+            return null;
+        }
+        Request<?, ?> r = Request.current();
+        if (r == null || channel.executingCalls.get(r.id) != r) {
+            // not running a request from the remote peer of this channel
+            return null;
+        }
+        List<Request<?, ?>> ready;
+        synchronized (this) {
+            if (r.blockedThreads++ > 0 || !r.throttled) {
+                return r;
+            }
+            running--;
+            ready = unpark();
+        }
+        submit(ready);
+        return r;
+    }
+
+    /**
+     * Called once the wait started by {@link #onBlocked()} is over.
+     */
+    /*package*/ void onUnblocked(@CheckForNull Request<?, ?> r) {
+        if (r == null) {
+            return;
+        }
+        synchronized (this) {
+            if (--r.blockedThreads == 0 && r.throttled) {
+                running++;
+            }
+        }
+    }
+
+    /**
+     * Number of requests that count towards the limit.
+     */
+    /*package*/ synchronized int getInFlight() {
+        return running;
+    }
+
+    /**
+     * Number of requests waiting to be scheduled.
+     */
+    /*package*/ synchronized int getParked() {
+        return parked.size();
+    }
+
+    /**
+     * Drops the parked requests, as the channel is being terminated.
+     */
+    /*package*/ void abort() {
+        synchronized (this) {
+            parked.clear();
+            resumeRead();
+        }
+    }
+
+    /**
+     * Takes as many parked requests as can run now, and resumes the reads if few enough are left.
+     */
+    @GuardedBy("this")
+    private List<Request<?, ?>> unpark() {
+        List<Request<?, ?>> ready = null;
+        while (running < limit && !parked.isEmpty()) {
+            Request<?, ?> r = parked.poll();
+            r.throttled = true;
+            running++;
+            if (ready == null) {
+                ready = new ArrayList<>();
+            }
+            ready.add(r);
+        }
+        if (parked.size() <= limit / 2) {
+            resumeRead();
+        }
+        return ready;
+    }
+
+    @GuardedBy("this")
+    private void resumeRead() {
+        if (pausedAt != 0) {
+            long paused = System.nanoTime() - pausedAt;
+            pausedAt = 0;
+            channel.metrics.onReadPause(paused);
+            LOGGER.log(Level.FINE, "Resuming reads on {0} after {1}ms",
+                    new Object[] {channel.getName(), TimeUnit.NANOSECONDS.toMillis(paused)});
+            transport.resumeRead();
+        }
+    }
+
+    /**
+     * Submits the requests taken by {@link #unpark()}, outside of the lock.
+     */
+    private void submit(@CheckForNull List<Request<?, ?>> ready) {
+        if (ready == null) {
+            return;
+        }
+        for (Request<?, ?> r : ready) {
+            try {
+                r.submit(channel);
+            } catch (RejectedExecutionException e) {
+                channel.executingCalls.remove(r.id);
+                release(r);
+                LOGGER.log(Level.SEVERE, "Failed to schedule " + r + " (channel " + channel.getName() + ")", e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RequestThrottle.class.getName());
+}
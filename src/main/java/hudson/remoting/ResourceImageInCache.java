@@ -0,0 +1,61 @@
+package hudson.remoting;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static hudson.remoting.Util.*;
+
+/**
+ * {@link ResourceImageRef} that points to a class file image the receiver already holds
+ * in its {@link ClassImageCache}.
+ *
+ * <p>
+ * The sender only uses this when the receiver has reported the checksum as present.
+ * If the image turns out to be missing or damaged after all, the returned {@link Future}
+ * fails, and the receiver falls back to fetching the class file directly.
+ *
+ * @since 3.37
+ */
+class ResourceImageInCache extends ResourceImageRef {
+    /**
+     * Check sum of the class file image.
+     */
+    final long sum1,sum2;
+
+    ResourceImageInCache(Checksum sum) {
+        this.sum1 = sum.sum1;
+        this.sum2 = sum.sum2;
+    }
+
+    @Override
+    Future<byte[]> resolve(Channel channel, String resourcePath) throws IOException, InterruptedException {
+        ClassImageCache cache = channel.getClassImageCache();
+        if (cache == null) {
+            return new AsyncFutureImpl<byte[]>(new IOException(String.format(
+                    "Failed to resolve a class image %016x%016x. Class Image Cache is disabled for the channel %s",
+                    sum1, sum2, channel.getName())));
+        }
+        byte[] image = cache.get(new Checksum(sum1, sum2));
+        if (image == null) {
+            return new AsyncFutureImpl<byte[]>(new IOException(String.format(
+                    "Class image %016x%016x of %s is not in %s", sum1, sum2, resourcePath, cache)));
+        }
+        return new AsyncFutureImpl<byte[]>(image);
+    }
+
+    @Override
+    Future<URLish> resolveURL(Channel channel, final String resourcePath) throws IOException, InterruptedException {
+        return new FutureAdapter<URLish,byte[]>(resolve(channel, resourcePath)) {
+            @Override
+            protected URLish adapt(byte[] image) throws ExecutionException {
+                try {
+                    return URLish.from(makeResource(resourcePath, image));
+                } catch (IOException e) {
+                    throw new ExecutionException(e);
+                }
+            }
+        };
+    }
+
+    private static final long serialVersionUID = 1L;
+}
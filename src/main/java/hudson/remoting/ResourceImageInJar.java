@@ -4,6 +4,10 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 /**
@@ -44,6 +48,10 @@ class ResourceImageInJar extends ResourceImageRef {
             @Override
             protected byte[] adapt(URL jar) throws ExecutionException {
                 try {
+                    byte[] image = readMapped(jar, path != null ? path : resourcePath);
+                    if (image != null) {
+                        return image;
+                    }
                     return Util.readFully(toResourceURL(jar,resourcePath).openStream());
                 } catch (IOException e) {
                     throw new ExecutionException(e);
@@ -66,6 +74,26 @@ class ResourceImageInJar extends ResourceImageRef {
         };
     }
 
+    /**
+     * Reads the resource out of a memory-mapped image of the jar, which avoids opening a {@code JarFile}
+     * per lookup and the lock contention on it when many threads load classes from the same jar.
+     *
+     * @return {@code null} if the jar cannot be read that way, in which case the caller falls back to the {@code jar:} URL.
+     */
+    @CheckForNull
+    private static byte[] readMapped(URL jar, String resourcePath) {
+        MappedJarFile mapped = MappedJarFile.of(jar);
+        if (mapped == null) {
+            return null;
+        }
+        try {
+            return mapped.read(resourcePath);
+        } catch (ZipException e) {
+            LOGGER.log(Level.FINE, "Unable to read " + resourcePath + " from the mapped " + jar, e);
+            return null;
+        }
+    }
+
     @Nonnull
     private URL toResourceURL(URL jar, String resourcePath) throws IOException {
         if (path!=null)
@@ -91,5 +119,6 @@ class ResourceImageInJar extends ResourceImageRef {
 //            throw (IOException)new IOException(String.format("Failed to resolve a jar %016x%016x",sum1,sum2)).initCause(e);
     }
 
+    private static final Logger LOGGER = Logger.getLogger(ResourceImageInJar.class.getName());
     private static final long serialVersionUID = 1L;
 }
@@ -40,7 +40,7 @@ public final class Response<RSP,EXC extends Throwable> extends Command {
     /**
      * ID of the {@link Request} for which
      */
-    private final int id;
+    /*package*/ final int id;
 
     /**
      * Set by the sender to the ID of the last I/O issued during the command execution.
@@ -51,7 +51,7 @@ public final class Response<RSP,EXC extends Throwable> extends Command {
      *
      * @see PipeWriter
      */
-    private int lastIoId;
+    /*package*/ int lastIoId;
 
     final RSP returnValue;
     final EXC exception;
@@ -77,6 +77,17 @@ public final class Response<RSP,EXC extends Throwable> extends Command {
         this.exception = exception;
     }
 
+    /**
+     * Recreates a response decoded by {@link CommandCodec}.
+     */
+    Response(int id, int lastIoId, RSP returnValue, EXC exception) {
+        super(false);
+        this.id = id;
+        this.lastIoId = lastIoId;
+        this.returnValue = returnValue;
+        this.exception = exception;
+    }
+
     /**
      * Notifies the waiting {@link Request}.
      */
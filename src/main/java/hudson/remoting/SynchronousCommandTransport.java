@@ -6,6 +6,7 @@ import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * {@link CommandTransport} that implements the read operation in a synchronous fashion.
@@ -18,6 +19,17 @@ import java.util.logging.Logger;
 public abstract class SynchronousCommandTransport extends CommandTransport {
     protected Channel channel;
 
+    /**
+     * Guards {@link #readPaused}, and is what the reader thread waits on while it is set.
+     */
+    private final Object readPauseLock = new Object();
+
+    /**
+     * Whether the reader thread is to wait before it reads the next command.
+     */
+    @GuardedBy("readPauseLock")
+    private boolean readPaused;
+
     private static final String RDR_SOCKET_TIMEOUT_PROPERTY_NAME = 
             SynchronousCommandTransport.class.getName() + ".failOnSocketTimeoutInReader";
     
@@ -39,6 +51,38 @@ public abstract class SynchronousCommandTransport extends CommandTransport {
         new ReaderThread(receiver).start();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void pauseRead() {
+        synchronized (readPauseLock) {
+            readPaused = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resumeRead() {
+        synchronized (readPauseLock) {
+            readPaused = false;
+            readPauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits while the reads are paused, or until the channel gets closed.
+     */
+    private void awaitReadResumed() throws InterruptedException {
+        synchronized (readPauseLock) {
+            while (readPaused && !channel.isInClosed()) {
+                readPauseLock.wait(1000);
+            }
+        }
+    }
+
     private final class ReaderThread extends Thread {
         private int commandsReceived = 0;
         private int commandsExecuted = 0;
@@ -58,6 +102,7 @@ public abstract class SynchronousCommandTransport extends CommandTransport {
             final String name =channel.getName();
             try {
                 while(!channel.isInClosed()) {
+                    awaitReadResumed();
                     Command cmd = null;
                     try {
                         cmd = read();
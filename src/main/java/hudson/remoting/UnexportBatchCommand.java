@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link Command} that unexports many objects at once, in place of one {@link UnexportCommand} per object.
+ *
+ * <p>
+ * Only sent when the remote side advertises {@link Capability#supportsBatchUnexport()}.
+ *
+ * @since 3.37
+ */
+final class UnexportBatchCommand extends Command {
+    /*package*/ final int[] oids;
+    /**
+     * Where each proxy was created, for diagnosing unexports of objects that are already gone,
+     * or {@code null} when origins are not retained.
+     */
+    @CheckForNull
+    /*package*/ final Throwable[] origins;
+
+    UnexportBatchCommand(@Nonnull int[] oids, @CheckForNull Throwable[] origins) {
+        super(false);
+        this.oids = oids;
+        this.origins = origins;
+    }
+
+    protected void execute(Channel channel) {
+        for (int i = 0; i < oids.length; i++) {
+            channel.unexport(oids[i], origins != null ? origins[i] : null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Unexport " + oids.length + " objects";
+    }
+
+    private static final long serialVersionUID = 1L;
+}
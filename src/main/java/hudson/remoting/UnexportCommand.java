@@ -30,13 +30,21 @@ import javax.annotation.CheckForNull;
  * @author Kohsuke Kawaguchi
  */
 public class UnexportCommand extends Command {
-    private final int oid;
+    /*package*/ final int oid;
 
     UnexportCommand(int oid, @CheckForNull Throwable cause) {
         this.oid = oid;
         chainCause(cause);
     }
 
+    /**
+     * Recreates a command decoded by {@link CommandCodec}.
+     */
+    UnexportCommand(int oid, boolean recordCreatedAt) {
+        super(recordCreatedAt);
+        this.oid = oid;
+    }
+
     /**
      * @deprecated Use {@link #UnexportCommand(int, Throwable)}
      */
@@ -55,12 +55,12 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
 
     private static final Logger LOGGER = Logger.getLogger(UserRequest.class.getName());
 
-    private final byte[] request;
+    /*package*/ final byte[] request;
 
     @Nonnull
     @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "RemoteClassLoader.export() always returns a serializable instance, but we cannot check it statically due to the java.lang.reflect.Proxy")
-    private final IClassLoader classLoaderProxy;
-    private final String toString;
+    /*package*/ final IClassLoader classLoaderProxy;
+    /*package*/ final String toString;
     /**
      * Objects exported by the request. This value will remain local
      * and won't be sent over to the remote side.
@@ -108,6 +108,17 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         this.classLoaderProxy = RemoteClassLoader.export(cl, local);
     }
 
+    /**
+     * Recreates a user request decoded by {@link CommandCodec}.
+     */
+    UserRequest(int id, int lastIoId, String toString, byte[] request, @Nonnull IClassLoader classLoaderProxy) {
+        super(id, lastIoId);
+        this.toString = toString;
+        this.request = request;
+        this.classLoaderProxy = classLoaderProxy;
+        this.exports = null;
+    }
+
     @Override
     public void checkIfCanBeExecutedOnChannel(Channel channel) throws IOException {
         // Default check for all requests
@@ -202,7 +213,10 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
                     // OTOH, we need to allow RPCRequest so that method invocations on exported objects will go through.
                     throw new SecurityException("Execution of "+callable.toString()+" is prohibited because the channel is restricted");
 
-                callable = channel.decorators.wrapUserRequest(callable);
+                if (!(callable instanceof BatchCallable)) {
+                    // the elements of a batch are decorated one by one
+                    callable = channel.decorators.wrapUserRequest(callable);
+                }
 
                 ClassLoader old = Thread.currentThread().getContextClassLoader();
                 Thread.currentThread().setContextClassLoader(cl);
@@ -250,7 +264,7 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         }
     }
 
-    private byte[] _serialize(Object o, final Channel channel) throws IOException {
+    private static byte[] _serialize(Object o, final Channel channel) throws IOException {
         Channel old = Channel.setCurrent(channel);
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -267,7 +281,7 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         }
     }
 
-    private byte[] serialize(Object o, Channel localChannel) throws IOException {
+    private static byte[] serialize(Object o, Channel localChannel) throws IOException {
         try {
             return _serialize(o,localChannel);
         } catch( NotSerializableException e ) {
@@ -277,6 +291,34 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         }
     }
 
+    /**
+     * Serializes the outcome of a {@link Callable} the same way {@link #perform(Channel)} does, for the callables
+     * which are not sent in a {@link UserRequest} of their own. A value that cannot be serialized results in an
+     * {@link ExceptionResponse}.
+     *
+     * @param value the value computed by the callable, if it did not fail.
+     * @param error what the callable has thrown, if anything.
+     * @throws IOException if even the {@link ProxyException} could not be serialized.
+     */
+    /*package*/ static ResponseToUserRequest<Object, Throwable> createResponse(Channel channel, @CheckForNull Object value,
+                                                                             @CheckForNull Throwable error)
+            throws IOException {
+        if (error == null) {
+            try {
+                return new NormalResponse<>(serialize(value, channel));
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        byte[] rawResponse = null;
+        try {
+            rawResponse = _serialize(error, channel);
+        } catch (NotSerializableException x) {
+            // OK
+        }
+        return new ExceptionResponse<>(rawResponse, serialize(new ProxyException(error), channel));
+    }
+
     /*package*/ static Object deserialize(final Channel channel, byte[] data, ClassLoader defaultClassLoader) throws IOException, ClassNotFoundException {
         ByteArrayInputStream in = new ByteArrayInputStream(data);
 
@@ -311,9 +353,9 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         RSP retrieve(Channel channel, ClassLoader cl) throws IOException, ClassNotFoundException, EXC;
     }
 
-    private static final class NormalResponse<RSP, EXC extends Throwable> implements ResponseToUserRequest<RSP, EXC> {
+    /*package*/ static final class NormalResponse<RSP, EXC extends Throwable> implements ResponseToUserRequest<RSP, EXC> {
         private static final long serialVersionUID = 1L;
-        private final byte[] response;
+        /*package*/ final byte[] response;
         NormalResponse(byte[] response) {
             this.response = response;
         }
@@ -329,10 +371,10 @@ final class UserRequest<RSP,EXC extends Throwable> extends Request<UserRequest.R
         }
     }
 
-    private static final class ExceptionResponse<RSP, EXC extends Throwable> implements ResponseToUserRequest<RSP, EXC> {
+    /*package*/ static final class ExceptionResponse<RSP, EXC extends Throwable> implements ResponseToUserRequest<RSP, EXC> {
         private static final long serialVersionUID = 1L;
-        private @CheckForNull final byte[] rawResponse;
-        private final byte[] proxyResponse;
+        /*package*/ @CheckForNull final byte[] rawResponse;
+        /*package*/ final byte[] proxyResponse;
         ExceptionResponse(@CheckForNull byte[] rawResponse, byte[] proxyResponse) {
             this.rawResponse = rawResponse;
             this.proxyResponse = proxyResponse;
@@ -176,6 +176,14 @@ public class Main {
     @Option(name="-jar-cache",metaVar="DIR",usage="Cache directory that stores jar files sent from the master")
     public File jarCache = null;
 
+    /**
+     * @since 3.37
+     */
+    @CheckForNull
+    @Option(name="-jarCacheMaxSize",metaVar="BYTES",
+            usage="Total size of the jar files the cache may keep before the least recently used ones get deleted ('0' for no bound)")
+    public Long jarCacheMaxSize = null;
+
     /**
      * Connect directly to the TCP port specified, skipping the HTTP(S) connection parameter download.
      * @since 3.34
@@ -296,8 +304,13 @@ public class Main {
             engine.setCredentials(credentials);
         if(proxyCredentials!=null)
             engine.setProxyCredentials(proxyCredentials);
+        if (jarCacheMaxSize != null) {
+            engine.setJarCacheMaxSize(jarCacheMaxSize);
+        }
         if(jarCache!=null)
-            engine.setJarCache(new FileSystemJarCache(jarCache,true));
+            engine.setJarCache(jarCacheMaxSize != null
+                    ? new FileSystemJarCache(jarCache, true, jarCacheMaxSize)
+                    : new FileSystemJarCache(jarCache, true));
         engine.setNoReconnect(noReconnect);
         engine.setKeepAlive(!noKeepAlive);
 
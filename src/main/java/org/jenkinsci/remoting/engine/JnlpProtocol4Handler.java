@@ -25,6 +25,8 @@ package org.jenkinsci.remoting.engine;
 
 import hudson.remoting.Channel;
 import hudson.remoting.ChannelBuilder;
+import hudson.remoting.DaemonThreadFactory;
+import hudson.remoting.NamingThreadFactory;
 import hudson.remoting.SocketChannelStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -35,8 +37,11 @@ import java.nio.channels.SocketChannel;
 import java.security.cert.X509Certificate;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -45,6 +50,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import org.jenkinsci.remoting.nio.NioChannelHub;
 import org.jenkinsci.remoting.protocol.IOHub;
 import org.jenkinsci.remoting.protocol.NetworkLayer;
@@ -55,6 +61,7 @@ import org.jenkinsci.remoting.protocol.impl.BIONetworkLayer;
 import org.jenkinsci.remoting.protocol.impl.ChannelApplicationLayer;
 import org.jenkinsci.remoting.protocol.impl.ConnectionHeadersFilterLayer;
 import org.jenkinsci.remoting.protocol.impl.ConnectionRefusalException;
+import org.jenkinsci.remoting.protocol.impl.DeflateFilterLayer;
 import org.jenkinsci.remoting.protocol.impl.NIONetworkLayer;
 import org.jenkinsci.remoting.protocol.impl.SSLEngineFilterLayer;
 
@@ -71,6 +78,46 @@ public class JnlpProtocol4Handler extends JnlpProtocolHandler<Jnlp4ConnectionSta
      * Our logger.
      */
     private static final Logger LOGGER = Logger.getLogger(JnlpProtocol4Handler.class.getName());
+    /**
+     * Whether to offer compression of the connection, it is only used if both sides offer it. Off by default, as
+     * compressing ahead of TLS lets an attacker who can inject data into the connection (e.g. into a build log) and
+     * observe the encrypted traffic guess at secrets sent over the same connection from the record lengths (as in the
+     * CRIME and BREACH attacks). See {@link DeflateFilterLayer} for how far this is mitigated.
+     *
+     * @see DeflateFilterLayer
+     */
+    private static final boolean COMPRESSION =
+            Boolean.getBoolean(JnlpProtocol4Handler.class.getName() + ".compression");
+    /**
+     * The maximum number of threads running the CPU intensive parts of TLS handshakes (key exchange, certificate
+     * validation). When many agents reconnect at once the remaining handshakes queue up rather than consume a thread
+     * each, which leaves the {@link IOHub} threads free for the connections already established.
+     */
+    private static final int HANDSHAKE_THREADS = Integer.getInteger(
+            JnlpProtocol4Handler.class.getName() + ".handshakeThreads", Runtime.getRuntime().availableProcessors());
+    /**
+     * The maximum number of handshake steps waiting for one of the {@link #HANDSHAKE_THREADS}. Once that many are
+     * waiting, further steps run on the {@link IOHub} threads as they would without a dedicated executor.
+     */
+    private static final int HANDSHAKE_QUEUE_SIZE = Integer.getInteger(
+            JnlpProtocol4Handler.class.getName() + ".handshakeQueueSize", 1024);
+    /**
+     * The maximum number of TLS sessions retained for resumption by the {@link SSLContext}, {@code -1} to keep the
+     * default of the {@link SSLContext}.
+     */
+    private static final int SESSION_CACHE_SIZE =
+            Integer.getInteger(JnlpProtocol4Handler.class.getName() + ".sessionCacheSize", -1);
+    /**
+     * The number of seconds TLS sessions can be resumed for, {@code -1} to keep the default of the
+     * {@link SSLContext}.
+     */
+    private static final int SESSION_TIMEOUT =
+            Integer.getInteger(JnlpProtocol4Handler.class.getName() + ".sessionTimeout", -1);
+    /**
+     * The executor shared by all handlers for the delegated tasks of the {@link SSLEngine}s. Idle threads time out so
+     * that the pool costs nothing between reconnection storms.
+     */
+    private static final ThreadPoolExecutor HANDSHAKE_EXECUTOR = createHandshakeExecutor();
     /**
      * The thread pool we can use for executing tasks.
      */
@@ -109,6 +156,39 @@ public class JnlpProtocol4Handler extends JnlpProtocolHandler<Jnlp4ConnectionSta
         this.ioHub = ioHub;
         this.context = context;
         this.needClientAuth = needClientAuth;
+        configureSessionContext(context.getServerSessionContext());
+        configureSessionContext(context.getClientSessionContext());
+    }
+
+    /**
+     * Creates the executor for the delegated tasks of the {@link SSLEngine}s.
+     *
+     * @return the executor.
+     */
+    private static ThreadPoolExecutor createHandshakeExecutor() {
+        int threads = Math.max(1, HANDSHAKE_THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, HANDSHAKE_QUEUE_SIZE)),
+                new NamingThreadFactory(new DaemonThreadFactory(), "JnlpProtocol4Handler.handshake"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Applies the configured session cache size and timeout, if any, to a {@link SSLSessionContext}.
+     *
+     * @param sessionContext the session context, may be {@code null} if the provider does not support sessions.
+     */
+    private static void configureSessionContext(@Nullable SSLSessionContext sessionContext) {
+        if (sessionContext == null) {
+            return;
+        }
+        if (SESSION_CACHE_SIZE >= 0) {
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        }
+        if (SESSION_TIMEOUT >= 0) {
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+        }
     }
 
     /**
@@ -144,10 +224,14 @@ public class JnlpProtocol4Handler extends JnlpProtocolHandler<Jnlp4ConnectionSta
         engine.setNeedClientAuth(needClientAuth);
         engine.setUseClientMode(false);
         Handler handler = new Handler(createConnectionState(socket, listeners), getClientDatabase());
+        DeflateFilterLayer deflate = COMPRESSION ? new DeflateFilterLayer() : null;
         return ProtocolStack.on(networkLayer)
                 .filter(new AckFilterLayer())
-                .filter(new SSLEngineFilterLayer(engine, handler))
-                .filter(new ConnectionHeadersFilterLayer(headers, handler))
+                .filter(new SSLEngineFilterLayer(engine, handler, HANDSHAKE_EXECUTOR))
+                .filter(deflate == null
+                        ? new ConnectionHeadersFilterLayer(headers, handler)
+                        : new ConnectionHeadersFilterLayer(deflate.decorate(headers), deflate.listener(handler)))
+                .filter(deflate)
                 .named(String.format("%s connection from %s", getName(), socket.getRemoteSocketAddress()))
                 .listener(handler)
                 .build(new ChannelApplicationLayer(threadPool, handler))
@@ -169,11 +253,15 @@ public class JnlpProtocol4Handler extends JnlpProtocolHandler<Jnlp4ConnectionSta
         SSLEngine sslEngine = createSSLEngine(socket);
         sslEngine.setUseClientMode(true);
         Handler handler = new Handler(createConnectionState(socket, listeners));
+        DeflateFilterLayer deflate = COMPRESSION ? new DeflateFilterLayer() : null;
         return ProtocolStack.on(networkLayer)
                 .filter(new AgentProtocolClientFilterLayer(getName()))
                 .filter(new AckFilterLayer())
-                .filter(new SSLEngineFilterLayer(sslEngine, handler))
-                .filter(new ConnectionHeadersFilterLayer(headers, handler))
+                .filter(new SSLEngineFilterLayer(sslEngine, handler, HANDSHAKE_EXECUTOR))
+                .filter(deflate == null
+                        ? new ConnectionHeadersFilterLayer(headers, handler)
+                        : new ConnectionHeadersFilterLayer(deflate.decorate(headers), deflate.listener(handler)))
+                .filter(deflate)
                 .named(String.format("%s connection to %s", getName(), socket.getRemoteSocketAddress()))
                 .listener(handler)
                 .build(new ChannelApplicationLayer(threadPool, handler))
@@ -201,16 +289,19 @@ public class JnlpProtocol4Handler extends JnlpProtocolHandler<Jnlp4ConnectionSta
 
     /**
      * Creates an {@link SSLEngine} for the specified {@link Socket}. The {@link SSLContext} may have retained session
-     * state and thus enable a shorter handshake.
+     * state and thus enable a shorter handshake. Clients look sessions up by the peer host and port within the
+     * {@link SSLContext}, and as each agent uses its own {@link SSLContext} the sessions are effectively kept per
+     * agent identity. The host is taken as given rather than resolved so that accepting a connection never waits on
+     * a reverse DNS lookup.
      *
      * @param socket the socket.
-     * @return the {@link SSLEngine}.                                             s
+     * @return the {@link SSLEngine}.
      */
     private SSLEngine createSSLEngine(Socket socket) {
         SocketAddress remoteSocketAddress = socket.getRemoteSocketAddress();
         if (remoteSocketAddress instanceof InetSocketAddress) {
             InetSocketAddress remoteInetAddress = (InetSocketAddress) remoteSocketAddress;
-            return context.createSSLEngine(remoteInetAddress.getHostName(), remoteInetAddress.getPort());
+            return context.createSSLEngine(remoteInetAddress.getHostString(), remoteInetAddress.getPort());
         } else {
             return context.createSSLEngine();
         }
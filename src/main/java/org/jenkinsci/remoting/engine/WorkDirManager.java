@@ -212,6 +212,7 @@ public class WorkDirManager {
 
             // Create components of the internal directory
             createInternalDirIfRequired(internalDirFile, DirType.JAR_CACHE_DIR);
+            createInternalDirIfRequired(internalDirFile, DirType.CLASS_CACHE_DIR);
             createInternalDirIfRequired(internalDirFile, DirType.LOGS_DIR);
 
             return internalDirPath;
@@ -338,6 +339,13 @@ public class WorkDirManager {
          */
         JAR_CACHE_DIR("JAR Cache directory", "jarCache", INTERNAL_DIR),
 
+        /**
+         * Directory, which stores the Class Image Cache.
+         * Its size is bounded by {@code hudson.remoting.ClassImageCache.maxSize} (64 MiB by default).
+         * @since 3.37
+         */
+        CLASS_CACHE_DIR("Class Image Cache directory", "classCache", INTERNAL_DIR),
+
         /**
          * Directory, which stores logs.
          */
@@ -119,6 +119,11 @@ public class NioChannelHub implements Runnable, Closeable {
         @CheckForNull
         private ByteArrayReceiver receiver = null;
 
+        /**
+         * Set while the {@link Channel} does not want any more commands for now.
+         */
+        private volatile boolean readPaused;
+
         /**
          * To ensure serial execution order within each {@link Channel}, we submit
          * received packets through a per-{@link NioTransport} swim lane.
@@ -149,10 +154,10 @@ public class NioChannelHub implements Runnable, Closeable {
 
         /**
          * Returns true if we want to read from {@link #rr()}, namely
-         * when we have more space in {@link #rb}.
+         * when we have more space in {@link #rb} and the reads are not paused.
          */
         boolean wantsToRead() {
-            return receiver!=null && rb.writable()!=0;
+            return receiver!=null && rb.writable()!=0 && !readPaused;
         }
 
         /**
@@ -219,12 +224,18 @@ public class NioChannelHub implements Runnable, Closeable {
 
         @Override
         public void writeBlock(Channel channel, byte[] bytes) throws IOException {
+            writeBlock(channel, bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void writeBlock(Channel channel, byte[] bytes, int offset, int length) throws IOException {
             try {
                 boolean hasMore;
-                int pos = 0;
+                int pos = offset;
+                int end = offset + length;
                 do {
-                    int frame = Math.min(transportFrameSize, bytes.length - pos); // # of bytes we send in this chunk
-                    hasMore = frame + pos < bytes.length;
+                    int frame = Math.min(transportFrameSize, end - pos); // # of bytes we send in this chunk
+                    hasMore = frame + pos < end;
                     wb.write(ChunkHeader.pack(frame, hasMore));
                     wb.write(bytes,pos,frame);
                     scheduleReregister();
@@ -260,6 +271,18 @@ public class NioChannelHub implements Runnable, Closeable {
             });
         }
 
+        @Override
+        public void pauseRead() {
+            readPaused = true;
+            scheduleReregister();
+        }
+
+        @Override
+        public void resumeRead() {
+            readPaused = false;
+            scheduleReregister();
+        }
+
         /**
          * Update the operations for which we are registered.
          */
@@ -187,6 +187,29 @@ public abstract class ApplicationLayer<T> implements ProtocolLayer, ProtocolLaye
         }
     }
 
+    /**
+     * SPI: Implementations of {@link ApplicationLayer} should use this method to request that the {@link NetworkLayer}
+     * stops reading for a while, so that the remote end gets held up by the flow control of the connection.
+     * Any data that was already read is still delivered through {@link #onRead(ByteBuffer)}.
+     *
+     * @since 3.37
+     */
+    public final void doPauseRead() {
+        LOGGER.log(Level.FINE, "[{0}] Pausing RECV", ptr.stack().name());
+        ptr.stack().doPauseRecv();
+    }
+
+    /**
+     * SPI: Implementations of {@link ApplicationLayer} should use this method to request that the {@link NetworkLayer}
+     * carries on reading after {@link #doPauseRead()}.
+     *
+     * @since 3.37
+     */
+    public final void doResumeRead() {
+        LOGGER.log(Level.FINE, "[{0}] Resuming RECV", ptr.stack().name());
+        ptr.stack().doResumeRecv();
+    }
+
     /**
      * Accessor for the {@link ProtocolStack} that we are bound to.
      *
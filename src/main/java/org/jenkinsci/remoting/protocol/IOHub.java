@@ -45,9 +45,11 @@ import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -57,12 +59,14 @@ import javax.annotation.OverridingMethodsMustInvokeSuper;
 import javax.annotation.concurrent.GuardedBy;
 
 import org.jenkinsci.remoting.util.ByteBufferPool;
-import org.jenkinsci.remoting.util.DirectByteBufferPool;
+import org.jenkinsci.remoting.util.SizeClassedByteBufferPool;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * A hub for performing I/O. The hub has a selector thread and an executor service.
+ * It can also be created with several selectors, each on a thread of its own, in which case the channels are
+ * registered with each selector in turn.
  *
  * @since 3.0
  */
@@ -79,6 +83,21 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      */
     private static final long SELECTOR_WAKEUP_TIMEOUT_MS = Long.getLong(IOHub.class.getName() + ".selectorWakeupTimeout", 1000);
 
+    /**
+     * Defines the number of selectors of the hubs created by {@link #create(Executor)} via a system property.
+     * Defaults to {@code 1}, {@code 0} means one per available processor.
+     * @since 3.37
+     */
+    private static final int SELECTORS = Integer.getInteger(IOHub.class.getName() + ".selectors", 1);
+
+    /**
+     * Defines the maximum number of bytes of idle buffers kept by a hub, in the caches of its threads or shared
+     * between them, via a system property.
+     * Defaults to {@code 32MiB}.
+     * @since 3.37
+     */
+    private static final long BUFFER_POOL_SIZE = Long.getLong(IOHub.class.getName() + ".bufferPoolSize", 32L * 1024 * 1024);
+
     /**
      * The next ID to use.
      */
@@ -91,6 +110,15 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * Our selector.
      */
     private final Selector selector;
+    /**
+     * The hubs running each of our selectors, starting with {@code this}. Only the first hub has several, the others
+     * have only themselves.
+     */
+    private final IOHub[] shards;
+    /**
+     * The shard to register the next channel with.
+     */
+    private final AtomicInteger nextShard = new AtomicInteger();
     private volatile boolean ioHubRunning = false;
     private final Object selectorLockObject = new Object();
 
@@ -123,37 +151,128 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * Counts the # of select loops. Ocassionally useful for diagnosing whether the selector
      * thread is spending too much CPU time.
      */
-    private long gen;
+    private volatile long gen;
     /**
      * Our {@link ByteBufferPool}.
      */
-    private ByteBufferPool bufferPool;
+    private final ByteBufferPool bufferPool;
 
     /**
-     * Creates a new {@link IOHub} instance.
+     * Creates a new {@link IOHub} instance with several selectors.
      *
-     * @param executor the {@link Executor} to use for running tasks.
-     * @throws IOException if the hub's {@link Selector} cannot be opened.
+     * @param executor  the {@link Executor} to use for running tasks.
+     * @param selectors the number of selectors.
+     * @throws IOException if the hub's {@link Selector}s cannot be opened.
      */
-    private IOHub(Executor executor) throws IOException {
+    private IOHub(Executor executor, int selectors) throws IOException {
         this.selector = Selector.open();
         this.ioHubRunning = true;
         this.executor = executor;
-        this.bufferPool = new DirectByteBufferPool(16916, Runtime.getRuntime().availableProcessors() * 4);
+        this.bufferPool = new SizeClassedByteBufferPool(16916, 4, 4,
+                Runtime.getRuntime().availableProcessors() * 4, BUFFER_POOL_SIZE);
+        this.shards = new IOHub[Math.max(1, selectors)];
+        this.shards[0] = this;
+        try {
+            for (int i = 1; i < shards.length; i++) {
+                shards[i] = new IOHub(this);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an additional selector of the given hub.
+     *
+     * @param hub the hub that dispatches the registrations to the new selector.
+     * @throws IOException if the {@link Selector} cannot be opened.
+     */
+    private IOHub(IOHub hub) throws IOException {
+        this.selector = Selector.open();
+        this.ioHubRunning = true;
+        this.executor = hub.executor;
+        this.bufferPool = hub.bufferPool;
+        this.shards = new IOHub[]{this};
     }
 
     /**
      * Creates and starts a new {@link IOHub} instance.
+     * The number of selectors is given by the {@code org.jenkinsci.remoting.protocol.IOHub.selectors} system property
+     * and defaults to one.
      *
      * @param executor the {@link Executor} to use for running tasks.
      * @return the new hub.
      * @throws IOException if the hub's {@link Selector} cannot be opened.
      */
     public static IOHub create(Executor executor) throws IOException {
-        IOHub result = new IOHub(executor);
-        executor.execute(result);
+        return create(executor, SELECTORS);
+    }
+
+    /**
+     * Creates and starts a new {@link IOHub} instance with several selectors, each running on a thread of its own.
+     * Channels are registered with each selector in turn, so that hubs serving thousands of connections are not
+     * limited by how fast a single thread can select and dispatch their events.
+     *
+     * @param executor  the {@link Executor} to use for running tasks.
+     * @param selectors the number of selectors, or {@code 0} for one per available processor.
+     * @return the new hub.
+     * @throws IOException if the hub's {@link Selector}s cannot be opened.
+     * @since 3.37
+     */
+    public static IOHub create(Executor executor, int selectors) throws IOException {
+        return start(executor, selectors, executor::execute);
+    }
+
+    /**
+     * Creates and starts a new {@link IOHub} instance whose selector loop runs on threads of its own.
+     * Use this when the executor runs tasks on virtual threads: the selector loop blocks in
+     * {@link Selector#select()} for its whole life, which would tie up a carrier thread.
+     * The number of selectors is given by the {@code org.jenkinsci.remoting.protocol.IOHub.selectors} system property
+     * and defaults to one.
+     *
+     * @param executor the {@link Executor} to use for running tasks, possibly backed by virtual threads.
+     * @param selectorThreads creates the platform threads running the selector loop and its watcher.
+     * @return the new hub.
+     * @throws IOException if the hub's {@link Selector} cannot be opened.
+     * @since 3.37
+     */
+    public static IOHub create(Executor executor, ThreadFactory selectorThreads) throws IOException {
+        return create(executor, selectorThreads, SELECTORS);
+    }
+
+    /**
+     * Creates and starts a new {@link IOHub} instance with several selectors, each running on a thread of its own
+     * created by the given factory.
+     *
+     * @param executor the {@link Executor} to use for running tasks, possibly backed by virtual threads.
+     * @param selectorThreads creates the platform threads running the selector loops and their watcher.
+     * @param selectors the number of selectors, or {@code 0} for one per available processor.
+     * @return the new hub.
+     * @throws IOException if the hub's {@link Selector}s cannot be opened.
+     * @since 3.37
+     */
+    public static IOHub create(Executor executor, final ThreadFactory selectorThreads, int selectors)
+            throws IOException {
+        return start(executor, selectors, task -> selectorThreads.newThread(task).start());
+    }
+
+    /**
+     * Creates a new {@link IOHub} instance and starts its selector loops and their watcher.
+     *
+     * @param executor the {@link Executor} to use for running tasks.
+     * @param selectors the number of selectors, or {@code 0} for one per available processor.
+     * @param starter starts each selector loop and the watcher on a thread of its own.
+     * @return the new hub.
+     * @throws IOException if the hub's {@link Selector}s cannot be opened.
+     */
+    private static IOHub start(Executor executor, int selectors, Consumer<Runnable> starter) throws IOException {
+        IOHub result = new IOHub(executor, selectors > 0 ? selectors : Runtime.getRuntime().availableProcessors());
+        for (IOHub shard : result.shards) {
+            starter.accept(shard);
+        }
         LOGGER.log(Level.FINE, "Starting an additional Selector wakeup thread. See JENKINS-47965 for more information.");
-        executor.execute(new IOHubSelectorWatcher(result));
+        starter.accept(new IOHubSelectorWatcher(result));
         return result;
     }
 
@@ -174,7 +293,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
     }
 
     /**
-     * Returns the {@link Selector}.
+     * Returns the {@link Selector}. If the hub has several, this is the first one.
      *
      * @return the {@link Selector}
      */
@@ -257,7 +376,88 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
     @Override
     @OverridingMethodsMustInvokeSuper
     public void close() throws IOException {
-        selector.close();
+        IOException failure = null;
+        for (IOHub shard : shards) {
+            if (shard == null) {
+                continue; // failed to open
+            }
+            try {
+                shard.selector.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the number of selectors of this hub.
+     *
+     * @return the number of selectors.
+     * @since 3.37
+     */
+    public int getSelectorCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of select loops that returned ready keys on the given selector so far. Occasionally useful
+     * for diagnosing whether one of the selector threads is spending too much CPU time.
+     *
+     * @param index the index of the selector, from {@code 0} to {@link #getSelectorCount()} excluded.
+     * @return the number of select loops.
+     * @since 3.37
+     */
+    public long getSelectLoopCount(int index) {
+        return shards[index].gen;
+    }
+
+    /**
+     * Returns the number of channels registered with the given selector.
+     *
+     * @param index the index of the selector, from {@code 0} to {@link #getSelectorCount()} excluded.
+     * @return the number of registered channels, or {@code -1} if the selector is closed.
+     * @since 3.37
+     */
+    public int getKeyCount(int index) {
+        try {
+            return shards[index].selector.keys().size();
+        } catch (ClosedSelectorException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the hub whose selector the key belongs to.
+     *
+     * @param key the key.
+     * @return the hub running the selector of the key.
+     */
+    private IOHub shardOf(SelectionKey key) {
+        if (shards.length > 1) {
+            Selector keySelector = key.selector();
+            for (IOHub shard : shards) {
+                if (shard.selector == keySelector) {
+                    return shard;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Queues a modification of the {@link SelectionKey#interestOps()} on the selector thread owning the key.
+     *
+     * @param key    the key.
+     * @param add    the ops bits to add.
+     * @param remove the ops bits to remove.
+     */
+    private void changeInterestOps(SelectionKey key, int add, int remove) {
+        IOHub shard = shardOf(key);
+        shard.interestOps.add(new InterestOps(key, add, remove));
+        shard.selector.wakeup();
     }
 
     /**
@@ -266,8 +466,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * @param key the key.
      */
     public final void addInterestAccept(SelectionKey key) {
-        interestOps.add(new InterestOps(key, SelectionKey.OP_ACCEPT, 0));
-        selector.wakeup();
+        changeInterestOps(key, SelectionKey.OP_ACCEPT, 0);
     }
 
     /**
@@ -276,8 +475,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * @param key the key.
      */
     public final void removeInterestAccept(SelectionKey key) {
-        interestOps.add(new InterestOps(key, 0, SelectionKey.OP_ACCEPT));
-        selector.wakeup();
+        changeInterestOps(key, 0, SelectionKey.OP_ACCEPT);
     }
 
     /**
@@ -286,8 +484,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * @param key the key.
      */
     public final void addInterestConnect(SelectionKey key) {
-        interestOps.add(new InterestOps(key, SelectionKey.OP_CONNECT, 0));
-        selector.wakeup();
+        changeInterestOps(key, SelectionKey.OP_CONNECT, 0);
     }
 
     /**
@@ -296,8 +493,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * @param key the key.
      */
     public final void removeInterestConnect(SelectionKey key) {
-        interestOps.add(new InterestOps(key, 0, SelectionKey.OP_CONNECT));
-        selector.wakeup();
+        changeInterestOps(key, 0, SelectionKey.OP_CONNECT);
     }
 
     /**
@@ -310,8 +506,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
             // TODO probably want some more info about the key here...
             LOGGER.log(Level.FINEST, "Scheduling adding OP_READ to {0}", key);
         }
-        interestOps.add(new InterestOps(key, SelectionKey.OP_READ, 0));
-        selector.wakeup();
+        changeInterestOps(key, SelectionKey.OP_READ, 0);
     }
 
     /**
@@ -324,8 +519,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
             // TODO probably want some more info about the key here...
             LOGGER.log(Level.FINEST, "Scheduling removing OP_READ to {0}", key);
         }
-        interestOps.add(new InterestOps(key, 0, SelectionKey.OP_READ));
-        selector.wakeup();
+        changeInterestOps(key, 0, SelectionKey.OP_READ);
     }
 
     /**
@@ -338,8 +532,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
             // TODO probably want some more info about the key here...
             LOGGER.log(Level.FINEST, "Scheduling adding OP_WRITE to {0}", key);
         }
-        interestOps.add(new InterestOps(key, SelectionKey.OP_WRITE, 0));
-        selector.wakeup();
+        changeInterestOps(key, SelectionKey.OP_WRITE, 0);
     }
 
     /**
@@ -352,8 +545,7 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
             // TODO probably want some more info about the key here...
             LOGGER.log(Level.FINEST, "Scheduling removing OP_WRITE to {0}", key);
         }
-        interestOps.add(new InterestOps(key, 0, SelectionKey.OP_WRITE));
-        selector.wakeup();
+        changeInterestOps(key, 0, SelectionKey.OP_WRITE);
     }
 
     /**
@@ -385,8 +577,11 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
         if (write) {
             ops |= SelectionKey.OP_WRITE;
         }
-        registrations.add(new Registration(ops, channel, listener, callback));
-        selector.wakeup();
+        IOHub shard = shards.length > 1
+                ? shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length]
+                : this;
+        shard.registrations.add(new Registration(ops, channel, listener, callback));
+        shard.selector.wakeup();
     }
 
     /**
@@ -414,12 +609,14 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
      * @param channel the {@link SelectableChannel} to remove.
      */
     public final void unregister(SelectableChannel channel) {
-        SelectionKey selectionKey = channel.keyFor(selector);
-        if (selectionKey == null) {
-            return;
+        for (IOHub shard : shards) {
+            SelectionKey selectionKey = channel.keyFor(shard.selector);
+            if (selectionKey != null) {
+                selectionKey.cancel();
+                selectionKey.attach(null);
+                return;
+            }
         }
-        selectionKey.cancel();
-        selectionKey.attach(null);
     }
 
     private String getThreadNameBase(String executorThreadName) {
@@ -551,7 +748,9 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
                             break;
                         }
                     }
-                    iohub.selector.wakeup();
+                    for (IOHub shard : iohub.shards) {
+                        shard.selector.wakeup();
+                    }
                 }
             } catch (InterruptedException ex) {
                 // interrupted
@@ -687,6 +886,9 @@ public class IOHub implements Executor, Closeable, Runnable, ByteBufferPool {
             sb.append("[closed");
         }
         sb.append(", gen=").append(gen);
+        for (int i = 1; i < shards.length; i++) {
+            sb.append(", ").append(shards[i]);
+        }
         sb.append(']');
         return sb.toString();
     }
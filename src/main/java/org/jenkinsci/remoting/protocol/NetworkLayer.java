@@ -164,6 +164,24 @@ public abstract class NetworkLayer implements ProtocolLayer, ProtocolLayer.Send
      */
     public abstract void doCloseRecv();
 
+    /**
+     * Request the recv side to stop reading from the recipient until {@link #doResumeRecv()}. Any data that was
+     * already read is still passed up the stack. This method must not block. The default implementation keeps
+     * reading.
+     *
+     * @since 3.37
+     */
+    public void doPauseRecv() {
+    }
+
+    /**
+     * Request the recv side to carry on reading after {@link #doPauseRecv()}. This method must not block.
+     *
+     * @since 3.37
+     */
+    public void doResumeRecv() {
+    }
+
     /**
      * SPI: Check if the recipient is open.
      *
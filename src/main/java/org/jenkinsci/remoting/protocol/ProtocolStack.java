@@ -311,6 +311,20 @@ public class ProtocolStack<T> implements Closeable, ByteBufferPool {
         network.doCloseRecv();
     }
 
+    /**
+     * Request the {@link NetworkLayer} to stop receiving data for now.
+     */
+    /*package*/ void doPauseRecv() {
+        network.doPauseRecv();
+    }
+
+    /**
+     * Request the {@link NetworkLayer} to carry on receiving data.
+     */
+    /*package*/ void doResumeRecv() {
+        network.doResumeRecv();
+    }
+
     /**
      * Check if the {@link NetworkLayer} is open to receive data.
      *
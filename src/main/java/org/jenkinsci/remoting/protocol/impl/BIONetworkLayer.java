@@ -78,6 +78,10 @@ public class BIONetworkLayer extends NetworkLayer {
      * Boolean flag to mark the {@link #reader} as currently running.
      */
     private boolean running;
+    /**
+     * Boolean flag to hold the {@link #reader} back before its next read, guarded by the {@link #reader}.
+     */
+    private boolean recvPaused;
 
     /**
      * Constructor.
@@ -132,6 +136,27 @@ public class BIONetworkLayer extends NetworkLayer {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doPauseRecv() {
+        synchronized (reader) {
+            recvPaused = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doResumeRecv() {
+        synchronized (reader) {
+            recvPaused = false;
+            reader.notifyAll();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -241,6 +266,19 @@ public class BIONetworkLayer extends NetworkLayer {
                 ByteBuffer buffer = acquire();
                 try {
                     while (getIoHub().isOpen() && in.isOpen() && isRecvOpen()) {
+                        synchronized (this) {
+                            if (recvPaused) {
+                                try {
+                                    wait(1000);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    onRecvClosed();
+                                    return;
+                                }
+                                // loop back around to check everything is still open before waiting again
+                                continue;
+                            }
+                        }
                         try {
                             int read = in.read(buffer);
                             if (read < 0) {
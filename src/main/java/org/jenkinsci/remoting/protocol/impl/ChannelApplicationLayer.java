@@ -54,6 +54,12 @@ import org.jenkinsci.remoting.util.ThrowableUtils;
  */
 public class ChannelApplicationLayer extends ApplicationLayer<Future<Channel>> {
 
+    /**
+     * Frames carrying at most this many bytes are copied into a single buffer before being written, so that a
+     * filter such as {@link SSLEngineFilterLayer} does not encrypt the frame header as a record of its own. Larger
+     * frames are written as they are, as the header then adds little to the record of their data.
+     */
+    private static final int COALESCE_FRAME_SIZE = 1024;
     /**
      * The {@link ExecutorService} to use for the {@link Channel}.
      */
@@ -295,8 +301,21 @@ public class ChannelApplicationLayer extends ApplicationLayer<Future<Channel>> {
             //TODO: Any way to get channel information here
             if (isWriteOpen()) {
                 try {
-                    ChannelApplicationLayer.this.write(header);
-                    ChannelApplicationLayer.this.write(data);
+                    if (data.remaining() > COALESCE_FRAME_SIZE) {
+                        ChannelApplicationLayer.this.write(header);
+                        ChannelApplicationLayer.this.write(data);
+                    } else {
+                        // a single write, so that the frame is encrypted as one record rather than two
+                        ByteBuffer frame = stack().acquire(header.remaining() + data.remaining());
+                        try {
+                            frame.put(header);
+                            frame.put(data);
+                            frame.flip();
+                            ChannelApplicationLayer.this.write(frame);
+                        } finally {
+                            stack().release(frame);
+                        }
+                    }
                 } catch (ClosedChannelException e) {
                     // Probably it should be another exception type at all
                     throw new ChannelClosedException(null, "Protocol stack cannot write data anymore. ChannelApplicationLayer reports that the NIO Channel is closed", e);
@@ -322,6 +341,22 @@ public class ChannelApplicationLayer extends ApplicationLayer<Future<Channel>> {
             doCloseRead();
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void pauseRead() {
+            doPauseRead();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resumeRead() {
+            doResumeRead();
+        }
+
         /**
          * {@inheritDoc}
          */
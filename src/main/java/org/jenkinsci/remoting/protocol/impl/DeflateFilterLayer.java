@@ -0,0 +1,533 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.protocol.impl;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.concurrent.GuardedBy;
+import org.jenkinsci.remoting.protocol.FilterLayer;
+import org.jenkinsci.remoting.util.ByteBufferQueue;
+
+/**
+ * A {@link FilterLayer} that transparently compresses the data sent and decompresses the data received using a
+ * single {@link Deflater} stream per direction, flushed with {@link Deflater#FULL_FLUSH} at every frame so that
+ * compression never delays a message.
+ * <p>
+ * <strong>Security:</strong> compressing before encrypting leaks how well the plain text compresses through the
+ * length of the encrypted records, the basis of the CRIME and BREACH attacks. Remoting traffic mixes secrets (such as
+ * credentials sent in callables) with data an attacker may influence (such as build logs or workspace files), so
+ * someone who can both inject data and observe the traffic could learn a secret one guess at a time. To narrow this,
+ * the dictionary is reset at every frame, so data is never compressed against what was sent in earlier frames, but
+ * a secret and attacker controlled data sent in the same frame still compress together. Only enable this layer where
+ * that risk is acceptable, for example when bandwidth is scarce and the network is trusted.
+ * <p>
+ * Compression is negotiated through the {@link ConnectionHeadersFilterLayer}: each side advertises support with
+ * {@link #decorate(Map)} and the layer is switched on only if the remote headers (delivered through
+ * {@link #listener(ConnectionHeadersFilterLayer.Listener)}) advertise support too. If either side does not
+ * support compression the layer removes itself from the stack. As the negotiation happens in the headers, this
+ * layer must be placed immediately above the {@link ConnectionHeadersFilterLayer}, which also means compression
+ * happens before any encryption by a {@link SSLEngineFilterLayer} further down the stack:
+ * <pre>
+ * DeflateFilterLayer deflate = new DeflateFilterLayer();
+ * ProtocolStack.on(networkLayer)
+ *         .filter(new AckFilterLayer())
+ *         .filter(new SSLEngineFilterLayer(engine, handler))
+ *         .filter(new ConnectionHeadersFilterLayer(deflate.decorate(headers), deflate.listener(handler)))
+ *         .filter(deflate)
+ *         .build(new ChannelApplicationLayer(executorService, handler));
+ * </pre>
+ * On the wire the data is split into frames with a 4 byte header: one byte for the frame type ({@link #STORED}
+ * or {@link #DEFLATED}) followed by three bytes of length. When bypass is enabled and a frame does not compress
+ * well (i.e. the data was already compressed) the following frames are sent {@link #STORED} until
+ * {@link #BYPASS_LENGTH} bytes have passed, at which point compression is attempted again.
+ *
+ * @since 3.37
+ */
+public class DeflateFilterLayer extends FilterLayer {
+    /**
+     * The connection header used to advertise compression support.
+     */
+    public static final String COMPRESSION_KEY = "Compression";
+    /**
+     * The value of {@link #COMPRESSION_KEY} advertising support for this layer.
+     */
+    public static final String DEFLATE = "deflate";
+    /**
+     * The compression level to use by default.
+     */
+    public static final int DEFAULT_LEVEL =
+            Integer.getInteger(DeflateFilterLayer.class.getName() + ".level", Deflater.BEST_SPEED);
+    /**
+     * Our logger.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DeflateFilterLayer.class.getName());
+    /**
+     * Frame type for uncompressed data.
+     */
+    private static final byte STORED = 0;
+    /**
+     * Frame type for data compressed into the deflate stream.
+     */
+    private static final byte DEFLATED = 1;
+    /**
+     * The size of the frame header.
+     */
+    private static final int HEADER_LENGTH = 4;
+    /**
+     * The maximum amount of data to place in one frame.
+     */
+    private static final int MAX_FRAME_LENGTH = 65536;
+    /**
+     * Frames smaller than this are always sent {@link #STORED} as the flush overhead outweighs any saving.
+     */
+    private static final int MIN_DEFLATE_LENGTH = 32;
+    /**
+     * How many bytes to send {@link #STORED} after a frame that did not compress well.
+     */
+    private static final int BYPASS_LENGTH = 256 * 1024;
+    /**
+     * Negotiation has not happened yet.
+     */
+    private static final int UNDECIDED = 0;
+    /**
+     * Negotiation failed, data is passed through.
+     */
+    private static final int PASSTHROUGH = 1;
+    /**
+     * Negotiation succeeded, data is framed.
+     */
+    private static final int FRAMED = 2;
+    /**
+     * Lock for receiving messages.
+     */
+    private final Object recvLock = new Object();
+    /**
+     * Lock for sending messages.
+     */
+    private final Object sendLock = new Object();
+    /**
+     * The compression level.
+     */
+    private final int level;
+    /**
+     * Whether to send data that does not compress well uncompressed.
+     */
+    private final boolean bypass;
+    /**
+     * The negotiation state.
+     */
+    private volatile int state = UNDECIDED;
+    /**
+     * The queue of messages to send once the negotiation has been completed.
+     */
+    @GuardedBy("sendLock")
+    private final ByteBufferQueue sendQueue = new ByteBufferQueue(8192);
+    /**
+     * The compressor, created once compression has been negotiated.
+     */
+    @GuardedBy("sendLock")
+    private Deflater deflater;
+    /**
+     * The buffer that frames are assembled into.
+     */
+    @GuardedBy("sendLock")
+    private byte[] sendBuffer;
+    /**
+     * The staging buffer for data that is not array backed.
+     */
+    @GuardedBy("sendLock")
+    private byte[] sendInput;
+    /**
+     * The number of bytes left to send {@link #STORED} before trying to compress again.
+     */
+    @GuardedBy("sendLock")
+    private int bypassRemaining;
+    /**
+     * The decompressor, created once compression has been negotiated.
+     */
+    @GuardedBy("recvLock")
+    private Inflater inflater;
+    /**
+     * The header of the frame being received.
+     */
+    @GuardedBy("recvLock")
+    private final ByteBuffer recvHeader = ByteBuffer.allocate(HEADER_LENGTH);
+    /**
+     * The type of the frame being received.
+     */
+    @GuardedBy("recvLock")
+    private byte recvType;
+    /**
+     * The number of bytes of the frame being received that have yet to arrive.
+     */
+    @GuardedBy("recvLock")
+    private int recvRemaining;
+    /**
+     * The staging buffer for compressed data that is not array backed.
+     */
+    @GuardedBy("recvLock")
+    private byte[] recvInput;
+    /**
+     * The buffer that decompressed data is inflated into.
+     */
+    @GuardedBy("recvLock")
+    private byte[] recvOutput;
+
+    /**
+     * Creates a layer using the {@link #DEFAULT_LEVEL} with bypass of data that does not compress enabled.
+     */
+    public DeflateFilterLayer() {
+        this(DEFAULT_LEVEL, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param level  the compression level, see {@link Deflater#setLevel(int)}.
+     * @param bypass {@code true} to send data that does not compress well (i.e. already compressed data)
+     *               without compressing it.
+     */
+    public DeflateFilterLayer(int level, boolean bypass) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+        this.bypass = bypass;
+    }
+
+    /**
+     * Adds the advertisement of compression support to the supplied headers.
+     *
+     * @param headers the headers to send.
+     * @return a copy of the headers that advertises compression support.
+     */
+    @Nonnull
+    public Map<String, String> decorate(@Nonnull Map<String, String> headers) {
+        Map<String, String> result = new HashMap<>(headers);
+        result.put(COMPRESSION_KEY, DEFLATE);
+        return result;
+    }
+
+    /**
+     * Wraps a {@link ConnectionHeadersFilterLayer.Listener} so that compression is negotiated once the supplied
+     * listener has accepted the remote headers.
+     *
+     * @param delegate the listener to decide the response to the remote headers.
+     * @return the listener to supply to the {@link ConnectionHeadersFilterLayer}.
+     */
+    @Nonnull
+    public ConnectionHeadersFilterLayer.Listener listener(
+            @Nonnull final ConnectionHeadersFilterLayer.Listener delegate) {
+        return new ConnectionHeadersFilterLayer.Listener() {
+            @Override
+            public void onReceiveHeaders(Map<String, String> headers) throws ConnectionRefusalException {
+                delegate.onReceiveHeaders(headers);
+                try {
+                    negotiate(headers);
+                } catch (IOException e) {
+                    throw new ConnectionRefusalException(e, "Could not flush data queued during negotiation");
+                }
+            }
+        };
+    }
+
+    /**
+     * Decides whether to compress based on the remote headers and flushes any data queued in the meantime.
+     *
+     * @param headers the remote headers.
+     * @throws IOException if the queued data could not be sent.
+     */
+    private void negotiate(Map<String, String> headers) throws IOException {
+        boolean compress = DEFLATE.equals(headers.get(COMPRESSION_KEY));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "[{0}] Remote {1} compression", new Object[]{
+                    stack().name(), compress ? "accepts" : "does not support"
+            });
+        }
+        synchronized (recvLock) {
+            if (compress) {
+                inflater = new Inflater(true);
+                recvOutput = new byte[MAX_FRAME_LENGTH];
+            }
+        }
+        synchronized (sendLock) {
+            if (compress) {
+                deflater = new Deflater(level, true);
+                sendBuffer = new byte[HEADER_LENGTH + MAX_FRAME_LENGTH + MAX_FRAME_LENGTH / 8];
+                state = FRAMED;
+                if (sendQueue.hasRemaining()) {
+                    ByteBuffer tmp = sendQueue.newByteBuffer();
+                    while (sendQueue.hasRemaining()) {
+                        tmp.clear();
+                        sendQueue.get(tmp);
+                        tmp.flip();
+                        send(tmp);
+                    }
+                }
+            } else {
+                state = PASSTHROUGH;
+                if (sendQueue.hasRemaining()) {
+                    flushSend(sendQueue);
+                }
+            }
+        }
+        if (!compress) {
+            completed();
+        }
+    }
+
+    /**
+     * Returns {@code true} if compression has been negotiated.
+     *
+     * @return {@code true} if compression has been negotiated.
+     */
+    public boolean isCompressing() {
+        return state == FRAMED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRecv(@Nonnull ByteBuffer data) throws IOException {
+        synchronized (recvLock) {
+            switch (state) {
+                case FRAMED:
+                    break;
+                case PASSTHROUGH:
+                    next().onRecv(data);
+                    return;
+                default:
+                    // the ConnectionHeadersFilterLayer does not pass anything up until the headers are processed
+                    throw new IllegalStateException("Received data before compression was negotiated");
+            }
+            while (data.hasRemaining()) {
+                if (recvRemaining == 0) {
+                    while (recvHeader.hasRemaining() && data.hasRemaining()) {
+                        recvHeader.put(data.get());
+                    }
+                    if (recvHeader.hasRemaining()) {
+                        return;
+                    }
+                    recvType = recvHeader.get(0);
+                    recvRemaining = ((recvHeader.get(1) & 0xff) << 16)
+                            | ((recvHeader.get(2) & 0xff) << 8)
+                            | (recvHeader.get(3) & 0xff);
+                    recvHeader.clear();
+                    if (recvType != STORED && recvType != DEFLATED) {
+                        throw new IOException("Corrupt compression frame type: " + recvType);
+                    }
+                    continue;
+                }
+                int length = Math.min(recvRemaining, data.remaining());
+                ByteBuffer frame = data.duplicate();
+                frame.limit(frame.position() + length);
+                data.position(frame.limit());
+                recvRemaining -= length;
+                if (recvType == STORED) {
+                    next().onRecv(frame);
+                } else {
+                    inflate(frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inflates the supplied compressed data and passes the result up the stack.
+     *
+     * @param frame the compressed data.
+     * @throws IOException if the data is corrupt or could not be received.
+     */
+    @GuardedBy("recvLock")
+    private void inflate(ByteBuffer frame) throws IOException {
+        int length = frame.remaining();
+        if (frame.hasArray()) {
+            inflater.setInput(frame.array(), frame.arrayOffset() + frame.position(), length);
+        } else {
+            if (recvInput == null || recvInput.length < length) {
+                recvInput = new byte[Math.max(length, 8192)];
+            }
+            frame.get(recvInput, 0, length);
+            inflater.setInput(recvInput, 0, length);
+        }
+        try {
+            int count;
+            while ((count = inflater.inflate(recvOutput)) > 0) {
+                next().onRecv(ByteBuffer.wrap(recvOutput, 0, count));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRecvClosed(IOException cause) throws IOException {
+        synchronized (recvLock) {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            recvOutput = null;
+            recvInput = null;
+        }
+        super.onRecvClosed(cause);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doSend(@Nonnull ByteBuffer data) throws IOException {
+        synchronized (sendLock) {
+            switch (state) {
+                case FRAMED:
+                    send(data);
+                    break;
+                case PASSTHROUGH:
+                    next().doSend(data);
+                    break;
+                default:
+                    sendQueue.put(data);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Frames the supplied data and sends it down the stack.
+     *
+     * @param data the data to send.
+     * @throws IOException if the data could not be sent.
+     */
+    @GuardedBy("sendLock")
+    private void send(ByteBuffer data) throws IOException {
+        if (deflater == null) {
+            throw new IOException("Send side is closed");
+        }
+        while (data.hasRemaining()) {
+            int length = Math.min(data.remaining(), MAX_FRAME_LENGTH);
+            int frameLength;
+            if (length < MIN_DEFLATE_LENGTH || bypassRemaining > 0) {
+                data.get(sendBuffer, HEADER_LENGTH, length);
+                bypassRemaining = Math.max(0, bypassRemaining - length);
+                frameLength = store(length);
+            } else {
+                if (data.hasArray()) {
+                    deflater.setInput(data.array(), data.arrayOffset() + data.position(), length);
+                    data.position(data.position() + length);
+                } else {
+                    if (sendInput == null || sendInput.length < length) {
+                        sendInput = new byte[Math.max(length, 8192)];
+                    }
+                    data.get(sendInput, 0, length);
+                    deflater.setInput(sendInput, 0, length);
+                }
+                frameLength = deflate();
+                if (bypass && frameLength - HEADER_LENGTH >= length - length / 16) {
+                    if (LOGGER.isLoggable(Level.FINEST)) {
+                        LOGGER.log(Level.FINEST, "[{0}] {1} bytes compressed to {2}, bypassing compression",
+                                new Object[]{stack().name(), length, frameLength - HEADER_LENGTH});
+                    }
+                    bypassRemaining = BYPASS_LENGTH;
+                }
+            }
+            next().doSend(ByteBuffer.wrap(sendBuffer, 0, frameLength));
+        }
+    }
+
+    /**
+     * Writes the header of a {@link #STORED} frame whose content is already in the {@link #sendBuffer}.
+     *
+     * @param length the length of the content.
+     * @return the length of the frame.
+     */
+    @GuardedBy("sendLock")
+    private int store(int length) {
+        header(STORED, length);
+        return HEADER_LENGTH + length;
+    }
+
+    /**
+     * Deflates the pending input of the {@link #deflater} into a {@link #DEFLATED} frame in the {@link #sendBuffer}.
+     *
+     * @return the length of the frame.
+     */
+    @GuardedBy("sendLock")
+    private int deflate() {
+        int position = HEADER_LENGTH;
+        while (true) {
+            // a full flush resets the dictionary, so that a frame never refers back to the data of earlier frames
+            int count = deflater.deflate(sendBuffer, position, sendBuffer.length - position, Deflater.FULL_FLUSH);
+            position += count;
+            if (position < sendBuffer.length) {
+                break;
+            }
+            // a full buffer means there may be more output pending
+            sendBuffer = Arrays.copyOf(sendBuffer, sendBuffer.length * 2);
+        }
+        header(DEFLATED, position - HEADER_LENGTH);
+        return position;
+    }
+
+    /**
+     * Writes a frame header at the start of the {@link #sendBuffer}.
+     *
+     * @param type   the frame type.
+     * @param length the length of the frame content.
+     */
+    @GuardedBy("sendLock")
+    private void header(byte type, int length) {
+        sendBuffer[0] = type;
+        sendBuffer[1] = (byte) (length >>> 16);
+        sendBuffer[2] = (byte) (length >>> 8);
+        sendBuffer[3] = (byte) length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doCloseSend() throws IOException {
+        synchronized (sendLock) {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+        super.doCloseSend();
+    }
+}
@@ -56,6 +56,13 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
      * Our logger.
      */
     private static final Logger LOGGER = Logger.getLogger(NIONetworkLayer.class.getName());
+    /**
+     * The number of bytes to read from the channel, in as many reads as it takes, before passing them up the stack.
+     * Defaults to {@code 64KiB} via a system property.
+     * @since 3.37
+     */
+    private static final int RECV_BATCH_SIZE =
+            Integer.getInteger(NIONetworkLayer.class.getName() + ".recvBatchSize", 65536);
     /**
      * We use this lock to linearize writes
      */
@@ -84,6 +91,11 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
      * The {@link SelectionKey} on our {@link IOHub#getSelector()} for {@link #in}.
      */
     private SelectionKey recvKey;
+    /**
+     * Set while the stack does not want any more data for now, in which case we do not re-register the read
+     * interest until {@link #doResumeRecv()}.
+     */
+    private volatile boolean recvPaused;
 
     /**
      * Constructor.
@@ -118,6 +130,28 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
         sendQueue = newByteBufferQueue();
     }
 
+    /**
+     * Passes what has been read into the buffer up the stack, then clears the buffer for re-use.
+     *
+     * @param recv       the buffer being read into.
+     * @param logFinest  whether to log the number of bytes.
+     * @throws IOException if the layers above fail to process the data.
+     */
+    private void deliver(ByteBuffer recv, boolean logFinest) throws IOException {
+        if (recv.position() == 0) {
+            return;
+        }
+        recv.flip();
+        if (logFinest) {
+            LOGGER.log(Level.FINEST, "[{0}] RECV: {1} bytes",
+                    new Object[]{stack().name(), recv.remaining()});
+        }
+        while (recv.hasRemaining()) {
+            onRead(recv);
+        }
+        recv.clear();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -132,17 +166,36 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
             try {
                 if (in.isOpen()) {
                     final boolean logFinest = LOGGER.isLoggable(Level.FINEST);
-                    ByteBuffer recv = acquire();
+                    ByteBuffer recv = getIoHub().acquire(RECV_BATCH_SIZE);
                     try {
                         READ:
                         while (true) {
-                            switch (in.read(recv)) {
+                            if (recvPaused) {
+                                // the read interest gets re-registered by doResumeRecv()
+                                deliver(recv, logFinest);
+                                break READ;
+                            }
+                            int count;
+                            try {
+                                count = in.read(recv);
+                            } catch (IOException e) {
+                                // pass up what was read before the failure, then handle the failure as usual
+                                try {
+                                    deliver(recv, logFinest);
+                                } catch (IOException suppressed) {
+                                    e.addSuppressed(suppressed);
+                                }
+                                throw e;
+                            }
+                            switch (count) {
                                 case -1:
+                                    deliver(recv, logFinest);
                                     // don't cancel recvKey here, out may still be open & can share same selector key
                                     onRecvClosed();
                                     break READ;
                                 case 0:
                                     // out of data
+                                    deliver(recv, logFinest);
                                     if (recvKey.isValid() && in.isOpen()) {
                                         getIoHub().addInterestRead(recvKey);
                                     } else {
@@ -151,16 +204,11 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
                                     }
                                     break READ;
                                 default:
-                                    recv.flip();
-                                    if (logFinest) {
-                                        LOGGER.log(Level.FINEST, "[{0}] RECV: {1} bytes",
-                                                new Object[]{stack().name(), recv.remaining()});
+                                    // keep filling the buffer while there is data, so that the layers above get
+                                    // fewer and larger chunks to process
+                                    if (!recv.hasRemaining()) {
+                                        deliver(recv, logFinest);
                                     }
-                                    while (recv.hasRemaining()) {
-                                        onRead(recv);
-                                    }
-                                    // it's always clear when we get from acquire, so clear again for re-use
-                                    recv.clear();
                                     break;
                             }
                         }
@@ -301,6 +349,26 @@ public class NIONetworkLayer extends NetworkLayer implements IOHubReadyListener
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doPauseRecv() {
+        recvPaused = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doResumeRecv() {
+        recvPaused = false;
+        SelectionKey recvKey = this.recvKey;
+        if (recvKey != null && recvKey.isValid() && in.isOpen()) {
+            getIoHub().addInterestRead(recvKey);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,11 +17,16 @@ package org.jenkinsci.remoting.protocol.impl;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -45,6 +50,14 @@ public class SSLEngineFilterLayer extends FilterLayer {
      * Our logger.
      */
     private static final Logger LOGGER = Logger.getLogger(SSLEngineFilterLayer.class.getName());
+    /**
+     * The most plain text a TLS record can hold.
+     */
+    private static final int MAX_RECORD_SIZE = 16384;
+    /**
+     * The most queued messages to pass to a single {@link SSLEngine#wrap(ByteBuffer[], int, int, ByteBuffer)}.
+     */
+    private static final int MAX_WRAP_BUFFERS = 64;
 
     /**
      * The {@link SSLEngine} to use.
@@ -56,6 +69,11 @@ public class SSLEngineFilterLayer extends FilterLayer {
      */
     @CheckForNull
     private final Listener listener;
+    /**
+     * The executor for the delegated tasks of the {@link SSLEngine} or {@code null} to use the executor of the stack.
+     */
+    @CheckForNull
+    private final Executor delegatedTaskExecutor;
     /**
      * Lock to guard against concurrent calls to {@link SSLEngine#wrap(ByteBuffer, ByteBuffer)}. The lock is required
      * as calls to wrap can originate from both reads and writes.
@@ -75,7 +93,25 @@ public class SSLEngineFilterLayer extends FilterLayer {
      * Buffer to hold any partial reads until we have a complete SSL record.
      */
     @CheckForNull
+    @GuardedBy("recvLock")
     private ByteBuffer previous;
+    /**
+     * Lock to guard the unwrapping, as reads are resumed from another thread once the delegated tasks of the
+     * {@link SSLEngine} complete.
+     */
+    private final Object recvLock = new Object();
+    /**
+     * Whether the delegated tasks of the {@link SSLEngine} are running, in which case the data read is accumulated
+     * in {@link #previous} until they complete.
+     */
+    @GuardedBy("recvLock")
+    private boolean runningTasks;
+    /**
+     * The buffer to encrypt application messages into, kept from one write to the next.
+     */
+    @CheckForNull
+    @GuardedBy("wrapLock")
+    private ByteBuffer packetBuffer;
     private final AtomicReference<ByteBuffer> directBufferRef = new AtomicReference<ByteBuffer>();
 
     /**
@@ -85,8 +121,24 @@ public class SSLEngineFilterLayer extends FilterLayer {
      * @param listener the listener to notify when handshaking is completed.
      */
     public SSLEngineFilterLayer(@Nonnull SSLEngine engine, @CheckForNull Listener listener) {
+        this(engine, listener, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param engine                the engine to use.
+     * @param listener              the listener to notify when handshaking is completed.
+     * @param delegatedTaskExecutor the executor for the delegated tasks of the engine (the CPU intensive parts of the
+     *                              handshake) or {@code null} to use the executor of the stack. Only the tasks
+     *                              run there, and the tasks it rejects run on the executor of the stack instead.
+     * @since 3.37
+     */
+    public SSLEngineFilterLayer(@Nonnull SSLEngine engine, @CheckForNull Listener listener,
+                                @CheckForNull Executor delegatedTaskExecutor) {
         this.sslEngine = engine;
         this.listener = listener;
+        this.delegatedTaskExecutor = delegatedTaskExecutor;
         previous = null;
     }
 
@@ -109,12 +161,15 @@ public class SSLEngineFilterLayer extends FilterLayer {
      */
     @Override
     public void onRecv(@Nonnull ByteBuffer readBuffer) throws IOException {
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.log(Level.FINEST, "[{0}] RECV: {1} bytes plus {2} retained",
-                    new Object[]{stack().name(), readBuffer.remaining(), previous == null ? 0 : previous.remaining()});
-        }
         try {
-            processRead(readBuffer);
+            synchronized (recvLock) {
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "[{0}] RECV: {1} bytes plus {2} retained",
+                            new Object[]{stack().name(), readBuffer.remaining(),
+                                    previous == null ? 0 : previous.remaining()});
+                }
+                processRead(readBuffer);
+            }
         } catch (RuntimeException e) {
             Throwable cause = e.getCause();
             while (cause != null && cause instanceof RuntimeException) {
@@ -195,6 +250,13 @@ public class SSLEngineFilterLayer extends FilterLayer {
      */
     @Override
     public void doSend(@Nonnull ByteBuffer message) throws IOException {
+        synchronized (wrapLock) {
+            if (State.CREDENTAILS_AVAILABLE.equals(state) && messages.isEmpty()) {
+                // nothing to keep the order with, so no need to copy the message
+                processWrite(new ByteBuffer[]{message});
+                return;
+            }
+        }
         messages.add(ByteBufferUtils.duplicate(message));
         if (State.CREDENTAILS_AVAILABLE.equals(state)) {
             processQueuedWrites();
@@ -242,13 +304,19 @@ public class SSLEngineFilterLayer extends FilterLayer {
      */
     private void processQueuedWrites() {
         synchronized (wrapLock) {
+            List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
             ByteBuffer request;
             while (null != (request = messages.poll())) {
-                try {
-                    processWrite(request);
-                } catch (IOException e) {
-                    // ignore
-                }
+                batch.add(request);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                // small messages are encrypted together in as few records as they fit in
+                processWrite(batch.toArray(new ByteBuffer[batch.size()]));
+            } catch (IOException e) {
+                // ignore
             }
         }
     }
@@ -319,7 +387,17 @@ public class SSLEngineFilterLayer extends FilterLayer {
      * @param readBuffer the read buffer to pull data from.
      * @throws IOException if there was an error reading data.
      */
+    @GuardedBy("recvLock")
     private void processRead(@Nonnull ByteBuffer readBuffer) throws IOException {
+        if (runningTasks) {
+            // hold on to the data until the engine is ready for it
+            if (readBuffer.hasRemaining()) {
+                previous = previous == null
+                        ? ByteBufferUtils.duplicate(readBuffer)
+                        : ByteBufferUtils.accumulate(readBuffer, previous);
+            }
+            return;
+        }
         ByteBuffer tempBuffer;
 
         if (previous != null) {
@@ -376,12 +454,10 @@ public class SSLEngineFilterLayer extends FilterLayer {
                     handshakeStatus = sslEngine.getHandshakeStatus();
                     break;
                 case NEED_TASK:
-                    Runnable task;
-
-                    while ((task = sslEngine.getDelegatedTask()) != null) {
-                        task.run();
-                    }
-                    handshakeStatus = sslEngine.getHandshakeStatus();
+                    // the tasks are CPU bound (e.g. checking certificates) so run them on another thread and resume
+                    // the handshake once they are done, instead of holding up this one
+                    runDelegatedTasks();
+                    done = true;
                     break;
                 case NEED_WRAP:
                     synchronized (wrapLock) {
@@ -473,57 +549,164 @@ public class SSLEngineFilterLayer extends FilterLayer {
         }
     }
 
+    /**
+     * Runs the delegated tasks of the {@link SSLEngine} on the delegated task executor (or the executor of the stack),
+     * then resumes processing the data read meanwhile on the executor of the stack.
+     */
+    @GuardedBy("recvLock")
+    private void runDelegatedTasks() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        runningTasks = true;
+        final Runnable resume = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (recvLock) {
+                    runningTasks = false;
+                }
+                try {
+                    onRecv(EMPTY_BUFFER);
+                } catch (IOException e) {
+                    // already reported by onRecv
+                }
+            }
+        };
+        if (delegatedTaskExecutor != null) {
+            try {
+                delegatedTaskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runAll(tasks);
+                        } finally {
+                            try {
+                                // only the tasks belong on the delegated task executor, the stack carries on reading
+                                stack().execute(resume);
+                            } catch (RejectedExecutionException e) {
+                                abort(new IOException("Cannot resume after the handshake tasks", e));
+                            }
+                        }
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // the dedicated executor is shutting down or saturated, fall back to the executor of the stack
+            }
+        }
+        stack().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runAll(tasks);
+                } finally {
+                    resume.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the delegated tasks of the {@link SSLEngine}.
+     *
+     * @param tasks the tasks.
+     */
+    private static void runAll(@Nonnull List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
     /**
      * Process the write through the SSLEngine.
      *
-     * @param message the data to write.
+     * @param messages the data to write, encrypted together in as few records as possible.
      * @throws IOException if something goes wrong.
      */
-    private void processWrite(@Nonnull ByteBuffer message) throws IOException {
-        ByteBuffer appBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
-        boolean done = false;
-        while (!done) {
-            // Encrypt the message
-            if (LOGGER.isLoggable(Level.FINEST)) {
-                LOGGER.log(Level.FINEST, "[{0}] APP ENCODE: {1} bytes",
-                        new Object[]{stack().name(), message.remaining()});
-            }
-            SSLEngineResult result = sslEngine.wrap(message, appBuffer);
-            if (LOGGER.isLoggable(Level.FINEST)) {
-                LOGGER.log(Level.FINEST, "[{0}] Handshake status: {1} engine result: {2}",
-                        new Object[]{stack().name(), result.getHandshakeStatus(), result});
-            }
+    @GuardedBy("wrapLock")
+    private void processWrite(@Nonnull ByteBuffer[] messages) throws IOException {
+        ByteBuffer appBuffer = packetBuffer;
+        if (appBuffer == null) {
+            appBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        } else {
+            appBuffer.clear();
+        }
+        try {
+            int first = 0;
+            boolean done = false;
+            while (!done) {
+                while (first < messages.length - 1 && !messages[first].hasRemaining()) {
+                    first++;
+                }
+                // the engine looks at all the buffers it is given on every call, so only give it about a record
+                int length = 0;
+                long batchSize = 0;
+                while (first + length < messages.length && length < MAX_WRAP_BUFFERS && batchSize < MAX_RECORD_SIZE) {
+                    batchSize += messages[first + length].remaining();
+                    length++;
+                }
+                // Encrypt the messages
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "[{0}] APP ENCODE: {1} bytes in {2} messages",
+                            new Object[]{stack().name(), batchSize, length});
+                }
+                SSLEngineResult result = sslEngine.wrap(messages, first, length, appBuffer);
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.log(Level.FINEST, "[{0}] Handshake status: {1} engine result: {2}",
+                            new Object[]{stack().name(), result.getHandshakeStatus(), result});
+                }
 
-            switch (result.getStatus()) {
-                case BUFFER_OVERFLOW:
-                    // Increase the buffer size as needed
-                    appBuffer = ByteBuffer.allocate(appBuffer.capacity() + 4096);
-                    break;
-                case CLOSED:
-                    switchToNoSecure();
-                    done = true;
-                    break;
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        // Increase the buffer size as needed
+                        appBuffer = ByteBuffer.allocate(appBuffer.capacity() + 4096);
+                        break;
+                    case CLOSED:
+                        switchToNoSecure();
+                        done = true;
+                        break;
 
-                case BUFFER_UNDERFLOW: // $FALL-THROUGH$
-                case OK:
-                    // We are done. Flip the buffer and push it to the write queue.
-                    appBuffer.flip();
-                    done = !message.hasRemaining();
-                    if (appBuffer.hasRemaining()) {
-                        if (LOGGER.isLoggable(Level.FINEST)) {
-                            LOGGER.log(Level.FINEST, "[{0}] APP SEND: {1} bytes",
-                                    new Object[]{stack().name(), appBuffer.remaining()});
-                        }
-                        while (appBuffer.hasRemaining()) {
-                            next().doSend(appBuffer);
+                    case BUFFER_UNDERFLOW: // $FALL-THROUGH$
+                    case OK:
+                        // We are done. Flip the buffer and push it to the write queue.
+                        appBuffer.flip();
+                        done = first + length == messages.length && remaining(messages, first, length) == 0;
+                        if (appBuffer.hasRemaining()) {
+                            if (LOGGER.isLoggable(Level.FINEST)) {
+                                LOGGER.log(Level.FINEST, "[{0}] APP SEND: {1} bytes",
+                                        new Object[]{stack().name(), appBuffer.remaining()});
+                            }
+                            while (appBuffer.hasRemaining()) {
+                                next().doSend(appBuffer);
+                            }
                         }
-                    }
-                    break;
-            }
-            if (!done) {
-                appBuffer.clear();
+                        break;
+                }
+                if (!done) {
+                    appBuffer.clear();
+                }
             }
+        } finally {
+            packetBuffer = appBuffer;
+        }
+    }
+
+    /**
+     * Counts the bytes left to write.
+     *
+     * @param messages the messages.
+     * @param first    the first message to count.
+     * @param length   the number of messages to count.
+     * @return the number of bytes left.
+     */
+    private static long remaining(ByteBuffer[] messages, int first, int length) {
+        long remaining = 0;
+        for (int i = first; i < first + length; i++) {
+            remaining += messages[i].remaining();
         }
+        return remaining;
     }
 
     /**
@@ -0,0 +1,312 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A concurrent map from {@code int} keys to objects, without boxing the keys.
+ *
+ * <p>
+ * The keys are spread over a number of independently locked stripes, each one being an open addressing
+ * hash table with linear probing. Threads working with different keys therefore rarely contend, and
+ * no entry objects are allocated by {@link #put(int, Object)}.
+ * Null values are not supported.
+ *
+ * @param <V> the type of the values.
+ * @since 3.37
+ */
+@Restricted(NoExternalUse.class)
+public class ConcurrentIntObjectMap<V> {
+    /**
+     * The default number of stripes.
+     */
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 32;
+    /**
+     * The initial capacity of each stripe, must be a power of two.
+     */
+    private static final int INITIAL_STRIPE_CAPACITY = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Creates a map with the default number of stripes.
+     */
+    public ConcurrentIntObjectMap() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a map.
+     *
+     * @param concurrencyLevel the estimated number of concurrently updating threads, rounded up to a power of two.
+     */
+    public ConcurrentIntObjectMap(int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        int n = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1);
+        stripes = new Stripe[n];
+        int shift = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe(shift);
+        }
+        stripeMask = n - 1;
+    }
+
+    /**
+     * Spreads the key bits, so that sequential keys do not cluster.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Stripe stripeFor(int key) {
+        return stripes[hash(key) & stripeMask];
+    }
+
+    /**
+     * Gets the value mapped to the key.
+     *
+     * @param key the key.
+     * @return the value or {@code null} if there is no mapping.
+     */
+    @CheckForNull
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) stripeFor(key).get(key);
+    }
+
+    /**
+     * Maps the key to the value.
+     *
+     * @param key   the key.
+     * @param value the value.
+     * @return the previous value or {@code null} if there was no mapping.
+     */
+    @CheckForNull
+    @SuppressWarnings("unchecked")
+    public V put(int key, @Nonnull V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        return (V) stripeFor(key).put(key, value);
+    }
+
+    /**
+     * Removes the mapping of the key.
+     *
+     * @param key the key.
+     * @return the removed value or {@code null} if there was no mapping.
+     */
+    @CheckForNull
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        return (V) stripeFor(key).remove(key);
+    }
+
+    /**
+     * Gets the number of mappings. With concurrent updates this is only an estimate.
+     *
+     * @return the number of mappings.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /**
+     * Checks if there are no mappings.
+     *
+     * @return {@code true} if there are no mappings.
+     */
+    public boolean isEmpty() {
+        for (Stripe s : stripes) {
+            if (s.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes a snapshot of the values.
+     *
+     * @return the values, in no particular order.
+     */
+    @Nonnull
+    public List<V> values() {
+        List<V> result = new ArrayList<V>();
+        for (Stripe s : stripes) {
+            s.copyValues(result, false);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all the mappings.
+     *
+     * @return the values which were removed, in no particular order.
+     */
+    @Nonnull
+    public List<V> removeAll() {
+        List<V> result = new ArrayList<V>();
+        for (Stripe s : stripes) {
+            s.copyValues(result, true);
+        }
+        return result;
+    }
+
+    /**
+     * A single open addressing hash table. {@code values[i] == null} marks a free slot.
+     */
+    private static final class Stripe {
+        /**
+         * The low bits of the hash select the stripe, so the slots use the remaining ones.
+         */
+        private final int shift;
+        private int[] keys = new int[INITIAL_STRIPE_CAPACITY];
+        private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        Stripe(int shift) {
+            this.shift = shift;
+        }
+
+        private int slot(int key, int mask) {
+            return (hash(key) >>> shift) & mask;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized Object get(int key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        synchronized Object put(int key, Object value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    Object old = values[i];
+                    values[i] = value;
+                    return old;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            if (size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            return null;
+        }
+
+        synchronized Object remove(int key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    Object old = values[i];
+                    delete(i, mask);
+                    size--;
+                    if (keys.length > INITIAL_STRIPE_CAPACITY && size * 8 < keys.length) {
+                        resize(keys.length / 2);
+                    }
+                    return old;
+                }
+            }
+            return null;
+        }
+
+        synchronized <V> void copyValues(List<V> result, boolean clear) {
+            for (Object v : values) {
+                if (v != null) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) v;
+                    result.add(value);
+                }
+            }
+            if (clear) {
+                keys = new int[INITIAL_STRIPE_CAPACITY];
+                values = new Object[INITIAL_STRIPE_CAPACITY];
+                size = 0;
+            }
+        }
+
+        /**
+         * Frees slot {@code i} and shifts back the following entries of the probe sequence,
+         * so that lookups never need tombstones.
+         */
+        private void delete(int i, int mask) {
+            values[i] = null;
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                // can the entry at j move to the hole at i without becoming unreachable?
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[capacity];
+            values = new Object[capacity];
+            int mask = capacity - 1;
+            for (int n = 0; n < oldKeys.length; n++) {
+                if (oldValues[n] != null) {
+                    int i = slot(oldKeys[n], mask);
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[n];
+                    values[i] = oldValues[n];
+                }
+            }
+        }
+    }
+}
@@ -24,8 +24,15 @@
 package org.jenkinsci.remoting.util;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -63,6 +70,125 @@ public class ExecutorServiceUtils {
         }
     }
     
+    /**
+     * Checks whether the running JVM can create virtual threads (Java 21 and above).
+     * @since 3.37
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a factory of virtual threads named {@code name-0}, {@code name-1}, and so on.
+     *
+     * @param name prefix of the thread names
+     * @return {@code null} if the running JVM does not support virtual threads
+     * @since 3.37
+     */
+    @CheckForNull
+    public static ThreadFactory newVirtualThreadFactory(@Nonnull String name) {
+        if (VirtualThreads.OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            builder = VirtualThreads.NAME.invoke(builder, name + "-", 0L);
+            return (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.FINE, "Unable to create virtual threads", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an {@link ExecutorService} that starts a new thread from the factory for each task,
+     * like {@code Executors.newThreadPerTaskExecutor} does on Java 21 and above.
+     * Meant for factories of virtual threads, which are cheap enough not to be pooled.
+     *
+     * @return {@code null} if the running JVM does not support virtual threads
+     * @since 3.37
+     */
+    @CheckForNull
+    public static ExecutorService newThreadPerTaskExecutor(@Nonnull ThreadFactory factory) {
+        if (VirtualThreads.PER_TASK == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) VirtualThreads.PER_TASK.invoke(null, factory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.FINE, "Unable to create a thread per task executor", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an {@link ExecutorService} that runs each task in a new virtual thread.
+     *
+     * @param name prefix of the thread names
+     * @return {@code null} if the running JVM does not support virtual threads
+     * @since 3.37
+     */
+    @CheckForNull
+    public static ExecutorService newVirtualThreadPerTaskExecutor(@Nonnull String name) {
+        ThreadFactory factory = newVirtualThreadFactory(name);
+        return factory == null ? null : newThreadPerTaskExecutor(factory);
+    }
+
+    /**
+     * Checks whether the thread is a virtual thread.
+     *
+     * @param thread the thread
+     * @return {@code false} if the running JVM does not support virtual threads
+     * @since 3.37
+     */
+    public static boolean isVirtualThread(@Nonnull Thread thread) {
+        if (VirtualThreads.IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) VirtualThreads.IS_VIRTUAL.invoke(thread);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reflective access to the virtual thread API, which this library cannot link against directly.
+     * All fields are {@code null} when the API is missing or, as on Java 19 and 20, is a preview feature
+     * that has not been enabled.
+     */
+    private static final class VirtualThreads {
+        static final Method OF_VIRTUAL;
+        static final Method NAME;
+        static final Method FACTORY;
+        static final Method PER_TASK;
+        static final Method IS_VIRTUAL;
+
+        static {
+            Method ofVirtual = null, name = null, factory = null, perTask = null, isVirtual = null;
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                isVirtual = Thread.class.getMethod("isVirtual");
+                // fails if virtual threads are a preview feature that has not been enabled
+                ofVirtual.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                LOGGER.log(Level.FINE, "Virtual threads are not available", e);
+                ofVirtual = name = factory = perTask = isVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            PER_TASK = perTask;
+            IS_VIRTUAL = isVirtual;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutorServiceUtils.class.getName());
+
     /**
      * Creates a runtime {@link RejectedExecutionException} for {@link ExecutionRejectedException}.
      * This version takes the {@link ExecutionRejectedException#isFatal()} value into account
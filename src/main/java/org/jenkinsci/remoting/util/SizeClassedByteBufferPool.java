@@ -0,0 +1,343 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.CheckForNull;
+
+/**
+ * A pool of direct {@link ByteBuffer}s in power of two size classes, starting from a minimum size.
+ *
+ * <p>
+ * Each thread keeps a few buffers of each class to itself, so that the common case of a thread acquiring and
+ * releasing buffers in turn does not contend on any lock or slot. Buffers that do not fit in the thread cache go
+ * to a shared tier of fixed size slots that is updated with compare and set only. Virtual threads are not given
+ * a cache of their own, as there are too many of them and they do not live long enough.
+ *
+ * <p>
+ * Every buffer the pool keeps, be it in a thread cache or in the shared tier, counts towards a single limit of
+ * retained bytes, so that the direct memory held by the pool stays bounded however many threads use it. Buffers
+ * released past that limit are left to the garbage collector. The buffers in the cache of a thread that died are
+ * handed back to the shared tier once the thread is garbage collected.
+ *
+ * <p>
+ * Requests larger than the largest class are allocated as needed and left to the garbage collector on release,
+ * as are buffers that do not come from a pool of the same sizes.
+ *
+ * @see DirectByteBufferPool
+ * @since 3.37
+ */
+public class SizeClassedByteBufferPool implements ByteBufferPool {
+    /**
+     * The capacity of the buffers of the smallest class.
+     */
+    private final int minBufferSize;
+    /**
+     * The number of size classes.
+     */
+    private final int sizeClasses;
+    /**
+     * The number of buffers of each class a thread may keep.
+     */
+    private final int threadCacheSize;
+    /**
+     * The shared tier, one array of slots per size class.
+     */
+    private final AtomicReferenceArray<ByteBuffer>[] shared;
+    /**
+     * The maximum number of bytes retained by the thread caches and the shared tier together.
+     */
+    private final long maxRetainedBytes;
+    /**
+     * The number of bytes retained by the thread caches and the shared tier together.
+     */
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * Where the caches of threads that were garbage collected turn up.
+     */
+    private final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<Thread>();
+    /**
+     * The caches of the live threads, which keeps their references around until they are enqueued.
+     */
+    private final Set<ThreadCache> threadCaches = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<ByteBuffer[][]> threadCache = new ThreadLocal<ByteBuffer[][]>() {
+        @Override
+        protected ByteBuffer[][] initialValue() {
+            Thread thread = Thread.currentThread();
+            if (threadCacheSize == 0 || ExecutorServiceUtils.isVirtualThread(thread)) {
+                return null;
+            }
+            ThreadCache cache = new ThreadCache(thread, deadThreads, new ByteBuffer[sizeClasses][threadCacheSize]);
+            threadCaches.add(cache);
+            return cache.buffers;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param minBufferSize   the capacity of the buffers of the smallest class.
+     * @param sizeClasses     the number of size classes, each twice the capacity of the previous one.
+     * @param threadCacheSize the number of buffers of each class a thread may keep, {@code 0} to disable.
+     * @param sharedPoolSize  the number of buffers of each class the shared tier may keep.
+     * @param maxRetainedBytes the maximum number of bytes the pool may keep, thread caches included.
+     */
+    @SuppressWarnings("unchecked")
+    public SizeClassedByteBufferPool(int minBufferSize, int sizeClasses, int threadCacheSize, int sharedPoolSize,
+                                     long maxRetainedBytes) {
+        if (minBufferSize <= 0 || sizeClasses <= 0 || ((long) minBufferSize << (sizeClasses - 1)) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid size classes: " + sizeClasses + " from " + minBufferSize);
+        }
+        this.minBufferSize = minBufferSize;
+        this.sizeClasses = sizeClasses;
+        this.threadCacheSize = Math.max(0, threadCacheSize);
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.shared = new AtomicReferenceArray[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            shared[i] = new AtomicReferenceArray<ByteBuffer>(Math.max(0, sharedPoolSize));
+        }
+    }
+
+    /**
+     * Returns the size class for a buffer of the given size.
+     *
+     * @param size the size.
+     * @return the size class, or {@code -1} if larger than the largest class.
+     */
+    private int sizeClassOf(int size) {
+        if (size <= minBufferSize) {
+            return 0;
+        }
+        // smallest n such that minBufferSize << n >= size
+        int n = 32 - Integer.numberOfLeadingZeros((size - 1) / minBufferSize);
+        return n < sizeClasses ? n : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClassOf(size);
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer result = null;
+        ByteBuffer[][] cache = threadCache.get();
+        if (cache != null) {
+            ByteBuffer[] buffers = cache[sizeClass];
+            for (int i = buffers.length - 1; i >= 0; i--) {
+                if (buffers[i] != null) {
+                    result = buffers[i];
+                    buffers[i] = null;
+                    break;
+                }
+            }
+        }
+        if (result == null) {
+            result = pollShared(sizeClass);
+        }
+        if (result == null && expungeDeadThreads()) {
+            result = pollShared(sizeClass);
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+            result = ByteBuffer.allocateDirect(minBufferSize << sizeClass);
+        } else {
+            hits.incrementAndGet();
+            retainedBytes.addAndGet(-result.capacity());
+        }
+        result.limit(size);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClassOf(capacity);
+        if (sizeClass < 0 || capacity != minBufferSize << sizeClass) {
+            // not one of ours, let GC tidy it
+            return;
+        }
+        buffer.clear();
+        if (retainedBytes.addAndGet(capacity) <= maxRetainedBytes) {
+            ByteBuffer[][] cache = threadCache.get();
+            if (cache != null) {
+                ByteBuffer[] buffers = cache[sizeClass];
+                for (int i = 0; i < buffers.length; i++) {
+                    if (buffers[i] == null) {
+                        buffers[i] = buffer;
+                        return;
+                    }
+                }
+            }
+            if (offerShared(sizeClass, buffer)) {
+                return;
+            }
+        }
+        retainedBytes.addAndGet(-capacity);
+        evictions.incrementAndGet();
+        expungeDeadThreads();
+    }
+
+    /**
+     * Takes a buffer from the shared tier.
+     *
+     * @param sizeClass the size class.
+     * @return the buffer, or {@code null} if there is none of that class.
+     */
+    @CheckForNull
+    private ByteBuffer pollShared(int sizeClass) {
+        AtomicReferenceArray<ByteBuffer> slots = shared[sizeClass];
+        for (int i = 0, n = slots.length(); i < n; i++) {
+            if (slots.get(i) != null) {
+                ByteBuffer buffer = slots.getAndSet(i, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts a buffer that is already counted in {@link #retainedBytes} in a free slot of the shared tier.
+     *
+     * @param sizeClass the size class of the buffer.
+     * @param buffer    the buffer.
+     * @return {@code false} if there was no free slot.
+     */
+    private boolean offerShared(int sizeClass, ByteBuffer buffer) {
+        AtomicReferenceArray<ByteBuffer> slots = shared[sizeClass];
+        for (int i = 0, n = slots.length(); i < n; i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the buffers cached by threads that were garbage collected over to the shared tier, or to the
+     * garbage collector if it is full, so that they stop counting against the limit for nothing.
+     *
+     * @return {@code true} if there were any such threads.
+     */
+    private boolean expungeDeadThreads() {
+        boolean expunged = false;
+        Reference<? extends Thread> ref;
+        while ((ref = deadThreads.poll()) != null) {
+            expunged = true;
+            ThreadCache cache = (ThreadCache) ref;
+            threadCaches.remove(cache);
+            for (int sizeClass = 0; sizeClass < sizeClasses; sizeClass++) {
+                for (ByteBuffer buffer : cache.buffers[sizeClass]) {
+                    if (buffer != null && !offerShared(sizeClass, buffer)) {
+                        retainedBytes.addAndGet(-buffer.capacity());
+                        evictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+        return expunged;
+    }
+
+    /**
+     * Returns the number of buffers acquired from the thread caches or the shared tier.
+     *
+     * @return the number of buffers reused.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of buffers that had to be allocated.
+     *
+     * @return the number of buffers allocated.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of buffers released while the pool was full, and left to the garbage collector.
+     *
+     * @return the number of buffers dropped.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of bytes retained by the thread caches and the shared tier.
+     *
+     * @return the number of bytes in the pool.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "SizeClassedByteBufferPool{" + minBufferSize + "x" + sizeClasses
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", retainedBytes=" + retainedBytes + '}';
+    }
+
+    /**
+     * The cache of a thread, which outlives the thread so that its buffers can be reclaimed.
+     */
+    private static final class ThreadCache extends WeakReference<Thread> {
+        /**
+         * The buffers, by size class.
+         */
+        private final ByteBuffer[][] buffers;
+
+        ThreadCache(Thread thread, ReferenceQueue<Thread> queue, ByteBuffer[][] buffers) {
+            super(thread, queue);
+            this.buffers = buffers;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import junit.framework.Test;
+import org.jenkinsci.remoting.util.ListenableFuture;
+
+/**
+ * Tests for {@link AsyncProxy}.
+ */
+public class AsyncProxyTest extends RmiTestBase {
+
+    public void testManyCallsInFlight() throws Exception {
+        Greeter greeter = channel.export(Greeter.class, new GreeterImpl());
+        assertEquals("hello 0,hello 1,hello 2,hello 3,hello 4", channel.call(new GreetMany(greeter, 5)));
+    }
+
+    public void testFailures() throws Exception {
+        Greeter greeter = channel.export(Greeter.class, new GreeterImpl());
+        assertEquals("no name", channel.call(new GreetNobody(greeter)));
+    }
+
+    public void testRejectsLocalObjects() throws Exception {
+        try {
+            AsyncProxy.of(new GreeterImpl(), AsyncGreeter.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public interface Greeter {
+        String greet(String name) throws IOException;
+    }
+
+    public interface AsyncGreeter {
+        ListenableFuture<String> greet(String name);
+    }
+
+    public interface CompletableGreeter {
+        CompletableFuture<String> greet(String name);
+    }
+
+    private static class GreeterImpl implements Greeter {
+        public String greet(String name) throws IOException {
+            if (name == null) {
+                throw new IOException("no name");
+            }
+            return "hello " + name;
+        }
+    }
+
+    private static class GreetMany extends CallableBase<String, Exception> {
+        private final Greeter greeter;
+        private final int n;
+        GreetMany(Greeter greeter, int n) {
+            this.greeter = greeter;
+            this.n = n;
+        }
+        public String call() throws Exception {
+            AsyncGreeter async = AsyncProxy.of(greeter, AsyncGreeter.class);
+            List<ListenableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                futures.add(async.greet(String.valueOf(i)));
+            }
+            StringBuilder b = new StringBuilder();
+            for (ListenableFuture<String> f : futures) {
+                if (b.length() > 0) {
+                    b.append(',');
+                }
+                b.append(f.get());
+            }
+            return b.toString();
+        }
+    }
+
+    private static class GreetNobody extends CallableBase<String, Exception> {
+        private final Greeter greeter;
+        GreetNobody(Greeter greeter) {
+            this.greeter = greeter;
+        }
+        public String call() throws Exception {
+            try {
+                AsyncProxy.of(greeter, CompletableGreeter.class).greet(null).get();
+                fail();
+            } catch (ExecutionException e) {
+                return e.getCause().getMessage();
+            }
+            return null;
+        }
+    }
+
+    public static Test suite() throws Exception {
+        return buildSuite(AsyncProxyTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import junit.framework.Test;
+import org.jenkinsci.remoting.CallableDecorator;
+
+/**
+ * Tests for {@link Channel#callAllAsync(java.util.Collection, boolean)}.
+ */
+public class BatchCallTest extends RmiTestBase {
+
+    public void testSequential() throws Exception {
+        List<Future<Integer>> futures = channel.callAllAsync(squares(100), false);
+        assertEquals(100, futures.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * i, (int) futures.get(i).get());
+        }
+    }
+
+    public void testParallel() throws Exception {
+        List<Future<Integer>> futures = channel.callAllAsync(squares(100), true);
+        assertEquals(100, futures.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * i, (int) futures.get(i).get());
+        }
+    }
+
+    public void testFailuresAreReportedPerCallable() throws Exception {
+        List<Square> callables = squares(10);
+        callables.set(3, new Square(-1));
+        List<Future<Integer>> futures = channel.callAllAsync(callables, false);
+        for (int i = 0; i < 10; i++) {
+            if (i == 3) {
+                try {
+                    futures.get(i).get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalArgumentException);
+                    assertEquals("-1", e.getCause().getMessage());
+                }
+            } else {
+                assertEquals(i * i, (int) futures.get(i).get());
+            }
+        }
+    }
+
+    public void testUnserializableValueFailsOnlyItsCallable() throws Exception {
+        List<Value> callables = Arrays.asList(new Value(1), new Value(-1), new Value(2));
+        List<Future<Object>> futures = channel.callAllAsync(callables, true);
+        assertEquals(1, futures.get(0).get());
+        try {
+            futures.get(1).get();
+            fail();
+        } catch (ExecutionException e) {
+            // the remote side could not send the value back
+        }
+        assertEquals(2, futures.get(2).get());
+    }
+
+    public void testDecoratorsSeeEachCallableOnce() throws Exception {
+        final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+        channel.addLocalExecutionInterceptor(new CallableDecorator() {
+            @Override
+            public <V, T extends Throwable> Callable<V, T> userRequest(Callable<V, T> op, Callable<V, T> stem) {
+                seen.add(op.getClass().getSimpleName());
+                return stem;
+            }
+        });
+        // the batch is sent back to us, where the decorator is installed
+        assertEquals(Integer.valueOf(1 + 4), channel.call(new CallBack()));
+        assertEquals(Arrays.asList("Square", "Square", "Square"), seen);
+    }
+
+    public void testEmpty() throws Exception {
+        assertTrue(channel.callAllAsync(new ArrayList<Square>(), true).isEmpty());
+    }
+
+    private static List<Square> squares(int n) {
+        List<Square> r = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            r.add(new Square(i));
+        }
+        return r;
+    }
+
+    private static class Square extends CallableBase<Integer, IllegalArgumentException> {
+        private final int n;
+
+        Square(int n) {
+            this.n = n;
+        }
+
+        public Integer call() throws IllegalArgumentException {
+            if (n < 0) {
+                throw new IllegalArgumentException(String.valueOf(n));
+            }
+            return n * n;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class Value extends CallableBase<Object, RuntimeException> {
+        private final int n;
+
+        Value(int n) {
+            this.n = n;
+        }
+
+        public Object call() {
+            return n < 0 ? new Object() : n;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class CallBack extends CallableBase<Integer, Exception> {
+        public Integer call() throws Exception {
+            int sum = 0;
+            for (Future<Integer> f : Channel.currentOrFail().callAllAsync(squares(3), false)) {
+                sum += f.get();
+            }
+            return sum;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static Test suite() throws Exception {
+        return buildSuite(BatchCallTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import junit.framework.Test;
+
+/**
+ * Tests for {@link ChannelMetrics}.
+ */
+public class ChannelMetricsTest extends RmiTestBase {
+
+    public void testCallsAreCounted() throws Exception {
+        ChannelMetrics metrics = channel.getMetrics();
+        metrics.reset();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5, (int) channel.call(new Five()));
+        }
+        assertEquals(Long.valueOf(10), metrics.getCommandsSent().get("UserRequest"));
+        // the latency is recorded after the caller has been woken up
+        for (int i = 0; i < 100 && metrics.getCallLatency().getCount() < 10; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, metrics.getCallLatency().getCount());
+        assertTrue(metrics.getCallLatency().getMax() > 0);
+        assertEquals(0, metrics.getPendingCalls());
+
+        StringWriter dump = new StringWriter();
+        channel.dumpPerformanceCounters(new PrintWriter(dump));
+        assertTrue(dump.toString(), dump.toString().contains("Call latency count=10"));
+
+        channel.resetPerformanceCounters();
+        assertEquals(0, metrics.getCallLatency().getCount());
+        assertTrue(metrics.getCommandsSent().isEmpty());
+    }
+
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (long v = 0; v < 100000; v++) {
+            int index = ChannelMetrics.Histogram.index(v);
+            assertTrue(ChannelMetrics.Histogram.lowestValue(index) <= v);
+            assertTrue(ChannelMetrics.Histogram.highestValue(index) >= v);
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+        }
+        int last = ChannelMetrics.Histogram.index(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, ChannelMetrics.Histogram.highestValue(last));
+    }
+
+    public void testHistogramPercentiles() {
+        ChannelMetrics.Histogram histogram = new ChannelMetrics.Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        // within the 1/8th precision of the buckets
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 8);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 8);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    private static class Five extends CallableBase<Integer, RuntimeException> {
+        public Integer call() {
+            return 5;
+        }
+    }
+
+    public static Test suite() throws Exception {
+        return buildSuite(ChannelMetricsTest.class);
+    }
+}
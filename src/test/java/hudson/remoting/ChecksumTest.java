@@ -10,12 +10,15 @@ import org.junit.rules.TemporaryFolder;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for {@link Checksum}.
@@ -45,6 +48,34 @@ public class ChecksumTest {
         assertNotEquals(Checksum.forFile(tmpFile1), Checksum.forFile(tmpFile2));
     }
 
+    @Test
+    public void testForFileCachedNoticesChanges() throws Exception {
+        File tmpFile = createTmpFile("file.txt", FILE_CONTENTS1);
+        HashCode hash1 = Files.hash(tmpFile, Hashing.sha256());
+        assertEquals(createdExpectedChecksum(hash1), Checksum.forFileCached(tmpFile));
+        assertEquals(createdExpectedChecksum(hash1), Checksum.forFileCached(tmpFile));
+
+        Files.append(FILE_CONTENTS2, tmpFile, StandardCharsets.UTF_8);
+        HashCode hash2 = Files.hash(tmpFile, Hashing.sha256());
+        assertEquals(createdExpectedChecksum(hash2), Checksum.forFileCached(tmpFile));
+    }
+
+    @Test
+    public void testForFileCachedForgetsDeletedFiles() throws Exception {
+        File tmpFile = createTmpFile("file.txt", FILE_CONTENTS1);
+        Checksum.forFileCached(tmpFile);
+        assertTrue(Checksum.isCached(tmpFile));
+
+        assertTrue(tmpFile.delete());
+        try {
+            Checksum.forFileCached(tmpFile);
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertFalse(Checksum.isCached(tmpFile));
+    }
+
     private File createTmpFile(String name, String contents) throws Exception {
         File tmpFile = tmp.newFile(name);
         Files.append(contents, tmpFile, StandardCharsets.UTF_8);
@@ -0,0 +1,106 @@
+package hudson.remoting;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClassImageCache}.
+ */
+public class ClassImageCacheTest {
+
+    private static final byte[] IMAGE = "These are the contents".getBytes(StandardCharsets.UTF_8);
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ClassImageCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ClassImageCache(tmp.getRoot());
+    }
+
+    @Test
+    public void storedImageIsFound() {
+        Checksum sum = Checksum.forBytes(IMAGE);
+        assertNull(cache.get(sum));
+        cache.put(IMAGE);
+        assertTrue(cache.map(sum).isFile());
+        assertArrayEquals(IMAGE, cache.get(sum));
+        // survives a restart
+        assertArrayEquals(IMAGE, new ClassImageCache(tmp.getRoot()).get(sum));
+    }
+
+    @Test
+    public void damagedImageIsDiscarded() throws Exception {
+        Checksum sum = Checksum.forBytes(IMAGE);
+        cache.put(IMAGE);
+        File f = cache.map(sum);
+        try (OutputStream o = new FileOutputStream(f)) {
+            o.write("Something else".getBytes(StandardCharsets.UTF_8));
+        }
+        assertNull(cache.get(sum));
+        assertFalse(f.exists());
+
+        cache.put(IMAGE);
+        assertArrayEquals(IMAGE, cache.get(sum));
+    }
+
+    @Test
+    public void leastRecentlyUsedImagesAreEvicted() throws Exception {
+        byte[][] images = new byte[5][];
+        Checksum[] sums = new Checksum[images.length];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = ("Image number " + i).getBytes(StandardCharsets.UTF_8);
+            sums[i] = Checksum.forBytes(images[i]);
+        }
+        cache = new ClassImageCache(tmp.getRoot(), 4 * images[0].length);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            cache.put(images[i]);
+            assertTrue(cache.map(sums[i]).setLastModified(now - (10 - i) * 3600 * 1000L));
+        }
+        // using the first image makes the second one the least recently used
+        assertArrayEquals(images[0], cache.get(sums[0]));
+
+        // going over the size evicts down to three quarters of it
+        cache.put(images[4]);
+        assertTrue(cache.map(sums[0]).exists());
+        assertFalse(cache.map(sums[1]).exists());
+        assertFalse(cache.map(sums[2]).exists());
+        assertTrue(cache.map(sums[3]).exists());
+        assertTrue(cache.map(sums[4]).exists());
+        assertNull(cache.get(sums[1]));
+    }
+
+    @Test
+    public void traceKeepsClassesFromPreviousSessions() {
+        File file = new File(tmp.getRoot(), "traces/a.A.trace");
+        ClassImageCache.Trace trace = new ClassImageCache.Trace(file);
+        assertEquals(0, trace.getExpected().length);
+        trace.add("a.A");
+        trace.add("a.B");
+        trace.add("a.A");
+        trace.save();
+
+        trace = new ClassImageCache.Trace(file);
+        assertArrayEquals(new String[] {"a.A", "a.B"}, trace.getExpected());
+        trace.add("a.A");
+        trace.add("a.C");
+        trace.save();
+
+        assertArrayEquals(new String[] {"a.A", "a.C", "a.B"}, new ClassImageCache.Trace(file).getExpected());
+    }
+}
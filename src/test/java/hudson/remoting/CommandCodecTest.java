@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import junit.framework.Test;
+
+/**
+ * Exercises the commands covered by {@link CommandCodec} over all the channel configurations,
+ * including the ones where the remote side lacks {@link Capability#supportsBinaryCommands()}.
+ */
+public class CommandCodecTest extends RmiTestBase {
+
+    public void testRemoteProxyCalls() throws Exception {
+        Adder local = channel.export(Adder.class, new AdderImpl());
+        assertEquals(Integer.valueOf(12), channel.call(new UseAdder(local)));
+    }
+
+    public void testNullReturnValue() throws Exception {
+        assertNull(channel.call(new ReturnNull()));
+    }
+
+    public void testExceptionResponse() throws Exception {
+        try {
+            channel.call(new Fail());
+            fail();
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    public void testBatchUnexport() throws Exception {
+        int before = channel.exportedObjects.size();
+        int[] oids = {
+                channel.internalExport(Adder.class, new AdderImpl()),
+                channel.internalExport(Adder.class, new AdderImpl())
+        };
+        assertEquals(before + 2, channel.exportedObjects.size());
+        // the command reaches us ahead of the response
+        channel.call(new UnexportBatch(oids));
+        assertEquals(before, channel.exportedObjects.size());
+    }
+
+    public void testCorruptLength() throws Exception {
+        for (int length : new int[] {-2, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(buf);
+            dos.writeByte(CommandCodec.MARKER);
+            dos.writeByte(8); // pipe chunk
+            dos.writeInt(1);
+            dos.writeInt(2);
+            dos.writeInt(3);
+            dos.writeInt(length);
+            dos.write(new byte[16]);
+            try {
+                Command.readFrom(channel, buf.toByteArray());
+                fail("accepted a length of " + length);
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testCorruptBatchUnexportLength() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(buf);
+        dos.writeByte(CommandCodec.MARKER);
+        dos.writeByte(13); // batch unexport
+        dos.writeInt(1000);
+        dos.writeInt(42);
+        try {
+            Command.readFrom(channel, buf.toByteArray());
+            fail();
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+    }
+
+    public interface Adder {
+        int add(int a, String b);
+        int seven();
+        Object none();
+        void fail() throws IOException;
+    }
+
+    private static class AdderImpl implements Adder {
+        public int add(int a, String b) {
+            return a + b.length();
+        }
+        public int seven() {
+            return 7;
+        }
+        public Object none() {
+            return null;
+        }
+        public void fail() throws IOException {
+            throw new IOException("from proxy");
+        }
+    }
+
+    private static class UseAdder extends CallableBase<Integer, IOException> {
+        private final Adder adder;
+        UseAdder(Adder adder) {
+            this.adder = adder;
+        }
+        public Integer call() throws IOException {
+            assertNull(adder.none());
+            try {
+                adder.fail();
+                fail();
+            } catch (IOException e) {
+                assertEquals("from proxy", e.getMessage());
+            }
+            return adder.add(1, "abcd") + adder.seven();
+        }
+    }
+
+    private static class ReturnNull extends CallableBase<Object, RuntimeException> {
+        public Object call() {
+            return null;
+        }
+    }
+
+    private static class Fail extends CallableBase<Object, IOException> {
+        public Object call() throws IOException {
+            throw new IOException("boom");
+        }
+    }
+
+    private static class UnexportBatch extends CallableBase<Object, IOException> {
+        private final int[] oids;
+        UnexportBatch(int[] oids) {
+            this.oids = oids;
+        }
+        public Object call() throws IOException {
+            Channel.currentOrFail().send(new UnexportBatchCommand(oids, null));
+            return null;
+        }
+    }
+
+    public static Test suite() throws Exception {
+        return buildSuite(CommandCodecTest.class);
+    }
+}
@@ -4,7 +4,12 @@ import junit.framework.TestCase;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -27,4 +32,42 @@ public class ExportTableTest extends TestCase {
             assertTrue(sw.toString().contains("ExportTable.export"));
         }
     }
+
+    public void testConcurrentLookups() throws Exception {
+        final ExportTable e = new ExportTable();
+        final int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = e.export(Object.class, "object" + i);
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 3; t++) {
+                futures.add(exec.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int n = 0; n < 100; n++) {
+                            for (int i = 0; i < ids.length; i++) {
+                                assertEquals("object" + i, e.get(ids[i]));
+                                assertEquals(Object.class, e.type(ids[i])[0]);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            futures.add(exec.submit(new java.util.concurrent.Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int n = 0; n < 10000; n++) {
+                        e.unexportByOid(e.export(Object.class, "temporary" + n), null);
+                    }
+                    return null;
+                }
+            }));
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
 }
@@ -17,17 +17,22 @@ import org.mockito.stubbing.Answer;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.internal.matchers.ThrowableMessageMatcher.hasMessage;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -174,6 +179,147 @@ public class FileSystemJarCacheTest {
         jarCache.retrieve(mockChannel, expectedChecksum.sum1, expectedChecksum.sum2);
     }
 
+    @Test
+    public void testResumeAfterConnectionLoss() throws Exception {
+        final byte[] contents = CONTENTS.getBytes(StandardCharsets.UTF_8);
+        when(mockChannel.getProperty(JarLoader.THEIRS)).thenReturn(mockJarLoader);
+        Field capability = Channel.class.getDeclaredField("remoteCapability");
+        capability.setAccessible(true);
+        capability.set(mockChannel, new Capability());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                RemoteOutputStream o = (RemoteOutputStream) invocationOnMock.getArguments()[2];
+                o.write(contents, 0, 10);
+                throw new ChannelClosedException("Connection lost", null);
+            }
+        }).when(mockJarLoader).writeJarTo(
+                eq(expectedChecksum.sum1),
+                eq(expectedChecksum.sum2),
+                any(RemoteOutputStream.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                RemoteOutputStream o = (RemoteOutputStream) invocationOnMock.getArguments()[3];
+                o.write(contents, 10, contents.length - 10);
+                return null;
+            }
+        }).when(mockJarLoader).writeJarTo(
+                eq(expectedChecksum.sum1),
+                eq(expectedChecksum.sum2),
+                eq(10L),
+                any(RemoteOutputStream.class));
+
+        try {
+            fileSystemJarCache.retrieve(mockChannel, expectedChecksum.sum1, expectedChecksum.sum2);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof ChannelClosedException);
+        }
+
+        URL url = fileSystemJarCache.retrieve(mockChannel, expectedChecksum.sum1, expectedChecksum.sum2);
+        assertEquals(expectedChecksum, Checksum.forURL(url));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        long now = System.currentTimeMillis();
+        File oldest = writeCachedJar("oldest", now - 3 * 3600 * 1000);
+        File older = writeCachedJar("older!", now - 2 * 3600 * 1000);
+        File newest = writeCachedJar("newest", now - 3600 * 1000);
+
+        FileSystemJarCache jarCache = new FileSystemJarCache(tmp.getRoot(), true, 2 * oldest.length());
+        jarCache.maintain();
+
+        assertFalse(oldest.exists());
+        assertTrue(older.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void testVerifiesJarsInBackground() throws Exception {
+        long now = System.currentTimeMillis();
+        File good = writeCachedJar(CONTENTS, now - 3600 * 1000);
+        File corrupt = fileSystemJarCache.map(1, 2);
+        writeToFile(corrupt, "Not what the name says");
+        assertTrue(corrupt.setLastModified(now - 3600 * 1000));
+
+        new FileSystemJarCache(tmp.getRoot(), true).maintain();
+        assertFalse(corrupt.exists());
+        assertTrue(good.exists());
+
+        // the verified checksum is remembered across instances, so the jar is not hashed again
+        writeToFile(good, CONTENTS.toUpperCase());
+        URL url = new FileSystemJarCache(tmp.getRoot(), true).retrieve(
+                mockChannel, expectedChecksum.sum1, expectedChecksum.sum2);
+        assertEquals(good.toURI().toURL(), url);
+    }
+
+    @Test
+    public void testMaintainsPartialDownloads() throws Exception {
+        long now = System.currentTimeMillis();
+        File jar = writeCachedJar("cached", now - 2 * 3600 * 1000);
+        File stale = new File(fileSystemJarCache.map(1, 2).getPath() + ".part");
+        writeToFile(stale, "abandoned");
+        assertTrue(stale.setLastModified(now - 2 * 24 * 3600 * 1000L));
+        File recent = new File(fileSystemJarCache.map(3, 4).getPath() + ".part");
+        writeToFile(recent, "partial");
+        assertTrue(recent.setLastModified(now - 3600 * 1000));
+
+        // the recent partial download counts towards the size, so the older jar has to go
+        new FileSystemJarCache(tmp.getRoot(), true, recent.length()).maintain();
+
+        assertFalse(stale.exists());
+        assertFalse(jar.exists());
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void testEvictsJarsOfClosedChannels() throws Exception {
+        final List<Channel.Listener> listeners = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+                listeners.add((Channel.Listener) invocationOnMock.getArguments()[0]);
+                return null;
+            }
+        }).when(mockChannel).addListener(any(Channel.Listener.class));
+        mockCorrectLoad();
+        long now = System.currentTimeMillis();
+        FileSystemJarCache jarCache = new FileSystemJarCache(tmp.getRoot(), true, CONTENTS.length());
+
+        // a jar downloaded through the first connection of a long running agent
+        File old = new File(jarCache.retrieve(mockChannel, expectedChecksum.sum1, expectedChecksum.sum2).toURI());
+        assertTrue(old.setLastModified(now - 2 * 3600 * 1000));
+
+        // and another one used through the next connection
+        Channel next = mock(Channel.class);
+        when(next.getProperty(JarLoader.THEIRS)).thenReturn(mockJarLoader);
+        File current = writeCachedJar("Those are other contents", now - 3600 * 1000);
+        Checksum checksum = FileSystemJarCache.checksumOf(current);
+        assertEquals(current.toURI().toURL(), jarCache.lookInCache(next, checksum.sum1, checksum.sum2));
+
+        // both are in use, so the cache stays over its size
+        jarCache.maintain();
+        assertTrue(old.exists());
+        assertTrue(current.exists());
+
+        for (Channel.Listener listener : listeners) {
+            listener.onClosed(mockChannel, null);
+        }
+        jarCache.maintain();
+        assertFalse(old.exists());
+        assertTrue(current.exists());
+    }
+
+    private File writeCachedJar(String content, long lastModified) throws IOException {
+        Checksum checksum = Checksum.forBytes(content.getBytes(StandardCharsets.UTF_8));
+        File jar = fileSystemJarCache.map(checksum.sum1, checksum.sum2);
+        writeToFile(jar, content);
+        assertTrue(jar.setLastModified(lastModified));
+        return jar;
+    }
+
     private void mockCorrectLoad() throws IOException, InterruptedException {
         when(mockChannel.getProperty(JarLoader.THEIRS)).thenReturn(mockJarLoader);
         doAnswer(new Answer<Void>() {
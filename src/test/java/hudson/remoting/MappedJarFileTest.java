@@ -0,0 +1,80 @@
+package hudson.remoting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MappedJarFile}.
+ */
+public class MappedJarFileTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readsStoredAndDeflatedEntries() throws Exception {
+        byte[] text = "class file contents, repeated ".concat("x".concat(new String(new char[4096]).replace('\0', 'y'))).getBytes(StandardCharsets.UTF_8);
+        byte[] noise = new byte[10000];
+        new Random(42).nextBytes(noise);
+
+        File jar = tmp.newFile("test.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.setComment("a trailing comment");
+            out.putNextEntry(new ZipEntry("foo/Deflated.class"));
+            out.write(text);
+            ZipEntry stored = new ZipEntry("foo/Stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(noise.length);
+            CRC32 crc = new CRC32();
+            crc.update(noise);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(noise);
+            out.putNextEntry(new ZipEntry("empty.txt"));
+        }
+
+        MappedJarFile m = MappedJarFile.open(jar);
+        assertArrayEquals(text, m.read("foo/Deflated.class"));
+        assertArrayEquals(noise, m.read("foo/Stored.bin"));
+        assertArrayEquals(new byte[0], m.read("empty.txt"));
+        assertTrue(m.contains("foo/Stored.bin"));
+        assertFalse(m.contains("foo/Missing.class"));
+        assertNull(m.read("foo/Missing.class"));
+    }
+
+    @Test
+    public void sharesMappingsOfLocalFilesOnly() throws Exception {
+        File jar = tmp.newFile("shared.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("a.txt"));
+            out.write(1);
+        }
+        URL url = jar.toURI().toURL();
+        assertSame(MappedJarFile.of(url), MappedJarFile.of(url));
+        assertNull(MappedJarFile.of(new URL("http://localhost/shared.jar")));
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsNonZipFiles() throws Exception {
+        File notAJar = tmp.newFile("not.jar");
+        Files.write(notAJar.toPath(), "plain text".getBytes(StandardCharsets.UTF_8));
+        MappedJarFile.open(notAJar);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link PipeWindow.Real}.
+ */
+public class PipeWindowTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final WeakHashMap<PipeWindow.Key, WeakReference<PipeWindow>> windows =
+            new WeakHashMap<PipeWindow.Key, WeakReference<PipeWindow>>();
+
+    private PipeWindow.Real window(PipeWindow.Key key, int size, long budget) {
+        PipeWindow.Real w = new PipeWindow.Real(key, size, new PipeWindow.Budget(budget, windows), null, null);
+        windows.put(key, new WeakReference<PipeWindow>(w));
+        return w;
+    }
+
+    @Test
+    public void fixedWindowDoesNotAdapt() {
+        PipeWindow.Real w = new PipeWindow.Real(new PipeWindow.Key(1), 1024 * 1024);
+        w.decrease(512 * 1024);
+        w.increase(512 * 1024);
+        assertEquals(1024 * 1024, w.max());
+        assertEquals(1024 * 1024, w.peek());
+    }
+
+    @Test
+    public void growsWhileDeliveryRateIncreases() {
+        PipeWindow.Real w = window(new PipeWindow.Key(1), 1024 * 1024, Long.MAX_VALUE);
+        w.adapt(RTT, 1024 * 1024, true);
+        assertEquals(2 * 1024 * 1024, w.max());
+        assertEquals(2 * 1024 * 1024, w.peek());
+        w.adapt(RTT, 2 * 1024 * 1024, true);
+        assertEquals(4 * 1024 * 1024, w.max());
+        // not starved, so nothing to learn
+        w.adapt(RTT, 1024, false);
+        assertEquals(4 * 1024 * 1024, w.max());
+    }
+
+    @Test
+    public void revertsGrowthThatDoesNotPayOff() {
+        PipeWindow.Real w = window(new PipeWindow.Key(1), 1024 * 1024, Long.MAX_VALUE);
+        w.adapt(RTT, 1024 * 1024, true);
+        assertEquals(2 * 1024 * 1024, w.max());
+        // twice the data in flight took twice as long: the link was already full
+        w.adapt(RTT * 2, 2 * 1024 * 1024, true);
+        assertEquals(1024 * 1024, w.max());
+        assertEquals(1024 * 1024, w.peek());
+        // and we do not try again straight away
+        for (int i = 0; i < PipeWindow.GROWTH_BACKOFF; i++) {
+            w.adapt(RTT, 1024 * 1024, true);
+            assertEquals(1024 * 1024, w.max());
+        }
+        w.adapt(RTT, 1024 * 1024, true);
+        assertEquals(2 * 1024 * 1024, w.max());
+    }
+
+    @Test
+    public void neverShrinksBelowInitialSize() {
+        PipeWindow.Real w = window(new PipeWindow.Key(1), 1024 * 1024, Long.MAX_VALUE);
+        w.adapt(RTT, 1024 * 1024, true);
+        w.adapt(RTT * 1000, 1024, true);
+        assertEquals(1024 * 1024, w.max());
+    }
+
+    @Test
+    public void neverGrowsBeyondMaximum() {
+        PipeWindow.Real w = window(new PipeWindow.Key(1), 1024 * 1024, Long.MAX_VALUE);
+        for (int i = 0; i < 32; i++) {
+            w.adapt(RTT, w.max(), true);
+        }
+        assertEquals(PipeWindow.MAX_SIZE, w.max());
+    }
+
+    @Test
+    public void budgetIsShared() {
+        PipeWindow.Key key1 = new PipeWindow.Key(1);
+        PipeWindow.Key key2 = new PipeWindow.Key(2);
+        PipeWindow.Key key3 = new PipeWindow.Key(3);
+        PipeWindow.Real w1 = window(key1, 1024 * 1024, 3 * 1024 * 1024 / 2);
+        PipeWindow.Real w2 = window(key2, 1024 * 1024, 3 * 1024 * 1024 / 2);
+        assertEquals(1024 * 1024, w1.max());
+        assertEquals(512 * 1024, w2.max());
+        // the budget is exhausted, but every window gets the minimum
+        PipeWindow.Real w3 = window(key3, 1024 * 1024, 3 * 1024 * 1024 / 2);
+        assertEquals(PipeWindow.MIN_SIZE, w3.max());
+        // and cannot grow
+        w1.adapt(RTT, 1024 * 1024, true);
+        assertEquals(1024 * 1024, w1.max());
+    }
+}
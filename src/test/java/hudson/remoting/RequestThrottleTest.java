@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.remoting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ChannelBuilder#withMaxInFlightRequests(int)}.
+ */
+public class RequestThrottleTest {
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+    private static CountDownLatch release;
+
+    private DualSideChannelRunner runner;
+    private Channel north, south;
+
+    /**
+     * Limits the number of requests from north that south executes at once.
+     */
+    private void setUp(final int limit) throws Exception {
+        running.set(0);
+        maxRunning.set(0);
+        release = new CountDownLatch(1);
+        runner = new InProcessRunner() {
+            @Override
+            protected ChannelBuilder configureSouth() {
+                return super.configureSouth().withMaxInFlightRequests(limit);
+            }
+        };
+        north = runner.start();
+        south = runner.getOtherSide();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (runner != null) {
+            runner.stop(north);
+        }
+    }
+
+    @Test
+    public void pausesReadsWhileTooManyRequestsRun() throws Exception {
+        setUp(2);
+        List<Future<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(north.callAsync(new Block()));
+        }
+        // give south the time to pick up whatever it is allowed to
+        Thread.sleep(500);
+        assertEquals(2, running.get());
+        release.countDown();
+        for (Future<Integer> call : calls) {
+            assertEquals(2, (int) call.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, maxRunning.get());
+        assertTrue(south.getMetrics().getReadPauseTime() > 0);
+    }
+
+    @Test
+    public void callsBackToTheOtherSideDoNotCount() throws Exception {
+        setUp(1);
+        release.countDown();
+        List<Future<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(north.callAsync(new CallBack()));
+        }
+        for (Future<Integer> call : calls) {
+            assertEquals(2, (int) call.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void asyncCallsBackToTheOtherSideDoNotCount() throws Exception {
+        setUp(1);
+        release.countDown();
+        List<Future<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            calls.add(north.callAsync(new AsyncCallBack()));
+        }
+        for (Future<Integer> call : calls) {
+            assertEquals(2, (int) call.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void writesToPipesPastTheWindowDoNotDeadlock() throws Exception {
+        setUp(1);
+        List<Future<Integer>> calls = new ArrayList<>();
+        List<java.util.concurrent.Future<Long>> reads = new ArrayList<>();
+        ExecutorService readers = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < 4; i++) {
+                final Pipe p = Pipe.createRemoteToLocal();
+                calls.add(north.callAsync(new WriteToPipe(p)));
+                reads.add(readers.submit(() -> {
+                    long total = 0;
+                    try (InputStream in = p.getIn()) {
+                        byte[] buf = new byte[8192];
+                        int n;
+                        while ((n = in.read(buf)) >= 0) {
+                            total += n;
+                        }
+                    }
+                    return total;
+                }));
+            }
+            // the acks that open up the pipe windows must get through while requests are held back
+            for (Future<Integer> call : calls) {
+                assertEquals(2, (int) call.get(30, TimeUnit.SECONDS));
+            }
+            for (java.util.concurrent.Future<Long> read : reads) {
+                assertEquals(WriteToPipe.SIZE, (long) read.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private static class Block extends CallableBase<Integer, InterruptedException> {
+        @Override
+        public Integer call() throws InterruptedException {
+            int now = running.incrementAndGet();
+            try {
+                maxRunning.accumulateAndGet(now, Math::max);
+                release.await();
+                return 2;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class CallBack extends CallableBase<Integer, Exception> {
+        @Override
+        public Integer call() throws Exception {
+            // the response comes in through the same channel that holds back the other requests
+            return Channel.currentOrFail().call(new Block());
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class AsyncCallBack extends CallableBase<Integer, Exception> {
+        @Override
+        public Integer call() throws Exception {
+            return Channel.currentOrFail().callAsync(new Block()).get();
+        }
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class WriteToPipe extends CallableBase<Integer, IOException> {
+        /**
+         * Several times the pipe window, so that the writer has to wait for acks.
+         */
+        static final long SIZE = 3L * Channel.PIPE_WINDOW_SIZE;
+
+        private final Pipe pipe;
+
+        WriteToPipe(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            try (OutputStream out = pipe.getOut()) {
+                for (long written = 0; written < SIZE; written += buf.length) {
+                    out.write(buf, 0, (int) Math.min(buf.length, SIZE - written));
+                }
+            }
+            return 2;
+        }
+        private static final long serialVersionUID = 1L;
+    }
+}
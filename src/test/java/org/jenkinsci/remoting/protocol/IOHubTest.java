@@ -29,11 +29,17 @@ import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -277,4 +283,83 @@ public class IOHubTest {
         assertThat("Only ever called ready with accept true", oops.get(), is(false));
         client.close();
     }
+
+    @Test
+    @IOHubRule.Skip
+    public void spreadsChannelsAcrossSelectors() throws Exception {
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        final IOHub hub = IOHub.create(executorService, 2);
+        try {
+            assertThat(hub.getSelectorCount(), is(2));
+            final AtomicInteger received = new AtomicInteger();
+            List<Pipe> pipes = new ArrayList<Pipe>();
+            List<SelectionKey> keys = new ArrayList<SelectionKey>();
+            for (int i = 0; i < 2; i++) {
+                final Pipe pipe = Pipe.open();
+                pipe.source().configureBlocking(false);
+                final AtomicReference<SelectionKey> key = new AtomicReference<SelectionKey>();
+                key.set(hub.register(pipe.source(), new IOHubReadyListener() {
+                    @Override
+                    public void ready(boolean accept, boolean connect, boolean read, boolean write) {
+                        try {
+                            ByteBuffer buffer = ByteBuffer.allocate(16);
+                            while (pipe.source().read(buffer) > 0) {
+                                received.addAndGet(buffer.position());
+                                buffer.clear();
+                            }
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                        hub.addInterestRead(key.get());
+                    }
+                }, false, false, true, false).get(10, TimeUnit.SECONDS));
+                pipes.add(pipe);
+                keys.add(key.get());
+            }
+            assertThat(keys.get(0).selector() == keys.get(1).selector(), is(false));
+            assertThat(hub.getKeyCount(0), is(1));
+            assertThat(hub.getKeyCount(1), is(1));
+            // the second round is only read if the interest ops changes went to the selector owning each key
+            for (int round = 1; round <= 2; round++) {
+                for (Pipe pipe : pipes) {
+                    pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+                }
+                for (int i = 0; i < 1000 && received.get() < 2 * round; i++) {
+                    Thread.sleep(10);
+                }
+                assertThat(received.get(), is(2 * round));
+            }
+            assertThat(hub.getSelectLoopCount(0) > 0, is(true));
+            assertThat(hub.getSelectLoopCount(1) > 0, is(true));
+            hub.unregister(pipes.get(1).source());
+            assertThat(keys.get(1).isValid(), is(false));
+        } finally {
+            hub.close();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    @IOHubRule.Skip
+    public void runsSelectorsOnThreadsOfTheGivenFactory() throws Exception {
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        final AtomicInteger threads = new AtomicInteger();
+        final IOHub hub = IOHub.create(executorService, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                threads.incrementAndGet();
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }, 2);
+        try {
+            assertThat(hub.getSelectorCount(), is(2));
+            // one per selector and one for the watcher
+            assertThat(threads.get(), is(3));
+        } finally {
+            hub.close();
+            executorService.shutdownNow();
+        }
+    }
 }
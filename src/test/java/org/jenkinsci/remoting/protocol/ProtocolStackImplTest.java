@@ -28,6 +28,7 @@ import java.io.OutputStream;
 import java.nio.channels.ClosedChannelException;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import org.jenkinsci.remoting.RoleChecker;
 import org.jenkinsci.remoting.protocol.cert.RSAKeyPairRule;
@@ -999,6 +1000,39 @@ public class ProtocolStackImplTest {
         }
     }
 
+    @Test
+    public void pipeChannelFullProtocolNIO_framesOfAllSizes() throws Exception {
+        Pipe eastToWest = Pipe.open();
+        Pipe westToEast = Pipe.open();
+        SSLEngine westEngine = context.createSSLEngine();
+        westEngine.setUseClientMode(false);
+        westEngine.setNeedClientAuth(true);
+        SSLEngine eastEngine = context.createSSLEngine();
+        eastEngine.setUseClientMode(true);
+
+        ProtocolStack<Future<Channel>> east =
+                ProtocolStack.on(new NIONetworkLayer(selector.hub(), westToEast.source(), eastToWest.sink()))
+                        .filter(new AckFilterLayer())
+                        .filter(new SSLEngineFilterLayer(eastEngine, null))
+                        .build(new ChannelApplicationLayer(selector.executorService(), null));
+
+        ProtocolStack<Future<Channel>> west =
+                ProtocolStack.on(new NIONetworkLayer(selector.hub(), eastToWest.source(), westToEast.sink()))
+                        .filter(new AckFilterLayer())
+                        .filter(new SSLEngineFilterLayer(westEngine, null))
+                        .build(new ChannelApplicationLayer(selector.executorService(), null));
+        // small frames are written as one buffer, larger ones as header and data
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 1000, 1021, 1022, 1023, 1024, 8192, 65536, 1024 * 1024}) {
+            byte[] expected = new byte[size];
+            random.nextBytes(expected);
+            assertThat(east.get().get().call(new EchoCallable(expected)), is(expected));
+            assertThat(west.get().get().call(new EchoCallable(expected)), is(expected));
+        }
+        west.get().get().close();
+        east.get().get().close();
+    }
+
     @Theory
     public void pipeSaturation(NetworkLayerFactory clientFactory, NetworkLayerFactory serverFactory) throws Exception {
         Pipe clientToServer = Pipe.open();
@@ -1185,6 +1219,24 @@ public class ProtocolStackImplTest {
         }
     }
 
+    private static class EchoCallable implements Callable<byte[], IOException> {
+        private final byte[] data;
+
+        public EchoCallable(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            return data;
+        }
+
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+
+        }
+    }
+
     private static class CreateSaturationTestProxy implements Callable<ISaturationTest, IOException> {
         private final hudson.remoting.Pipe pipe;
 
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.protocol.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.remoting.protocol.IOBufferMatcher;
+import org.jenkinsci.remoting.protocol.IOBufferMatcherLayer;
+import org.jenkinsci.remoting.protocol.IOHubRule;
+import org.jenkinsci.remoting.protocol.NetworkLayerFactory;
+import org.jenkinsci.remoting.protocol.ProtocolStack;
+import org.jenkinsci.remoting.protocol.RepeatRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.experimental.theories.DataPoint;
+import org.junit.experimental.theories.Theories;
+import org.junit.experimental.theories.Theory;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestName;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(Theories.class)
+public class DeflateFilterLayerTest {
+
+    private static final ConnectionHeadersFilterLayer.Listener ACCEPT = new ConnectionHeadersFilterLayer.Listener() {
+        @Override
+        public void onReceiveHeaders(Map<String, String> headers) throws ConnectionRefusalException {
+        }
+    };
+
+    @Rule
+    public TestName name = new TestName();
+    private IOHubRule selector = new IOHubRule();
+    @Rule
+    public RuleChain chain = RuleChain.outerRule(selector)
+            .around(new RepeatRule())
+            .around(new Timeout(10, TimeUnit.SECONDS));
+
+    private Pipe clientToServer;
+    private Pipe serverToClient;
+
+    @DataPoint("blocking I/O")
+    public static NetworkLayerFactory blocking() {
+        return new NetworkLayerFactory.BIO();
+    }
+
+    @DataPoint("non-blocking I/O")
+    public static NetworkLayerFactory nonBlocking() {
+        return new NetworkLayerFactory.NIO();
+    }
+
+    @Before
+    public void setUpPipe() throws Exception {
+        clientToServer = Pipe.open();
+        serverToClient = Pipe.open();
+    }
+
+    @After
+    public void tearDownPipe() throws Exception {
+        IOUtils.closeQuietly(clientToServer.sink());
+        IOUtils.closeQuietly(clientToServer.source());
+        IOUtils.closeQuietly(serverToClient.sink());
+        IOUtils.closeQuietly(serverToClient.source());
+    }
+
+    private ProtocolStack<IOBufferMatcher> stack(NetworkLayerFactory factory, Pipe.SourceChannel source,
+                                                 Pipe.SinkChannel sink, DeflateFilterLayer deflate)
+            throws Exception {
+        Map<String, String> headers = Collections.emptyMap();
+        return ProtocolStack
+                .on(factory.create(selector.hub(), source, sink))
+                .filter(deflate == null
+                        ? new ConnectionHeadersFilterLayer(headers, ACCEPT)
+                        : new ConnectionHeadersFilterLayer(deflate.decorate(headers), deflate.listener(ACCEPT)))
+                .filter(deflate)
+                .build(new IOBufferMatcherLayer());
+    }
+
+    private static byte[] exchange(ProtocolStack<IOBufferMatcher> from, ProtocolStack<IOBufferMatcher> to,
+                                   byte[] expected) throws Exception {
+        from.get().send(ByteBuffer.wrap(expected));
+        to.get().awaitByteContent(is(expected));
+        return to.get().asByteArray();
+    }
+
+    @Theory
+    public void smokes(NetworkLayerFactory serverFactory, NetworkLayerFactory clientFactory) throws Exception {
+        DeflateFilterLayer clientDeflate = new DeflateFilterLayer();
+        DeflateFilterLayer serverDeflate = new DeflateFilterLayer();
+        ProtocolStack<IOBufferMatcher> client =
+                stack(clientFactory, serverToClient.source(), clientToServer.sink(), clientDeflate);
+        ProtocolStack<IOBufferMatcher> server =
+                stack(serverFactory, clientToServer.source(), serverToClient.sink(), serverDeflate);
+
+        byte[] expected = "Here is some sample data".getBytes("UTF-8");
+        assertThat(exchange(server, client, expected), is(expected));
+        assertThat(clientDeflate.isCompressing(), is(true));
+        assertThat(serverDeflate.isCompressing(), is(true));
+        server.get().close();
+        client.get().awaitClose();
+    }
+
+    @Theory
+    public void compressibleAndIncompressible(NetworkLayerFactory serverFactory, NetworkLayerFactory clientFactory)
+            throws Exception {
+        ProtocolStack<IOBufferMatcher> client =
+                stack(clientFactory, serverToClient.source(), clientToServer.sink(), new DeflateFilterLayer());
+        ProtocolStack<IOBufferMatcher> server =
+                stack(serverFactory, clientToServer.source(), serverToClient.sink(), new DeflateFilterLayer());
+
+        // large enough to span several frames, alternating between data that deflates well and data that does not
+        byte[] expected = new byte[1024 * 1024];
+        Random entropy = new Random();
+        for (int i = 0; i < expected.length; i += 128 * 1024) {
+            if ((i / (128 * 1024)) % 2 == 0) {
+                for (int j = i; j < i + 128 * 1024; j++) {
+                    expected[j] = (byte) ('a' + j % 7);
+                }
+            } else {
+                byte[] noise = new byte[128 * 1024];
+                entropy.nextBytes(noise);
+                System.arraycopy(noise, 0, expected, i, noise.length);
+            }
+        }
+        assertThat(exchange(client, server, expected), is(expected));
+        server.get().close();
+        client.get().awaitClose();
+    }
+
+    @Theory
+    public void remoteWithoutCompression(NetworkLayerFactory serverFactory, NetworkLayerFactory clientFactory)
+            throws Exception {
+        DeflateFilterLayer clientDeflate = new DeflateFilterLayer();
+        ProtocolStack<IOBufferMatcher> client =
+                stack(clientFactory, serverToClient.source(), clientToServer.sink(), clientDeflate);
+        ProtocolStack<IOBufferMatcher> server =
+                stack(serverFactory, clientToServer.source(), serverToClient.sink(), null);
+
+        byte[] expected = "Here is some sample data".getBytes("UTF-8");
+        assertThat(exchange(client, server, expected), is(expected));
+        assertThat(exchange(server, client, expected), is(expected));
+        assertThat(clientDeflate.isCompressing(), is(false));
+        server.get().close();
+        client.get().awaitClose();
+    }
+}
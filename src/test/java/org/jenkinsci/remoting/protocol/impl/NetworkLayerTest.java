@@ -23,8 +23,13 @@
  */
 package org.jenkinsci.remoting.protocol.impl;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -104,4 +109,50 @@ public class NetworkLayerTest {
         client.get().awaitClose();
     }
 
+    @Theory
+    public void doLargeSendReceive(NetworkLayerFactory serverFactory, NetworkLayerFactory clientFactory)
+            throws Exception {
+        ProtocolStack<IOBufferMatcher> client =
+                ProtocolStack
+                        .on(clientFactory.create(hub, serverToClient.source(), clientToServer.sink()))
+                        .build(new IOBufferMatcherLayer());
+
+
+        ProtocolStack<IOBufferMatcher> server =
+                ProtocolStack
+                        .on(serverFactory.create(hub, clientToServer.source(), serverToClient.sink()))
+                        .build(new IOBufferMatcherLayer());
+
+        // several times the size of a batch of reads, and not a multiple of it
+        byte[] expected = new byte[1024 * 1024 + 17];
+        new Random(42).nextBytes(expected);
+        server.get().send(ByteBuffer.wrap(expected));
+        client.get().awaitByteContent(is(expected));
+        assertThat(client.get().asByteArray(), is(expected));
+        server.get().close();
+        client.get().awaitClose();
+    }
+
+    @Theory
+    public void deliversWhatWasReadBeforeAConnectionReset(NetworkLayerFactory factory) throws Exception {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel peer = SocketChannel.open(listener.getLocalAddress());
+            SocketChannel channel = listener.accept();
+            byte[] expected = "Here is some sample data".getBytes("UTF-8");
+            peer.write(ByteBuffer.wrap(expected));
+            // a reset right behind the data, so that the read after the data fails
+            peer.socket().setSoLinger(true, 0);
+            peer.close();
+
+            ProtocolStack<IOBufferMatcher> stack =
+                    ProtocolStack
+                            .on(factory.create(hub, channel, channel))
+                            .build(new IOBufferMatcherLayer());
+
+            stack.get().awaitClose();
+            assertThat(stack.get().asByteArray(), is(expected));
+        }
+    }
+
 }
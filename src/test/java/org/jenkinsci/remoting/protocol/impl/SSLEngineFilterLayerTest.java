@@ -23,14 +23,25 @@
  */
 package org.jenkinsci.remoting.protocol.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.Pipe;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLEngine;
@@ -60,6 +71,7 @@ import org.junit.rules.TestName;
 import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
@@ -210,6 +222,149 @@ public class SSLEngineFilterLayerTest {
         client.get().awaitClose();
     }
 
+    @Theory
+    public void queuedWritesAreEncryptedInBatches(NetworkLayerFactory serverFactory,
+                                                  NetworkLayerFactory clientFactory) throws Exception {
+        SSLEngine serverEngine = serverCtx.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        serverEngine.setNeedClientAuth(true);
+        SSLEngine clientEngine = clientCtx.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+
+        ProtocolStack<IOBufferMatcher> client =
+                ProtocolStack.on(
+                        clientFactory.create(selector.hub(), serverToClient.source(), clientToServer.sink()))
+                        .filter(new SSLEngineFilterLayer(clientEngine, null))
+                        .build(new IOBufferMatcherLayer());
+
+        ProtocolStack<IOBufferMatcher> server =
+                ProtocolStack.on(
+                        serverFactory.create(selector.hub(), clientToServer.source(), serverToClient.sink()))
+                        .filter(new SSLEngineFilterLayer(serverEngine, null))
+                        .build(new IOBufferMatcherLayer());
+
+        // sent before the handshake completes, so they queue up and more than a record's worth is wrapped at once
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            byte[] message = new byte[i % 10 == 0 ? 4096 : 1 + random.nextInt(64)];
+            random.nextBytes(message);
+            expected.write(message);
+            server.get().send(ByteBuffer.wrap(message));
+        }
+        client.get().awaitByteContent(is(expected.toByteArray()));
+        assertThat(client.get().asByteArray(), is(expected.toByteArray()));
+        server.get().close();
+        client.get().awaitClose();
+    }
+
+    @Theory
+    public void delegatedTasksRunOnSuppliedExecutor(NetworkLayerFactory serverFactory,
+                                                    NetworkLayerFactory clientFactory) throws Exception {
+        final AtomicInteger tasks = new AtomicInteger();
+        final Set<Thread> delegateThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final ExecutorService delegate = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                delegateThreads.add(thread);
+                return thread;
+            }
+        });
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                delegate.execute(command);
+            }
+        };
+        final List<Thread> completedOn = Collections.synchronizedList(new ArrayList<Thread>());
+        SSLEngineFilterLayer.Listener listener = new SSLEngineFilterLayer.Listener() {
+            @Override
+            public void onHandshakeCompleted(SSLSession session) {
+                completedOn.add(Thread.currentThread());
+            }
+        };
+        try {
+            SSLEngine serverEngine = serverCtx.createSSLEngine();
+            serverEngine.setUseClientMode(false);
+            serverEngine.setNeedClientAuth(true);
+            SSLEngine clientEngine = clientCtx.createSSLEngine();
+            clientEngine.setUseClientMode(true);
+
+            ProtocolStack<IOBufferMatcher> client =
+                    ProtocolStack.on(
+                            clientFactory.create(selector.hub(), serverToClient.source(), clientToServer.sink()))
+                            .filter(new SSLEngineFilterLayer(clientEngine, listener, executor))
+                            .build(new IOBufferMatcherLayer());
+
+            ProtocolStack<IOBufferMatcher> server =
+                    ProtocolStack.on(
+                            serverFactory.create(selector.hub(), clientToServer.source(), serverToClient.sink()))
+                            .filter(new SSLEngineFilterLayer(serverEngine, listener, executor))
+                            .build(new IOBufferMatcherLayer());
+
+            byte[] expected = "Here is some sample data".getBytes("UTF-8");
+            ByteBuffer data = ByteBuffer.allocate(expected.length);
+            data.put(expected);
+            data.flip();
+            server.get().send(data);
+            client.get().awaitByteContent(is(expected));
+            assertThat(client.get().asByteArray(), is(expected));
+            assertThat(tasks.get(), greaterThan(0));
+            // the handshake carries on on the stack rather than on the delegated task executor
+            for (Thread thread : completedOn) {
+                assertThat(delegateThreads.contains(thread), is(false));
+            }
+            server.get().close();
+            client.get().awaitClose();
+        } finally {
+            delegate.shutdownNow();
+        }
+    }
+
+    @Theory
+    public void delegatedTasksRejectedBySuppliedExecutorRunOnTheStack(NetworkLayerFactory serverFactory,
+                                                                      NetworkLayerFactory clientFactory)
+            throws Exception {
+        final AtomicInteger tasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                throw new RejectedExecutionException("saturated");
+            }
+        };
+        SSLEngine serverEngine = serverCtx.createSSLEngine();
+        serverEngine.setUseClientMode(false);
+        serverEngine.setNeedClientAuth(true);
+        SSLEngine clientEngine = clientCtx.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+
+        ProtocolStack<IOBufferMatcher> client =
+                ProtocolStack.on(
+                        clientFactory.create(selector.hub(), serverToClient.source(), clientToServer.sink()))
+                        .filter(new SSLEngineFilterLayer(clientEngine, null, executor))
+                        .build(new IOBufferMatcherLayer());
+
+        ProtocolStack<IOBufferMatcher> server =
+                ProtocolStack.on(
+                        serverFactory.create(selector.hub(), clientToServer.source(), serverToClient.sink()))
+                        .filter(new SSLEngineFilterLayer(serverEngine, null, executor))
+                        .build(new IOBufferMatcherLayer());
+
+        byte[] expected = "Here is some sample data".getBytes("UTF-8");
+        ByteBuffer data = ByteBuffer.allocate(expected.length);
+        data.put(expected);
+        data.flip();
+        server.get().send(data);
+        client.get().awaitByteContent(is(expected));
+        assertThat(client.get().asByteArray(), is(expected));
+        assertThat(tasks.get(), greaterThan(0));
+        server.get().close();
+        client.get().awaitClose();
+    }
+
     @Theory
     public void clientRejectsServer(NetworkLayerFactory serverFactory, NetworkLayerFactory clientFactory) throws Exception {
         SSLEngine serverEngine = serverCtx.createSSLEngine();
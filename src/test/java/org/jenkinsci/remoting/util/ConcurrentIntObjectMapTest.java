@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrentIntObjectMapTest {
+
+    @Test
+    public void putGetRemove() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<String>();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.put(1, "one"), nullValue());
+        assertThat(map.put(-1, "minus one"), nullValue());
+        assertThat(map.put(1, "uno"), is("one"));
+        assertThat(map.get(1), is("uno"));
+        assertThat(map.get(-1), is("minus one"));
+        assertThat(map.get(2), nullValue());
+        assertThat(map.size(), is(2));
+        assertThat(map.remove(1), is("uno"));
+        assertThat(map.remove(1), nullValue());
+        assertThat(map.get(1), nullValue());
+        assertThat(map.values(), containsInAnyOrder("minus one"));
+        assertThat(map.removeAll(), containsInAnyOrder("minus one"));
+        assertThat(map.isEmpty(), is(true));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        // a single stripe makes for the longest probe sequences
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<Integer>(1);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random r = new Random(42);
+        for (int n = 0; n < 200000; n++) {
+            int key = r.nextInt(2000);
+            switch (r.nextInt(3)) {
+            case 0:
+                assertThat(map.put(key, n), is(expected.put(key, n)));
+                break;
+            case 1:
+                assertThat(map.remove(key), is(expected.remove(key)));
+                break;
+            default:
+                assertThat(map.get(key), is(expected.get(key)));
+            }
+        }
+        assertThat(map.size(), is(expected.size()));
+        assertThat(map.values(), containsInAnyOrder(expected.values().toArray()));
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        final ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<Integer>(4);
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                final int base = t * 100000;
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 10000; i++) {
+                            map.put(base + i, i);
+                        }
+                        for (int i = 0; i < 10000; i += 2) {
+                            assertThat(map.remove(base + i), is(i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        assertThat(map.size(), is(8 * 5000));
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 10000; i++) {
+                assertThat(map.get(t * 100000 + i), is(i % 2 == 0 ? null : i));
+            }
+        }
+        assertThat(map.removeAll().size(), is(8 * 5000));
+        assertThat(map.isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The tests for the virtual thread support are skipped below Java 21, and the tests for the fallback from Java 21 on.
+ */
+public class ExecutorServiceUtilsTest {
+
+    /**
+     * The first release with virtual threads.
+     */
+    private static final int VIRTUAL_THREADS_SINCE = 21;
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        return Integer.parseInt(version);
+    }
+
+    @Test
+    public void virtualThreadsUnsupported() {
+        assumeTrue(javaVersion() < VIRTUAL_THREADS_SINCE);
+        assertThat(ExecutorServiceUtils.isVirtualThreadSupported(), is(false));
+        assertThat(ExecutorServiceUtils.newVirtualThreadFactory("test"), nullValue());
+        assertThat(ExecutorServiceUtils.newVirtualThreadPerTaskExecutor("test"), nullValue());
+        assertThat(ExecutorServiceUtils.isVirtualThread(Thread.currentThread()), is(false));
+    }
+
+    @Test
+    public void runsTasksOnVirtualThreads() throws Exception {
+        assumeTrue(javaVersion() >= VIRTUAL_THREADS_SINCE);
+        assertThat(ExecutorServiceUtils.isVirtualThreadSupported(), is(true));
+        assertThat(ExecutorServiceUtils.newVirtualThreadFactory("test"), notNullValue());
+        assertThat(ExecutorServiceUtils.isVirtualThread(Thread.currentThread()), is(false));
+        ExecutorService executor = ExecutorServiceUtils.newVirtualThreadPerTaskExecutor("test");
+        assertThat(executor, notNullValue());
+        try {
+            Future<Thread> thread = executor.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            });
+            assertThat(thread.get(10, TimeUnit.SECONDS).getName(), is("test-0"));
+            assertThat(ExecutorServiceUtils.isVirtualThread(thread.get()), is(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
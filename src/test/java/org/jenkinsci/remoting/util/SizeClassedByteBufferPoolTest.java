@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.remoting.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SizeClassedByteBufferPoolTest {
+
+    @Test
+    public void roundsUpToSizeClasses() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(1024, 3, 2, 2, 1 << 20);
+        assertSize(pool.acquire(1), 1024, 1);
+        assertSize(pool.acquire(1024), 1024, 1024);
+        assertSize(pool.acquire(1025), 2048, 1025);
+        assertSize(pool.acquire(4096), 4096, 4096);
+        // larger than the largest class
+        assertSize(pool.acquire(4097), 4097, 4097);
+        assertThat(pool.getMisses(), is(5L));
+    }
+
+    @Test
+    public void reusesBuffersOfTheSameClass() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(1024, 3, 2, 2, 1 << 20);
+        ByteBuffer buffer = pool.acquire(1500);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer again = pool.acquire(2000);
+        assertThat(again, sameInstance(buffer));
+        assertThat(again.position(), is(0));
+        assertThat(again.limit(), is(2000));
+        assertThat(pool.acquire(1000), not(sameInstance(buffer)));
+        assertThat(pool.getHits(), is(1L));
+        assertThat(pool.getMisses(), is(2L));
+    }
+
+    @Test
+    public void sharesBuffersBetweenThreads() throws Exception {
+        final SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(1024, 1, 0, 2, 1 << 20);
+        final ByteBuffer buffer = pool.acquire(100);
+        pool.release(buffer);
+        assertThat(pool.getRetainedBytes(), is(1024L));
+        final AtomicReference<ByteBuffer> acquired = new AtomicReference<ByteBuffer>();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquired.set(pool.acquire(100));
+            }
+        });
+        t.start();
+        t.join();
+        assertThat(acquired.get(), sameInstance(buffer));
+        assertThat(pool.getRetainedBytes(), is(0L));
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(1024, 2, 1, 4, 3000);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(1024);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        // one in the thread cache, one in the shared tier, and the last two over the byte limit
+        assertThat(pool.getRetainedBytes(), is(2048L));
+        assertThat(pool.getEvictions(), is(2L));
+        // buffers that are not ours are ignored
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(1500));
+        assertThat(pool.getEvictions(), is(2L));
+        assertThat(pool.getRetainedBytes(), is(2048L));
+    }
+
+    @Test
+    public void countsThreadCachesTowardsTheLimit() throws Exception {
+        final SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(1024, 1, 2, 0, 2048);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer first = pool.acquire(1024);
+                    ByteBuffer second = pool.acquire(1024);
+                    pool.release(first);
+                    pool.release(second);
+                }
+            });
+            threads[i].start();
+            threads[i].join();
+        }
+        // whichever thread came first keeps its two buffers, and the others cannot keep any
+        assertThat(pool.getRetainedBytes(), is(2048L));
+        assertThat(pool.getEvictions(), is(6L));
+    }
+
+    private static void assertSize(ByteBuffer buffer, int capacity, int limit) {
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.capacity(), is(capacity));
+        assertThat(buffer.limit(), is(limit));
+        assertThat(buffer.position(), is(0));
+    }
+}